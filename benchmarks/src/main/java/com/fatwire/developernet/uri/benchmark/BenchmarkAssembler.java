@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.benchmark;
+
+import com.fatwire.cs.core.uri.Definition;
+import com.fatwire.developernet.uri.itemcontext.ItemContextAssembler;
+import com.fatwire.developernet.uri.lightweight.LightweightAbstractAssembler;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Exposes the protected helpers of {@link LightweightAbstractAssembler} to the benchmarks.  Assembly and disassembly
+ * are handed to an {@link ItemContextAssembler} configured with the same properties.  Also holds a copy of the
+ * original (two-map) <code>parseQueryString</code> implementation, so that the current parser can be compared
+ * against it.
+ */
+final class BenchmarkAssembler extends LightweightAbstractAssembler
+{
+    private static final String CHARSET_lower = "_charset_";
+    private static final String CHARSET_upper = "_CHARSET_";
+
+    private final ItemContextAssembler delegate = new ItemContextAssembler();
+
+    public void setProperties(Properties props)
+    {
+        super.setProperties(props);
+        delegate.setProperties(props);
+    }
+
+    public URI assemble(Definition definition) throws URISyntaxException
+    {
+        return delegate.assemble(definition);
+    }
+
+    public Definition disassemble(URI uri, Definition.ContainerType containerType) throws URISyntaxException
+    {
+        return delegate.disassemble(uri, containerType);
+    }
+
+    Map<String, String[]> parse(String qry)
+    {
+        return parseQueryString(qry);
+    }
+
+    String construct(Map<String, String[]> parameters)
+    {
+        return constructQueryString(parameters);
+    }
+
+    String[] exclude(String[] packedargs, Collection<String> toExclude)
+    {
+        return excludeFromPackedargs(packedargs, toExclude);
+    }
+
+    static URI uri(String scheme, String authority, String path, String quotedQueryString, String fragment) throws URISyntaxException
+    {
+        return constructURI(scheme, authority, path, quotedQueryString, fragment);
+    }
+
+    /**
+     * The original implementation of <code>parseQueryString</code>: substring and trim every pair into a raw map,
+     * growing the value arrays for repeated names, then decode everything into a second map.
+     *
+     * @param qry query string
+     * @return map containing <code>String</code>/<code>String[]</code> pairs.
+     */
+    Map<String, String[]> parseLegacy(String qry)
+    {
+        Map<String, String[]> rawPairs = new HashMap<String, String[]>();
+        if(qry == null)
+        {
+            return rawPairs;
+        }
+        int inlen = qry.length();
+        if(inlen == 0)
+        {
+            return rawPairs;
+        }
+
+        int iequal;
+        int iamper;
+        int startAt = 0;
+        boolean bDone = false;
+
+        while(!bDone)
+        {
+            String n;
+            String v;
+            if((iequal = qry.indexOf("=", startAt)) != -1)
+            {
+                // End of current name=value is '&' or EOL
+                iamper = qry.indexOf("&", iequal);
+                n = qry.substring(startAt, iequal);
+                n = n.trim(); // deal with accidental odd chars in the URL
+                iequal++;
+                if(iequal >= inlen)
+                {
+                    break;
+                }
+
+                if(iamper == -1)
+                {
+                    v = qry.substring(iequal);
+                }
+                else
+                {
+                    v = qry.substring(iequal, iamper);
+                }
+
+                if(iamper != -1)
+                {
+                    startAt = iamper + 1;
+                }
+                else
+                {
+                    bDone = true;
+                }
+
+                v = v.trim(); // deal with stupid value
+
+                // add the value to the result.
+                String[] av = rawPairs.get(n);
+                if(av == null)
+                {
+                    av = new String[1];
+                    av[0] = v;
+                    rawPairs.put(n, av);
+                }
+                else
+                {
+                    // param specified twice in the url.
+                    String[] newVal = new String[av.length + 1];
+                    System.arraycopy(av, 0, newVal, 0, av.length);
+                    newVal[av.length] = v;
+                    rawPairs.put(n, newVal);
+                }
+            }
+            else
+            {
+                break;        // no more pairs
+            }
+        }
+
+        // Figure out which encoding to use to decode the params
+        String[] _charset_ = rawPairs.get(CHARSET_lower) == null ? rawPairs.get(CHARSET_upper) : rawPairs.get(CHARSET_lower);
+        final String encoding;
+        if(_charset_ == null)
+        {
+            encoding = null; // try to follow the spec
+        }
+        else if(_charset_.length == 1)
+        {
+            encoding = _charset_[0]; // url contains an override for the spec
+        }
+        else
+        {
+            throw new IllegalStateException("Too many values of _charset_ found in the URL");
+        }
+
+        // Decode the raw pairs using the proper encoding and set them into the result map
+        Map<String, String[]> res = new HashMap<String, String[]>(rawPairs.size());
+        for(String rawKey : rawPairs.keySet())
+        {
+            String key = decode(rawKey, encoding);
+            String[] val = rawPairs.get(rawKey);
+            for(int i = 0; i < val.length; i++)
+            {
+                val[i] = decode(val[i], encoding);
+            }
+            res.put(key, val);
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the assembler benchmarks with the GC profiler enabled, so that every result reports the allocation rate
+ * (<code>gc.alloc.rate.norm</code>, bytes per operation) next to the throughput.
+ * <p/>
+ * Usage: <code>java -jar target/benchmarks.jar [regexp] [JMH options]</code>.  All of the usual JMH command line
+ * options are accepted, e.g. <code>-p cacheSize=0</code> or <code>-rf json</code>.  With no regexp, all of the
+ * benchmarks in this package are run.
+ */
+public final class BenchmarkRunner
+{
+    private BenchmarkRunner()
+    {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if(commandLine.getIncludes().isEmpty())
+        {
+            builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+        Options options = builder.parent(commandLine).addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.benchmark;
+
+import com.fatwire.cs.core.uri.Assembler;
+import com.fatwire.cs.core.uri.Definition;
+import com.fatwire.cs.core.uri.Simple;
+import com.fatwire.developernet.uri.itemcontext.ItemContextAssembler;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.*;
+
+/**
+ * Deterministic, realistic input for the benchmarks: deep item contexts, multi-valued parameters, heavy
+ * packedargs, <code>_charset_</code> overrides and variants.  The same seed always produces the same corpus,
+ * so results can be compared between runs.
+ */
+final class Corpus
+{
+    static final String URI_BASE = "/cs/Satellite";
+    static final String WRAPPER = "FirstSiteII/Wrapper";
+    static final String TEMPLATE = "FirstSiteII/Layout";
+
+    private static final String[][] ITEM_TYPES = {{"Page", "page"}, {"Article", "article"}, {"Product_C", "product"}, {"FW_Content_C", "content"}, {"Media_C", "media"}};
+
+    private static final String[] CONTEXT_WORDS = {"home", "company", "news", "press-releases", "2009", "products", "consumer", "electronics", "audio", "headphones", "support", "downloads", "über-uns", "Straße", "careers", "europe", "investor relations", "café"};
+
+    private static final String[] ALIASES = {"index", "privacy-policy", "logo-full", "q3-results", "ipod-touch-32gb", "noise cancelling", "résumé", "faq", "contact_us", "2009-08-14"};
+
+    private static final String[] PACKED_NAMES = {"rendermode", "locale", "site", "seid", "searchterm", "sort", "page", "filter", "tracking", "ft_ss"};
+
+    private static final String[] PACKED_VALUES = {"live", "en_US", "fr_FR", "FirstSiteII", "1114326252375", "red shoes", "price desc", "2", "brand:Acme|color:black", "utm_source=newsletter&utm_medium=email", "x", "€50–€100"};
+
+    private final Random random;
+
+    Corpus(long seed)
+    {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param cacheSize size of the assembly and disassembly caches
+     * @return configuration for an {@link ItemContextAssembler} that knows all the item types in the corpus.
+     */
+    static Properties assemblerProperties(int cacheSize)
+    {
+        Properties p = new Properties();
+        p.setProperty(Assembler.PROP_URIBASE_SATELLITE_SERVER, URI_BASE);
+        p.setProperty(ItemContextAssembler.PROP_GLOBAL_WRAPPER_PAGENAME, WRAPPER);
+        p.setProperty(ItemContextAssembler.PROP_GLOBAL_TEMPLATE_PAGENAME, TEMPLATE);
+        p.setProperty(ItemContextAssembler.PROP_ALWAYS_UNPACK_ARGS, "rendermode,locale");
+        for(String[] type : ITEM_TYPES)
+        {
+            p.setProperty(ItemContextAssembler.PROP_ITEM_TYPE_PARAMETER_PREFIX + type[0], type[1]);
+            p.setProperty(ItemContextAssembler.PROP_ITEM_TYPE_ALIAS_PREFIX + type[1], type[0]);
+        }
+        p.setProperty(ItemContextAssembler.PROP_ASSEMBLY_CACHE_SIZE, Integer.toString(cacheSize));
+        p.setProperty(ItemContextAssembler.PROP_DISASSEMBLY_CACHE_SIZE, Integer.toString(cacheSize));
+        return p;
+    }
+
+    private String _pick(String[] choices)
+    {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    private static String _encode(String s)
+    {
+        try
+        {
+            return URLEncoder.encode(s, "UTF-8");
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    /**
+     * @return an item context 1 to 8 levels deep
+     */
+    String itemContext()
+    {
+        int depth = 1 + random.nextInt(8);
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < depth; i++)
+        {
+            if(i > 0)
+            {
+                sb.append('/');
+            }
+            sb.append(_pick(CONTEXT_WORDS));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param maxPairs maximum number of pairs
+     * @return an encoded packedargs string, possibly with repeated names
+     */
+    String packedargs(int maxPairs)
+    {
+        int pairs = 1 + random.nextInt(maxPairs);
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < pairs; i++)
+        {
+            if(i > 0)
+            {
+                sb.append('&');
+            }
+            sb.append(_pick(PACKED_NAMES)).append('=').append(_encode(_pick(PACKED_VALUES)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return an encoded packedargs string holding embedded parameters as well as up to 15 other pairs
+     */
+    String heavyPackedargs()
+    {
+        return "item-context=" + _encode(itemContext()) + "&item-alias=" + _encode(_pick(ALIASES)) + "&rendermode=live&" + packedargs(15);
+    }
+
+    /**
+     * @return a definition for the item context assembler, as a Content Server page would generate it.
+     */
+    Definition definition()
+    {
+        Simple d = new Simple(false, Definition.SatelliteContext.SATELLITE_SERVER, Definition.ContainerType.SERVLET, random.nextInt(4) == 0 ? "https" : null, random.nextInt(4) == 0 ? "www.example.com" : null, Definition.AppType.CONTENT_SERVER, random.nextInt(10) == 0 ? "top" : null);
+        Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+        String[] type = ITEM_TYPES[random.nextInt(ITEM_TYPES.length)];
+        params.put("pagename", new String[]{WRAPPER});
+        params.put("childpagename", new String[]{TEMPLATE});
+        params.put("c", new String[]{type[0]});
+        params.put("cid", new String[]{Long.toString(1100000000000L + random.nextInt(Integer.MAX_VALUE))});
+        params.put("p", new String[]{Long.toString(1100000000000L + random.nextInt(Integer.MAX_VALUE))});
+
+        StringBuilder packed = new StringBuilder("item-context=").append(_encode(itemContext()));
+        if(random.nextBoolean())
+        {
+            packed.append("&item-alias=").append(_encode(_pick(ALIASES)));
+        }
+        else
+        {
+            params.put("item-alias", new String[]{_pick(ALIASES)});
+        }
+        if(random.nextInt(3) == 0)
+        {
+            packed.append("&variant=").append(1 + random.nextInt(12));
+        }
+        packed.append('&').append(packedargs(15));
+        params.put("packedargs", new String[]{packed.toString()});
+
+        // some multi-valued parameters
+        if(random.nextBoolean())
+        {
+            int n = 2 + random.nextInt(4);
+            String[] facets = new String[n];
+            for(int i = 0; i < n; i++)
+            {
+                facets[i] = _pick(PACKED_VALUES);
+            }
+            params.put("facet", facets);
+        }
+        d.setQueryStringParameters(params);
+        return d;
+    }
+
+    /**
+     * @return a raw query string, sometimes with a <code>_charset_</code> override and repeated names
+     */
+    String queryString()
+    {
+        StringBuilder sb = new StringBuilder();
+        switch(random.nextInt(4))
+        {
+            case 0:
+                // IE-style form submission in a legacy charset
+                sb.append("_charset_=ISO-8859-1&q=caf%E9+cr%E8me&sort=price+desc&");
+                break;
+            case 1:
+                sb.append("packedargs=").append(_encode(packedargs(15))).append('&');
+                break;
+            default:
+                break;
+        }
+        sb.append(packedargs(10));
+        int repeats = random.nextInt(4);
+        for(int i = 0; i < repeats; i++)
+        {
+            sb.append("&facet=").append(_encode(_pick(PACKED_VALUES)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return path, query string and fragment of an assembled URL: {scheme, authority, path, quoted query, fragment}
+     */
+    String[] uriParts()
+    {
+        StringBuilder path = new StringBuilder(URI_BASE).append('/').append(itemContext());
+        if(random.nextBoolean())
+        {
+            path.append('/').append(ITEM_TYPES[random.nextInt(ITEM_TYPES.length)][1]).append('/').append(_pick(ALIASES));
+        }
+        if(random.nextInt(3) == 0)
+        {
+            path.append("/v").append(1 + random.nextInt(12));
+        }
+        String query = random.nextBoolean() ? "packedargs=" + _encode(packedargs(8)) : null;
+        return new String[]{"http", "www.example.com", path.toString(), query, random.nextInt(5) == 0 ? "section 2" : null};
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.benchmark;
+
+import com.fatwire.cs.core.uri.Definition;
+import com.fatwire.developernet.uri.itemcontext.ItemContextAssembler;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip benchmarks for {@link ItemContextAssembler}.  Each invocation assembles (or disassembles) the next
+ * entry of a fixed corpus.  The disassembly corpus is the output of assembling the definitions, plus a share of
+ * query string URLs under the Satellite Server prefix that end up in the fallback assembler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemContextAssemblerBenchmark
+{
+    /**
+     * Size of the assembly and disassembly caches.  0 disables caching.
+     */
+    @Param({"0", "10000"})
+    public int cacheSize;
+
+    /**
+     * Number of distinct definitions and URIs.
+     */
+    @Param({"1000"})
+    public int corpusSize;
+
+    private ItemContextAssembler assembler;
+    private Definition[] definitions;
+    private URI[] uris;
+    private int next;
+
+    @Setup
+    public void setUp() throws URISyntaxException
+    {
+        assembler = new ItemContextAssembler();
+        assembler.setProperties(Corpus.assemblerProperties(cacheSize));
+        Corpus corpus = new Corpus(42L);
+        definitions = new Definition[corpusSize];
+        uris = new URI[corpusSize];
+        for(int i = 0; i < corpusSize; i++)
+        {
+            definitions[i] = corpus.definition();
+            // one in ten URLs is an old-style query string URL that goes to the fallback assembler
+            uris[i] = i % 10 == 0 ? new URI("http://www.example.com" + Corpus.URI_BASE + "/x?pagename=" + Corpus.WRAPPER + "&c=Page&cid=" + i) : assembler.assemble(definitions[i]);
+        }
+        assembler.clearCaches();
+    }
+
+    private int _next()
+    {
+        int i = next;
+        next = i + 1 == corpusSize ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public URI assemble() throws URISyntaxException
+    {
+        return assembler.assemble(definitions[_next()]);
+    }
+
+    @Benchmark
+    public Definition disassemble() throws URISyntaxException
+    {
+        return assembler.disassemble(uris[_next()], Definition.ContainerType.SERVLET);
+    }
+
+    @Benchmark
+    public Definition roundTrip() throws URISyntaxException
+    {
+        return assembler.disassemble(assembler.assemble(definitions[_next()]), Definition.ContainerType.SERVLET);
+    }
+}
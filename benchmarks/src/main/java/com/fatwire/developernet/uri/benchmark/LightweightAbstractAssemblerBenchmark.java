@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.benchmark;
+
+import com.fatwire.developernet.uri.lightweight.LightweightAbstractAssembler;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the query string and URI helpers of {@link LightweightAbstractAssembler}.
+ * <code>parseQueryStringLegacy</code> runs the original parser on the same input as <code>parseQueryString</code>,
+ * for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightweightAbstractAssemblerBenchmark
+{
+    private static final int CORPUS_SIZE = 1024; // power of two, see _next()
+
+    private static final Set<String> EXCLUDED = new HashSet<String>(Arrays.asList("pagename", "childpagename", "item-context", "item-alias", "variant", "item-type", "c", "cid", "p", "rendermode", "locale"));
+
+    private BenchmarkAssembler assembler;
+    private String[] queryStrings;
+    private List<Map<String, String[]>> parameters;
+    private String[][] packedargs;
+    private String[][] uriParts;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        assembler = new BenchmarkAssembler();
+        Corpus corpus = new Corpus(42L);
+        queryStrings = new String[CORPUS_SIZE];
+        parameters = new ArrayList<Map<String, String[]>>(CORPUS_SIZE);
+        packedargs = new String[CORPUS_SIZE][];
+        uriParts = new String[CORPUS_SIZE][];
+        for(int i = 0; i < CORPUS_SIZE; i++)
+        {
+            queryStrings[i] = corpus.queryString();
+            parameters.add(assembler.parse(queryStrings[i]));
+            packedargs[i] = new String[]{corpus.heavyPackedargs()};
+            uriParts[i] = corpus.uriParts();
+        }
+    }
+
+    private int _next()
+    {
+        return next++ & (CORPUS_SIZE - 1);
+    }
+
+    @Benchmark
+    public Map<String, String[]> parseQueryString()
+    {
+        return assembler.parse(queryStrings[_next()]);
+    }
+
+    @Benchmark
+    public Map<String, String[]> parseQueryStringLegacy()
+    {
+        return assembler.parseLegacy(queryStrings[_next()]);
+    }
+
+    @Benchmark
+    public String constructQueryString()
+    {
+        return assembler.construct(parameters.get(_next()));
+    }
+
+    @Benchmark
+    public String[] excludeFromPackedargs()
+    {
+        return assembler.exclude(packedargs[_next()], EXCLUDED);
+    }
+
+    @Benchmark
+    public URI constructURI() throws URISyntaxException
+    {
+        String[] parts = uriParts[_next()];
+        return BenchmarkAssembler.uri(parts[0], parts[1], parts[2], parts[3], parts[4]);
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe, size-bounded cache with least-recently-used eviction.
+ * <p/>
+ * The cache is split into a fixed number of segments, each of which is an access-ordered
+ * <code>LinkedHashMap</code> guarded by its own lock, so concurrent threads only contend when their
+ * keys fall into the same segment.  Eviction is LRU within a segment, which approximates global LRU
+ * closely enough for URL caching.  Null keys and values are not supported.
+ * <p/>
+ * Entries can optionally expire a fixed time after they were added.  Expired entries are removed when they
+ * are looked up (counting as a miss), or when they are evicted to make room for new ones.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public final class BoundedCache<K, V> implements CacheStatistics
+{
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment<K>[] segments;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a new cache whose entries never expire.
+     *
+     * @param maxSize maximum number of entries held by the cache.  Must be positive.
+     */
+    public BoundedCache(int maxSize)
+    {
+        this(maxSize, 0L);
+    }
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize maximum number of entries held by the cache.  Must be positive.
+     * @param ttlMillis time after which entries expire, in milliseconds.  0 (or less) means never.
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int maxSize, long ttlMillis)
+    {
+        if(maxSize < 1)
+        {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis > 0 ? ttlMillis * 1000000L : 0L;
+        int numSegments = maxSize < MAX_SEGMENTS * 4 ? 1 : MAX_SEGMENTS;
+        segments = new Segment[numSegments];
+        for(int i = 0; i < numSegments; i++)
+        {
+            // spread the remainder so that the segments add up to exactly maxSize
+            int segmentSize = maxSize / numSegments + (i < maxSize % numSegments ? 1 : 0);
+            segments[i] = new Segment<K>(segmentSize, evictions);
+        }
+    }
+
+    private Segment<K> _segmentFor(Object key)
+    {
+        if(segments.length == 1)
+        {
+            return segments[0];
+        }
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * Look up a value.
+     *
+     * @param key key
+     * @return cached value or null if none is cached
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key)
+    {
+        Segment<K> segment = _segmentFor(key);
+        Object value;
+        synchronized(segment)
+        {
+            value = segment.get(key);
+            if(value instanceof Expiring)
+            {
+                Expiring expiring = (Expiring)value;
+                if(System.nanoTime() - expiring.expires >= 0)
+                {
+                    segment.remove(key);
+                    value = null;
+                }
+                else
+                {
+                    value = expiring.value;
+                }
+            }
+        }
+        if(value == null)
+        {
+            misses.incrementAndGet();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+        return (V)value;
+    }
+
+    /**
+     * Add a value to the cache, evicting the least-recently-used entry of its segment if required.
+     *
+     * @param key key
+     * @param value value
+     */
+    public void put(K key, V value)
+    {
+        if(key == null || value == null)
+        {
+            throw new IllegalArgumentException("Null keys and values are not supported: " + key + "=" + value);
+        }
+        Object entry = ttlNanos == 0L ? value : new Expiring(value, System.nanoTime() + ttlNanos);
+        Segment<K> segment = _segmentFor(key);
+        synchronized(segment)
+        {
+            segment.put(key, entry);
+        }
+    }
+
+    /**
+     * Remove a value from the cache.
+     *
+     * @param key key
+     * @return the value that was removed, or null if none was cached
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(K key)
+    {
+        Segment<K> segment = _segmentFor(key);
+        Object value;
+        synchronized(segment)
+        {
+            value = segment.remove(key);
+        }
+        return (V)(value instanceof Expiring ? ((Expiring)value).value : value);
+    }
+
+    /**
+     * Remove all the entries matching a filter.  Each segment is locked while it is scanned, so this is meant for
+     * occasional invalidation, not for lookups.
+     *
+     * @param filter entries to remove
+     * @return number of entries removed
+     */
+    @SuppressWarnings("unchecked")
+    public int removeAll(Filter<? super K, ? super V> filter)
+    {
+        int removed = 0;
+        for(Segment<K> segment : segments)
+        {
+            synchronized(segment)
+            {
+                for(Iterator<Map.Entry<K, Object>> i = segment.entrySet().iterator(); i.hasNext();)
+                {
+                    Map.Entry<K, Object> entry = i.next();
+                    Object value = entry.getValue();
+                    if(filter.matches(entry.getKey(), (V)(value instanceof Expiring ? ((Expiring)value).value : value)))
+                    {
+                        i.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Copy the entries that have not expired.  The order of the entries for eviction is not changed.
+     *
+     * @return a new map holding the entries
+     */
+    @SuppressWarnings("unchecked")
+    public Map<K, V> toMap()
+    {
+        Map<K, V> result = new HashMap<K, V>();
+        long now = System.nanoTime();
+        for(Segment<K> segment : segments)
+        {
+            synchronized(segment)
+            {
+                for(Map.Entry<K, Object> entry : segment.entrySet())
+                {
+                    Object value = entry.getValue();
+                    if(value instanceof Expiring)
+                    {
+                        if(now - ((Expiring)value).expires >= 0)
+                        {
+                            continue;
+                        }
+                        value = ((Expiring)value).value;
+                    }
+                    result.put(entry.getKey(), (V)value);
+                }
+            }
+        }
+        return result;
+    }
+
+    public void clear()
+    {
+        for(Segment<K> segment : segments)
+        {
+            synchronized(segment)
+            {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for(Segment<K> segment : segments)
+        {
+            synchronized(segment)
+            {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return maximum number of entries held by the cache
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * @return time after which entries expire, in milliseconds, or 0 if they never do
+     */
+    public long getTtlMillis()
+    {
+        return ttlNanos / 1000000L;
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public String toString()
+    {
+        return "BoundedCache{size=" + size() + ", maxSize=" + maxSize + ", ttlMillis=" + getTtlMillis() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    /**
+     * Selects the entries removed by {@link BoundedCache#removeAll}.
+     *
+     * @param <K> key type
+     * @param <V> value type
+     */
+    public interface Filter<K, V>
+    {
+        /**
+         * @param key key of the entry
+         * @param value value of the entry
+         * @return true if the entry must be removed
+         */
+        boolean matches(K key, V value);
+    }
+
+    /**
+     * Value wrapper used when entries expire.
+     */
+    private static final class Expiring
+    {
+        private final Object value;
+        private final long expires;
+
+        private Expiring(Object value, long expires)
+        {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Segment<K> extends LinkedHashMap<K, Object>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+        private final AtomicLong evictions;
+
+        private Segment(int capacity, AtomicLong evictions)
+        {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Object> eldest)
+        {
+            if(size() > capacity)
+            {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.cache;
+
+/**
+ * Read-only view of the usage counters of a cache, plus the ability to empty it.  Intended to be exposed
+ * to administrative tools so that cache effectiveness can be monitored.
+ */
+public interface CacheStatistics
+{
+    /**
+     * @return number of lookups that found a value
+     */
+    long getHitCount();
+
+    /**
+     * @return number of lookups that did not find a value
+     */
+    long getMissCount();
+
+    /**
+     * @return number of entries removed from the cache to make room for new ones
+     */
+    long getEvictionCount();
+
+    /**
+     * @return current number of entries in the cache
+     */
+    int size();
+
+    /**
+     * Remove all entries from the cache.  Counters are not reset.
+     */
+    void clear();
+}
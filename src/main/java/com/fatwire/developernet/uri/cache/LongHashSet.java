@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.cache;
+
+/**
+ * Set of primitive longs, using open addressing with linear probing.  Asset ids are stored without boxing, so a
+ * set of a few hundred ids takes a single array.
+ * <p/>
+ * This class is not thread-safe.  Sets that are shared must be fully built before they are published.
+ */
+public final class LongHashSet
+{
+    /**
+     * Value marking free slots.  The set tracks separately whether it holds this value.
+     */
+    private static final long FREE = 0L;
+
+    private long[] slots;
+    private int size;
+    private boolean containsFree;
+
+    /**
+     * Create a set.
+     *
+     * @param expectedSize number of values the set should hold without resizing
+     */
+    public LongHashSet(int expectedSize)
+    {
+        int capacity = 4;
+        while(capacity < expectedSize * 2)
+        {
+            capacity <<= 1;
+        }
+        slots = new long[capacity];
+    }
+
+    private static int _hash(long value)
+    {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    /**
+     * @param value value to add
+     * @return true if the value was not in the set yet
+     */
+    public boolean add(long value)
+    {
+        if(value == FREE)
+        {
+            if(containsFree)
+            {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        if((size + 1) * 2 > slots.length)
+        {
+            _resize(slots.length << 1);
+        }
+        if(_insert(slots, value))
+        {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean _insert(long[] slots, long value)
+    {
+        int mask = slots.length - 1;
+        int i = _hash(value) & mask;
+        while(slots[i] != FREE)
+        {
+            if(slots[i] == value)
+            {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        return true;
+    }
+
+    private void _resize(int capacity)
+    {
+        long[] resized = new long[capacity];
+        for(long value : slots)
+        {
+            if(value != FREE)
+            {
+                _insert(resized, value);
+            }
+        }
+        slots = resized;
+    }
+
+    /**
+     * @param value value to look for
+     * @return true if the set holds the value
+     */
+    public boolean contains(long value)
+    {
+        if(value == FREE)
+        {
+            return containsFree;
+        }
+        int mask = slots.length - 1;
+        int i = _hash(value) & mask;
+        long slot;
+        while((slot = slots[i]) != FREE)
+        {
+            if(slot == value)
+            {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of values in the set
+     */
+    public int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.cache;
+
+import COM.FutureTense.Interfaces.ICS;
+
+/**
+ * Holds a JVM-wide cache that is created the first time it is needed, with a maximum size and a time to live read
+ * from the configuration at that moment.  Subclasses create the cache from these two settings.
+ *
+ * @param <T> type of the cache
+ */
+public abstract class SharedCacheHolder<T> extends SharedConfigurationHolder<T>
+{
+    private final String maxSizeProperty;
+    private final String maxSizeDefault;
+    private final String ttlSecondsProperty;
+    private final String ttlSecondsDefault;
+
+    /**
+     * @param maxSizeProperty name of the property holding the maximum number of entries
+     * @param maxSizeDefault maximum number of entries if the property is not set
+     * @param ttlSecondsProperty name of the property holding the number of seconds after which entries expire.  0
+     * means never.
+     * @param ttlSecondsDefault number of seconds if the property is not set
+     */
+    protected SharedCacheHolder(String maxSizeProperty, String maxSizeDefault, String ttlSecondsProperty, String ttlSecondsDefault)
+    {
+        this.maxSizeProperty = maxSizeProperty;
+        this.maxSizeDefault = maxSizeDefault;
+        this.ttlSecondsProperty = ttlSecondsProperty;
+        this.ttlSecondsDefault = ttlSecondsDefault;
+    }
+
+    /**
+     * Create the cache.  A runtime exception thrown here is passed on to the caller of {@link #get}, and the cache
+     * is created again the next time.
+     *
+     * @param ics context, to read more of the configuration if needed
+     * @param maxSize maximum number of entries
+     * @param ttlMillis time after which entries expire, in milliseconds.  0 means never.
+     * @return the cache
+     */
+    protected abstract T create(ICS ics, int maxSize, long ttlMillis);
+
+    protected final T create(ICS ics)
+    {
+        int maxSize = Integer.parseInt(getProperty(ics, maxSizeProperty, maxSizeDefault));
+        long ttlMillis = Long.parseLong(getProperty(ics, ttlSecondsProperty, ttlSecondsDefault)) * 1000L;
+        return create(ics, maxSize, ttlMillis);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.cache;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Interfaces.Utilities;
+
+/**
+ * Holds a JVM-wide object that is created from the configuration the first time it is needed, so that the
+ * configuration is not read again on every request.
+ *
+ * @param <T> type of the object
+ */
+public abstract class SharedConfigurationHolder<T>
+{
+    /**
+     * Name of configuration file.  If configuration properties are not in this
+     * file, Java System properties will be checked.  the file must be in the classpath
+     * or in the inipath.
+     */
+    public static final String CONFIGURATION_FILE_NAME = "ServletRequest.properties";
+
+    private volatile T instance;
+
+    /**
+     * Create the object.  A runtime exception thrown here is passed on to the caller of {@link #get}, and the object
+     * is created again the next time.
+     *
+     * @param ics context, to read the configuration
+     * @return the object
+     */
+    protected abstract T create(ICS ics);
+
+    /**
+     * Get the object, creating it if this has not been done yet.
+     *
+     * @param ics context, used to read the configuration if the object needs to be created
+     * @return the object
+     */
+    public final T get(ICS ics)
+    {
+        T t = instance;
+        if(t == null)
+        {
+            synchronized(this)
+            {
+                t = instance;
+                if(t == null)
+                {
+                    t = create(ics);
+                    instance = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the object, or null if it has not been created yet
+     */
+    public final T peek()
+    {
+        return instance;
+    }
+
+    /**
+     * Read a property from the {@link #CONFIGURATION_FILE_NAME configuration file}, falling back to the Java System
+     * properties.
+     *
+     * @param ics context
+     * @param name property name
+     * @param dephault value if the property is set in neither
+     * @return the value
+     */
+    public static String getProperty(ICS ics, String name, String dephault)
+    {
+        String s = ics.GetProperty(name, CONFIGURATION_FILE_NAME, true);
+        if(!Utilities.goodString(s))
+        {
+            s = System.getProperty(name, dephault);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.cache;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent computations of the same key: the first thread to ask for a key computes the value, and
+ * threads asking for the same key in the meantime wait for its result instead of repeating the work.  Nothing is
+ * remembered once the computation is over; this is meant to sit in front of a cache or an expensive lookup.
+ * <p/>
+ * If the computation fails, the waiting threads get the same exception.  A thread that has waited longer than the
+ * timeout, or that is interrupted, stops waiting and does the computation itself.
+ */
+public final class SingleFlight<K, V>
+{
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Compute the value for a key, or wait for the thread already computing it.
+     *
+     * @param key key, must implement equals and hashCode
+     * @param computation computes the value.  May only throw runtime exceptions.
+     * @param timeoutMillis how long to wait for another thread's result before computing it in this thread
+     * @return the value
+     */
+    public V execute(K key, Callable<V> computation, long timeoutMillis)
+    {
+        FutureTask<V> task = new FutureTask<V>(computation);
+        FutureTask<V> running = inFlight.putIfAbsent(key, task);
+        if(running == null)
+        {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                inFlight.remove(key, task);
+            }
+            return _get(task);
+        }
+
+        coalesced.incrementAndGet();
+        try
+        {
+            return _unwrap(running, timeoutMillis);
+        }
+        catch(TimeoutException e)
+        {
+            timeouts.incrementAndGet();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        task.run();
+        return _get(task);
+    }
+
+    private V _get(FutureTask<V> task)
+    {
+        try
+        {
+            return _unwrap(task, 0L);
+        }
+        catch(TimeoutException e)
+        {
+            throw new IllegalStateException("Task should be done: " + e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new IllegalStateException("Task should be done: " + e);
+        }
+    }
+
+    private V _unwrap(FutureTask<V> task, long timeoutMillis) throws TimeoutException, InterruptedException
+    {
+        try
+        {
+            return task.isDone() ? task.get() : task.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException("Computation threw a checked exception: " + cause);
+        }
+    }
+
+    /**
+     * @return number of computations currently running
+     */
+    public int getInFlightCount()
+    {
+        return inFlight.size();
+    }
+
+    /**
+     * @return number of times a thread waited for another thread's result instead of computing it
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+
+    /**
+     * @return number of times a thread stopped waiting for another thread's result because it took too long
+     */
+    public long getTimeoutCount()
+    {
+        return timeouts.get();
+    }
+}
@@ -10,8 +10,11 @@ package com.fatwire.developernet.uri.itemcontext;
 
 import com.fatwire.cs.core.uri.*;
 import com.fatwire.cs.core.uri.Definition.ContainerType;
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.cache.CacheStatistics;
 import com.fatwire.developernet.uri.itemcontext.aliasing.AssetAliasingStrategy;
 import com.fatwire.developernet.uri.lightweight.LightweightAbstractAssembler;
+import com.fatwire.developernet.uri.lightweight.ParsedQueryString;
 import com.fatwire.developernet.uri.siteplan.Helper;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,6 +22,9 @@ import org.apache.commons.logging.LogFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.fatwire.developernet.uri.itemcontext.ItemContextConfiguration.EMBEDDED_PARAMS;
 
 /**
  * <p>Generalized URL Assembler useful for converting an item of a specific type and its context into a
@@ -127,7 +133,9 @@ import java.util.*;
  * these parameters are set to the configured values.  See {@link #PROP_GLOBAL_WRAPPER_PAGENAME} and
  * {@link #PROP_GLOBAL_TEMPLATE_PAGENAME} for details.</p>
  * <p>The list of parameters to always be unpacked from packedargs can optionally be configured.  See
- * {@link #PROP_ALWAYS_UNPACK_ARGS} for details.
+ * {@link #PROP_ALWAYS_UNPACK_ARGS} for details.</p>
+ * <p>Assembled URIs and disassembled URIs can optionally be cached.  See {@link #PROP_ASSEMBLY_CACHE_SIZE} and
+ * {@link #PROP_DISASSEMBLY_CACHE_SIZE} for details.</p>
  *
  * @author Tony Field
  * @author Matthew Soh
@@ -188,50 +196,288 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
      */
     public static final String PROP_SERVLET_CONTEXT_TOGGLE = "com.fatwire.developernet.uri.itemcontext.append-servlet-context";
 
+    /**
+     * Maximum number of assembled URIs to cache.  The same links are typically assembled over and over again
+     * (navigation bars, for example), so caching the result of assembly can save a lot of work.  Definitions
+     * that cannot be assembled by this assembler are cached too, so that they go straight to the fallback
+     * assembler.  Caching is disabled unless this is set to a positive number.
+     *
+     * @see #PROP_ASSEMBLY_CACHE_SIZE_DEFAULT
+     * @see #getAssemblyCacheStatistics()
+     */
+    public static final String PROP_ASSEMBLY_CACHE_SIZE = "com.fatwire.developernet.uri.itemcontext.assembly-cache-size";
+
+    /**
+     * Default value of the {@link #PROP_ASSEMBLY_CACHE_SIZE} property.  Caching is disabled by default.
+     */
+    public static final String PROP_ASSEMBLY_CACHE_SIZE_DEFAULT = "0";
+
+    /**
+     * Maximum number of disassembled URIs to cache.  The parameters decoded from a URI only depend on its path and
+     * query string, so popular URLs (home pages, section landing pages, etc.) can skip parsing completely.  URIs
+     * that this assembler does not recognize are cached too, so that they go straight to the fallback assembler.
+     * Caching is disabled unless this is set to a positive number.
+     *
+     * @see #PROP_DISASSEMBLY_CACHE_SIZE_DEFAULT
+     * @see #getDisassemblyCacheStatistics()
+     */
+    public static final String PROP_DISASSEMBLY_CACHE_SIZE = "com.fatwire.developernet.uri.itemcontext.disassembly-cache-size";
+
+    /**
+     * Default value of the {@link #PROP_DISASSEMBLY_CACHE_SIZE} property.  Caching is disabled by default.
+     */
+    public static final String PROP_DISASSEMBLY_CACHE_SIZE_DEFAULT = "0";
+
+    /**
+     * Marker cached for definitions that this assembler can not assemble.
+     */
+    private static final Object NOT_ASSEMBLABLE = new Object();
+
     private final Assembler theBackupAssembler = new QueryAssembler(); // todo: consider configuring this (must be backward-compatible though)
-    private final Collection<String> nopack_args = new ArrayList<String>();
-    private String context_type = PROP_ITEM_TYPE_FOR_CONTEXT_DEFAULT;
-    private String global_wrapper_pagename;
-    private String global_template_pagename;
-    private boolean append_servlet_context;
+
+    /**
+     * Compiled configuration.  Replaced as a whole every time properties are set, and read once per call.
+     */
+    private volatile ItemContextConfiguration config = new ItemContextConfiguration(Collections.<String, String>emptyMap());
+
+    /**
+     * Cache of assembled URIs (or {@link #NOT_ASSEMBLABLE}), keyed by {@link #_cacheKey}.  Null if disabled.
+     */
+    private volatile BoundedCache<String, Object> assemblyCache;
+
+    /**
+     * Cache of decoded (unmodifiable) parameter maps (or the {@link FallbackReason} for URIs that can not be
+     * disassembled), keyed by raw path and query.  Null if disabled.
+     */
+    private volatile BoundedCache<String, Object> disassemblyCache;
+
+    /**
+     * Number of URIs handed to the fallback assembler during disassembly, indexed by {@link FallbackReason} ordinal.
+     */
+    private final AtomicLongArray fallbackCounts = new AtomicLongArray(FallbackReason.values().length);
+
+    /**
+     * Reasons for which a URI is not disassembled by this assembler but handed to the fallback assembler instead.
+     *
+     * @see ItemContextAssembler#getFallbackCount(FallbackReason)
+     */
+    public static enum FallbackReason
+    {
+        /**
+         * The URI has no path.
+         */
+        NO_PATH,
+        /**
+         * The Satellite Server URI base is not configured.
+         */
+        NO_URI_BASE,
+        /**
+         * The path does not start with the Satellite Server URI base.
+         */
+        WRONG_PATH_PREFIX,
+        /**
+         * The path holds nothing but the Satellite Server URI base, i.e. this is a regular query string URL.
+         */
+        NO_ITEM_PATH,
+        /**
+         * The query string holds a parameter that would be embedded in the path, such as <code>c</code> or
+         * <code>cid</code>.
+         */
+        EMBEDDED_PARAMETER
+    }
 
     public void setProperties(Properties properties)
     {
         super.setProperties(properties);
         theBackupAssembler.setProperties(properties);
-        nopack_args.addAll(Arrays.asList(properties.getProperty(PROP_ALWAYS_UNPACK_ARGS, "").split(",")));
-        context_type = getProperty(PROP_ITEM_TYPE_FOR_CONTEXT, PROP_ITEM_TYPE_FOR_CONTEXT_DEFAULT);
-        global_wrapper_pagename = getProperty(PROP_GLOBAL_WRAPPER_PAGENAME, null);
-        global_template_pagename = getProperty(PROP_GLOBAL_TEMPLATE_PAGENAME, null);
-        append_servlet_context = Boolean.valueOf(getProperty(PROP_SERVLET_CONTEXT_TOGGLE, "true")).booleanValue();
+        ItemContextConfiguration cfg = new ItemContextConfiguration(getProperties());
+        config = cfg;
+        assemblyCache = cfg.getAssemblyCacheSize() > 0 ? new BoundedCache<String, Object>(cfg.getAssemblyCacheSize()) : null;
+        disassemblyCache = cfg.getDisassemblyCacheSize() > 0 ? new BoundedCache<String, Object>(cfg.getDisassemblyCacheSize()) : null;
         LOG.info("initializing com.fatwire.developernet.uri.itemcontext.ItemContextAssembler with properties");
     }
 
+    /**
+     * Usage statistics of the assembly cache.
+     *
+     * @return statistics, or null if assembly caching is disabled
+     * @see #PROP_ASSEMBLY_CACHE_SIZE
+     */
+    public CacheStatistics getAssemblyCacheStatistics()
+    {
+        return assemblyCache;
+    }
+
+    /**
+     * Usage statistics of the disassembly cache.
+     *
+     * @return statistics, or null if disassembly caching is disabled
+     * @see #PROP_DISASSEMBLY_CACHE_SIZE
+     */
+    public CacheStatistics getDisassemblyCacheStatistics()
+    {
+        return disassemblyCache;
+    }
+
+    /**
+     * Number of URIs that were handed to the fallback assembler for the specified reason since this assembler was
+     * created.  URIs found in the disassembly cache are counted too.
+     *
+     * @param reason fallback reason
+     * @return number of fallbacks
+     */
+    public long getFallbackCount(FallbackReason reason)
+    {
+        return fallbackCounts.get(reason.ordinal());
+    }
+
+    /**
+     * Empty the assembly and disassembly caches, if they are enabled.  Statistics are not reset.
+     */
+    public void clearCaches()
+    {
+        CacheStatistics cache = assemblyCache;
+        if(cache != null)
+        {
+            cache.clear();
+        }
+        cache = disassemblyCache;
+        if(cache != null)
+        {
+            cache.clear();
+        }
+        LOG.info("Cleared ItemContextAssembler caches");
+    }
+
     public URI assemble(Definition definition) throws URISyntaxException
     {
         if(LOG.isDebugEnabled())
         {
             LOG.debug("Assembling definition: " + definition);
         }
+        BoundedCache<String, Object> cache = assemblyCache;
+        String key = null;
+        if(cache != null)
+        {
+            key = _cacheKey(definition);
+            Object cached = cache.get(key);
+            if(cached == NOT_ASSEMBLABLE)
+            {
+                return theBackupAssembler.assemble(definition); // Already known that we can't assemble this URL.
+            }
+            if(cached != null)
+            {
+                if(LOG.isTraceEnabled())
+                {
+                    LOG.trace("Found assembled URI in cache: " + cached);
+                }
+                return (URI)cached;
+            }
+        }
+
+        URI uri = _assemble(definition, config);
+        if(cache != null)
+        {
+            cache.put(key, uri == null ? NOT_ASSEMBLABLE : uri);
+        }
+        if(uri == null)
+        {
+            return theBackupAssembler.assemble(definition); // Can't assemble this URL.
+        }
+        return uri;
+    }
+
+    /**
+     * Build a canonical key for a definition, covering everything that assembly depends on.  Parameters are
+     * sorted by name, and all strings are length-prefixed so that no two different definitions can produce the
+     * same key.
+     *
+     * @param definition input definition
+     * @return cache key
+     */
+    private static String _cacheKey(Definition definition)
+    {
+        StringBuilder key = new StringBuilder(256);
+        key.append(definition.getAppType()).append('|').append(definition.getSatelliteContext()).append('|');
+        _appendKeyPart(key, definition.getScheme());
+        _appendKeyPart(key, definition.getAuthority());
+        _appendKeyPart(key, definition.getFragment());
+        List<String> names = new ArrayList<String>();
+        for(Object o : definition.getParameterNames())
+        {
+            names.add((String)o);
+        }
+        Collections.sort(names);
+        for(String name : names)
+        {
+            _appendKeyPart(key, name);
+            String[] vals = definition.getParameters(name);
+            if(vals == null)
+            {
+                key.append("-|");
+            }
+            else
+            {
+                key.append(vals.length).append('|');
+                for(String val : vals)
+                {
+                    _appendKeyPart(key, val);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    private static void _appendKeyPart(StringBuilder key, String part)
+    {
+        if(part == null)
+        {
+            key.append('-');
+        }
+        else
+        {
+            key.append(part.length()).append(':').append(part);
+        }
+    }
+
+    /**
+     * Assemble the definition into a URI.
+     *
+     * @param definition input definition
+     * @param cfg configuration
+     * @return the URI, or null if this assembler can not assemble the definition
+     * @throws URISyntaxException if the URI is not valid
+     */
+    private URI _assemble(Definition definition, ItemContextConfiguration cfg) throws URISyntaxException
+    {
+        if(!_isAssemblable(definition, cfg))
+        {
+            return null;
+        }
+        // packedargs is parsed exactly once, and shared by path and query string construction
+        ParsedQueryString packed = parseQuery(definition.getParameter("packedargs")); // this is so annoying...
+
         String scheme = definition.getScheme();
         String authority = definition.getAuthority();
-        String path = _getPath(definition);
+        String path = _getPath(definition, packed, cfg);
         if(path == null)
         {
-            return theBackupAssembler.assemble(definition); // Can't assemble this URL.
+            return null;
         }
-        String quotedQueryString = _getQuotedQueryString(definition);
+        String quotedQueryString = _getQuotedQueryString(definition, packed, cfg);
         String fragment = definition.getFragment();
         return constructURI(scheme, authority, path, quotedQueryString, fragment);
     }
 
     /**
-     * Main worker function for assembly of the URL.
+     * Check the definition's app type, satellite context, pagename and childpagename, to make sure this assembler
+     * is meant to assemble it.
      *
      * @param definition input definition
-     * @return path for URL
+     * @param cfg configuration
+     * @return true if the definition can be handled by this assembler
      */
-    private String _getPath(Definition definition)
+    private boolean _isAssemblable(Definition definition, ItemContextConfiguration cfg)
     {
         if(definition.getAppType() != Definition.AppType.CONTENT_SERVER)
         {
@@ -239,7 +485,7 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             {
                 LOG.trace("App type is not Content Server");
             }
-            return null;
+            return false;
         }
         if(definition.getSatelliteContext() != Definition.SatelliteContext.SATELLITE_SERVER)
         {
@@ -247,11 +493,11 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             {
                 LOG.trace("Satellite Context is not Satellite Server");
             }
-            return null;
+            return false;
         }
 
         String pagename = definition.getParameter("pagename");
-        String expectedWrapper = _getWrapperForAuthority(definition.getAuthority());
+        String expectedWrapper = _getWrapperForAuthority(definition.getAuthority(), cfg);
         if(pagename == null || !pagename.equals(expectedWrapper))
         {
 
@@ -259,28 +505,38 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             {
                 LOG.trace("Pagename not set to a valid value: " + pagename + ", expecting " + expectedWrapper);
             }
-            return null;
+            return false;
         }
 
         String childpagename = definition.getParameter("childpagename");
-        String expectedTemplate = _getTemplateForAuthority(definition.getAuthority());
+        String expectedTemplate = _getTemplateForAuthority(definition.getAuthority(), cfg);
         if(childpagename == null || !childpagename.equals(expectedTemplate))
         {
             if(LOG.isTraceEnabled())
             {
                 LOG.trace("Childpagename not set to a valid value: " + childpagename + ", expecting " + expectedTemplate);
             }
-            return null;
+            return false;
         }
+        return true;
+    }
 
-        String packedargs = definition.getParameter("packedargs"); // this is so annoying...
-        Map<String, String[]> packed = parseQueryString(packedargs);
-        String item_context = packed.get("item-context") != null ? packed.get("item-context")[0] : null;
+    /**
+     * Main worker function for assembly of the URL.
+     *
+     * @param definition input definition
+     * @param packed parsed packedargs of the definition
+     * @param cfg configuration
+     * @return path for URL
+     */
+    private String _getPath(Definition definition, ParsedQueryString packed, ItemContextConfiguration cfg)
+    {
+        String item_context = packed.getValue("item-context");
         if(item_context == null)
         {
             item_context = definition.getParameter("item-context");
         }
-        String item_alias = packed.get("item-alias") != null ? packed.get("item-alias")[0] : null;
+        String item_alias = packed.getValue("item-alias");
         if(item_alias == null)
         {
             item_alias = definition.getParameter("item-alias");
@@ -290,7 +546,7 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
         {
             item_type = definition.getParameter("c"); // backup plan
         }
-        String variant = packed.get("variant") != null ? packed.get("variant")[0] : null;
+        String variant = packed.getValue("variant");
         if(variant == null)
         {
             variant = definition.getParameter("variant");
@@ -319,21 +575,12 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             return null;
         }
 
-        StringBuilder path = new StringBuilder();
-        if(append_servlet_context)
-        {
-            path.append(getProperty(PROP_URIBASE_SATELLITE_SERVER, ""));
-        }
-
-        if(!path.toString().endsWith("/"))
-        {
-            path.append('/');
-        }
+        StringBuilder path = new StringBuilder(cfg.getPathPrefix());
         path.append(item_context);
-        if(!context_type.equals(item_type) && !item_context.endsWith(item_alias))
+        if(!cfg.getContextType().equals(item_type) && !item_context.endsWith(item_alias))
         {
             // we do not want to duplicate the page name in both item-context and cname
-            path.append('/').append(aliasFromItemTypeName(item_type));
+            path.append('/').append(cfg.aliasFromItemTypeName(item_type));
             path.append('/').append(item_alias);
         }
         if(variant != null)
@@ -343,13 +590,7 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
         return path.toString();
     }
 
-    /**
-     * List of parameters that are effectively embedded in the pathinfo for this URL.
-     * item-type is embedded as itself, p is embedded as item-context, cid is embedded as item-alias.
-     */
-    private static List<String> EMBEDDED_PARAMS = Arrays.asList("pagename", "childpagename", "item-context", "item-alias", "variant", "item-type", "c", "cid", "p");
-
-    private String _getQuotedQueryString(Definition definition)
+    private String _getQuotedQueryString(Definition definition, ParsedQueryString packed, ItemContextConfiguration cfg)
     {
         Map<String, String[]> newQryParams = new HashMap<String, String[]>();
 
@@ -364,30 +605,26 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             {
                 String[] vals = definition.getParameters(key);
 
-                if(key.equals("packedargs"))
+                if(key.equals("packedargs") && vals != null)
                 {
-                    Collection<String> exclude = EMBEDDED_PARAMS;
-
                     // if some params need to be extracted from packedargs but still need to stay in the query string
                     // process those now
-                    if(nopack_args.size() > 0)
+                    for(String nopack_key : cfg.getNopackArgs())
                     {
-                        exclude = new ArrayList<String>();
-                        exclude.addAll(EMBEDDED_PARAMS);
-
-                        Map<String, String[]> packed = parseQueryString(vals[0]);
-                        for(String nopack_key : nopack_args)
+                        String[] nopack_val = packed.getValues(nopack_key);
+                        if(nopack_val != null)
                         {
-                            String[] nopack_val = packed.get(nopack_key);
-                            if(nopack_val != null)
-                            {
-                                newQryParams.put(nopack_key, nopack_val);
-                                exclude.add(nopack_key);
-                            }
+                            newQryParams.put(nopack_key, nopack_val);
                         }
                     }
 
-                    vals = excludeFromPackedargs(vals, exclude);
+                    // the first value has already been parsed, the rest (if any) still need to be
+                    String[] newVals = new String[vals.length];
+                    for(int i = 0; i < vals.length; i++)
+                    {
+                        newVals[i] = (i == 0 ? packed : parseQuery(vals[i])).exclude(cfg.getPackedargsExclusions());
+                    }
+                    vals = newVals;
                 }
                 newQryParams.put(key, vals);
             }
@@ -406,16 +643,19 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
         Simple result;
         try
         {
-            final Map<String, String[]> qryParams = getQueryParams(uri); // this is the main workhorse function.
-            if(qryParams == null)
+            final Object decoded = _getQueryParamsCached(uri);
+            if(decoded instanceof FallbackReason)
             {
                 if(LOG.isTraceEnabled())
                 {
-                    LOG.trace("Attempted to disassemble: " + uri + " " + this.getClass().getName() + " but the URL was not recognized.  No further attempt to decode this URL with this assembler will be made");
+                    LOG.trace("Attempted to disassemble: " + uri + " " + this.getClass().getName() + " but the URL was not recognized (" + decoded + ").  No further attempt to decode this URL with this assembler will be made");
                 }
+                fallbackCounts.incrementAndGet(((FallbackReason)decoded).ordinal());
                 // This URL was not recognized and cannot be decoded.  Stop trying to deal with it.
                 return theBackupAssembler.disassemble(uri, containerType);
             }
+            @SuppressWarnings("unchecked")
+            final Map<String, String[]> qryParams = (Map<String, String[]>)decoded;
             final Definition.AppType appType = Definition.AppType.CONTENT_SERVER;
             final Definition.SatelliteContext satelliteContext = Definition.SatelliteContext.SATELLITE_SERVER;
             final boolean sessionEncode = false;
@@ -435,13 +675,94 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
         return result;
     }
 
+    /**
+     * Look up the parameters for a URI in the disassembly cache, if it is enabled, and decode them using
+     * {@link #_getQueryParams} if they are not found.
+     *
+     * @param uri input URI
+     * @return a map of parameters that belongs to the caller, or the {@link FallbackReason} if the URI was not
+     *         recognized
+     */
+    @SuppressWarnings("unchecked")
+    private Object _getQueryParamsCached(URI uri)
+    {
+        ItemContextConfiguration cfg = config;
+        BoundedCache<String, Object> cache = disassemblyCache;
+        if(cache == null)
+        {
+            return _getQueryParams(uri, cfg); // this is the main workhorse function.
+        }
+
+        // the decoded parameters depend only on the path and the query string
+        String rawQuery = uri.getRawQuery();
+        String key = rawQuery == null ? uri.getRawPath() : uri.getRawPath() + '?' + rawQuery;
+        if(key == null)
+        {
+            return _getQueryParams(uri, cfg);
+        }
+        Object cached = cache.get(key);
+        if(cached instanceof FallbackReason)
+        {
+            return cached;
+        }
+        if(cached == null)
+        {
+            Object decoded = _getQueryParams(uri, cfg); // this is the main workhorse function.
+            if(decoded instanceof FallbackReason)
+            {
+                cache.put(key, decoded);
+                return decoded;
+            }
+            Map<String, String[]> params = (Map<String, String[]>)decoded;
+            cache.put(key, Collections.unmodifiableMap(_copyParams(params)));
+            return params;
+        }
+        else if(LOG.isTraceEnabled())
+        {
+            LOG.trace("Found disassembled parameters in cache for: " + key);
+        }
+        // the definition may modify the map, so never hand out the cached one
+        return _copyParams((Map<String, String[]>)cached);
+    }
+
+    private static Map<String, String[]> _copyParams(Map<String, String[]> params)
+    {
+        Map<String, String[]> copy = new HashMap<String, String[]>((params.size() * 4 + 2) / 3);
+        for(Map.Entry<String, String[]> entry : params.entrySet())
+        {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
     /**
      * Main worker function for URL disassembly.  Parses path and adds params back into the list of parameters.
      *
      * @param uri input URI
-     * @return may of parameters
+     * @return map of parameters, or null if the URI can not be disassembled by this assembler
      */
     protected Map<String, String[]> getQueryParams(URI uri)
+    {
+        Object decoded = _getQueryParams(uri, config);
+        if(decoded instanceof FallbackReason)
+        {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, String[]> params = (Map<String, String[]>)decoded;
+        return params;
+    }
+
+    /**
+     * Main worker function for URL disassembly.  The cheap checks (path prefix, embedded parameters in the raw
+     * query string) are done first, so that URIs that belong to the fallback assembler are rejected before anything
+     * gets decoded.
+     *
+     * @param uri input URI
+     * @param cfg configuration
+     * @return map of parameters, or the {@link FallbackReason} if the URI can not be disassembled by this assembler
+     */
+    private Object _getQueryParams(URI uri, ItemContextConfiguration cfg)
     {
         String uripath = uri.getPath();
         if(uripath == null)
@@ -450,7 +771,7 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             {
                 LOG.trace("No path found in URI: " + uri);
             }
-            return null;
+            return FallbackReason.NO_PATH;
         }
 
         // path is of the form /<base>/<item-context>/<item-type>/<item-alias>/v<variant>
@@ -461,7 +782,15 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
         // or
         // path is of the form /<base>/<item-context>
 
-        String pathPrefix = getProperty(PROP_URIBASE_SATELLITE_SERVER, null);
+        String pathPrefix = cfg.getUriBase();
+        if(pathPrefix == null)
+        {
+            if(LOG.isTraceEnabled())
+            {
+                LOG.trace("No value configured for " + PROP_URIBASE_SATELLITE_SERVER + ".  Cannot decode URI: " + uri);
+            }
+            return FallbackReason.NO_URI_BASE;
+        }
 
         if(!uripath.startsWith(pathPrefix))
         {
@@ -469,7 +798,7 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             {
                 LOG.trace("Path does not start with expected value in URI: " + uri + ".  expected:" + pathPrefix);
             }
-            return null;
+            return FallbackReason.WRONG_PATH_PREFIX;
         }
 
         if(uripath.equals(pathPrefix))
@@ -478,33 +807,30 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             {
                 LOG.trace("This looks like a regular QueryString assembler request. Not processing further.");
             }
-            return null;
+            return FallbackReason.NO_ITEM_PATH;
         }
 
-        String uripathNoBase = uripath.substring(pathPrefix.length() + 1);  // +1 for the leading slash
-        String[] pathElements = uripathNoBase.split("/");
-        if(pathElements.length < 1)
+        // reject query strings with embedded params before decoding anything
+        String rawQuery = uri.getRawQuery();
+        String embedded = findParameterName(rawQuery, EMBEDDED_PARAMS);
+        if(embedded != null)
         {
-            LOG.trace("not enough path elements in uri: " + uri + ".  expected:" + pathPrefix);
-            return null;
+            LOG.trace("found a param in the URL that should be embedded: " + embedded);
+            return FallbackReason.EMBEDDED_PARAMETER;
         }
 
-        // start by parsing the query string
-        Map<String, String[]> params = parseQueryString(uri.getRawQuery());
-
-        for(String param : EMBEDDED_PARAMS)
+        PathSegments path = new PathSegments(uripath, pathPrefix.length() + 1);  // +1 for the leading slash
+        if(path.size() < 1)
         {
-            if(params.containsKey(param))
-            {
-                LOG.trace("found a param in the URL that should be embedded: " + param);
-                return null;
-            }
+            LOG.trace("not enough path elements in uri: " + uri + ".  expected:" + pathPrefix);
+            return FallbackReason.NO_ITEM_PATH;
         }
 
+        // start by parsing the query string
+        Map<String, String[]> params = parseQueryString(rawQuery);
+
 
         // parse params
-        List<String> path = new ArrayList<String>(Arrays.asList(pathElements));
-
         String variant = _getVariant(path);
         if(variant != null)
         {
@@ -513,7 +839,7 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
             params.put("variant", s);
         }
 
-        String[] cAndCpath = _getCandCpath(path);
+        String[] cAndCpath = _getCandCpath(path, cfg);
         if(cAndCpath != null)
         {
             String[] item_type = {cAndCpath[0]};
@@ -532,8 +858,8 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
 
         if(cAndCpath == null)
         {
-            String[] item_type = {context_type};
-            String[] item_alias = {path.get(path.size() - 1)}; // path has been trimmed by now
+            String[] item_type = {cfg.getContextType()};
+            String[] item_alias = {path.get(path.size() - 1)}; // path has been truncated by now
             params.put("item-type", item_type);
             params.put("c", item_type); // for simplicity
             params.put("item-alias", item_alias);
@@ -544,14 +870,14 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
 
         // less interesting params now
 
-        String[] layoutTemplate = {_getTemplateForAuthority(uri.getAuthority())};
+        String[] layoutTemplate = {_getTemplateForAuthority(uri.getAuthority(), cfg)};
         params.put("childpagename", layoutTemplate);
         if(LOG.isTraceEnabled())
         {
             LOG.trace("childpagename decoded to " + layoutTemplate[0]);
         }
 
-        String[] wrapper = {_getWrapperForAuthority(uri.getAuthority())};
+        String[] wrapper = {_getWrapperForAuthority(uri.getAuthority(), cfg)};
         params.put("pagename", wrapper);
         if(LOG.isTraceEnabled())
         {
@@ -561,107 +887,220 @@ public final class ItemContextAssembler extends LightweightAbstractAssembler
         return params;
     }
 
-    private String _getVariant(List<String> path)
+    private String _getVariant(PathSegments path)
     {
         if(path.size() >= 2)
         {
-            String s = path.get(path.size() - 1);
-
-            if(s != null && s.length() > 1 && s.startsWith("v"))
+            int last = path.size() - 1;
+            if(path.length(last) > 1 && path.charAt(last, 0) == 'v' && path.isInteger(last, 1))
             {
-                s = s.substring(1);
-                try
-                {
-                    Integer.parseInt(s);
-                    // found it!  remove the extra entry from the path list
-                    path.remove(path.size() - 1);
-                    return s;
-                }
-                catch(Exception e)
-                {
-                    // no path
-                }
+                // found it!  remove the extra entry from the path
+                String s = path.get(last, 1);
+                path.truncate(last);
+                return s;
             }
         }
         return null;
 
     }
 
-    private String[] _getCandCpath(List<String> path)
+    private String[] _getCandCpath(PathSegments path, ItemContextConfiguration cfg)
     {
         if(path.size() >= 3)
         {
             String cAliasCandidate = path.get(path.size() - 2);
-            String cCandidate = itemTypeNameFromAlias(cAliasCandidate);
+            String cCandidate = cfg.itemTypeNameFromAlias(cAliasCandidate);
             if(cCandidate != null)
             {
                 String[] s = new String[2];
                 s[0] = cCandidate;
                 s[1] = path.get(path.size() - 1);
-                path.remove(path.size() - 1);
-                path.remove(path.size() - 1);
+                path.truncate(path.size() - 2);
                 return s;
             }
         }
         return null;
     }
 
-    private String _getCpath(List<String> path)
+    private String _getCpath(PathSegments path)
     {
         // the rest is ours
-        StringBuilder s = new StringBuilder();
-        for(String element : path)
+        return path.join();
+    }
+
+    /**
+     * Segments of a slash-separated path, recorded as offsets into the original string so that segments, and runs of
+     * leading segments, can be taken as plain substrings.  Segments are found exactly as with
+     * <code>String.split("/")</code>: empty segments are kept, except at the end.
+     */
+    static final class PathSegments
+    {
+        private final String path;
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private int size;
+
+        /**
+         * @param path the full path
+         * @param offset position in the path at which the segments start
+         */
+        PathSegments(String path, int offset)
         {
-            if(s.length() > 0)
+            this.path = path;
+            int end = path.length();
+            if(offset >= end)
             {
-                s.append("/");
+                // splitting an empty string results in one empty segment
+                _add(offset, offset);
+                return;
+            }
+            while(end > offset && path.charAt(end - 1) == '/')
+            {
+                end--;
+            }
+            int start = offset;
+            while(start < end)
+            {
+                int slash = path.indexOf('/', start);
+                if(slash == -1 || slash > end)
+                {
+                    slash = end;
+                }
+                _add(start, slash);
+                start = slash + 1;
             }
-            s.append(element);
         }
-        return s.toString();
-    }
 
+        private void _add(int start, int end)
+        {
+            if(size == starts.length)
+            {
+                int[] newStarts = new int[size * 2];
+                int[] newEnds = new int[size * 2];
+                System.arraycopy(starts, 0, newStarts, 0, size);
+                System.arraycopy(ends, 0, newEnds, 0, size);
+                starts = newStarts;
+                ends = newEnds;
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
 
-    /**
-     * Given an item alias, return the item type.
-     *
-     * @param alias input alias
-     * @return item type or null if not configured
-     */
-    private String itemTypeNameFromAlias(String alias)
-    {
-        return getProperty(PROP_ITEM_TYPE_ALIAS_PREFIX + alias, null);
-    }
+        int size()
+        {
+            return size;
+        }
 
-    /**
-     * Given an item type, return its alias
-     *
-     * @param atName item type name
-     * @return alias or null if not configured
-     */
-    private String aliasFromItemTypeName(String atName)
-    {
-        return getProperty(PROP_ITEM_TYPE_PARAMETER_PREFIX + atName, null);
+        int length(int i)
+        {
+            return ends[i] - starts[i];
+        }
+
+        char charAt(int i, int index)
+        {
+            return path.charAt(starts[i] + index);
+        }
+
+        String get(int i)
+        {
+            return path.substring(starts[i], ends[i]);
+        }
+
+        String get(int i, int beginIndex)
+        {
+            return path.substring(starts[i] + beginIndex, ends[i]);
+        }
+
+        /**
+         * Forget about all segments from the specified one on.
+         *
+         * @param newSize number of segments to keep
+         */
+        void truncate(int newSize)
+        {
+            size = newSize;
+        }
+
+        /**
+         * @return all remaining segments, separated by slashes.  Leading empty segments are skipped.
+         */
+        String join()
+        {
+            int first = 0;
+            while(first < size && starts[first] == ends[first])
+            {
+                first++;
+            }
+            return first == size ? "" : path.substring(starts[first], ends[size - 1]);
+        }
+
+        /**
+         * Check whether a segment, from the specified index on, holds a decimal integer that fits in an
+         * <code>int</code>.  Accepts exactly what <code>Integer.parseInt</code> accepts on Java 5, where a leading
+         * <code>+</code> is not allowed, without throwing exceptions for the (common) case where it is not an
+         * integer.
+         *
+         * @param i segment
+         * @param beginIndex index in the segment to start at
+         * @return true if the rest of the segment is an integer
+         */
+        boolean isInteger(int i, int beginIndex)
+        {
+            int pos = starts[i] + beginIndex;
+            int end = ends[i];
+            if(pos >= end)
+            {
+                return false;
+            }
+            long limit = Integer.MAX_VALUE;
+            char first = path.charAt(pos);
+            if(first == '-')
+            {
+                limit = -(long)Integer.MIN_VALUE;
+                pos++;
+                if(pos == end)
+                {
+                    return false;
+                }
+            }
+            long value = 0;
+            for(; pos < end; pos++)
+            {
+                int digit = Character.digit(path.charAt(pos), 10);
+                if(digit < 0)
+                {
+                    return false;
+                }
+                value = value * 10 + digit;
+                if(value > limit)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
-    private final String _getWrapperForAuthority(String authority)
+
+    private final String _getWrapperForAuthority(String authority, ItemContextConfiguration cfg)
     {
         // TODO: figure out how to let this be more configuratble.
         // Using the authority from the URL did not quite work because
         // for some links, the authority comes back blank, which would
         // be ambiguous in a multi-site environment.  For now, don't
         // expose this feature until it can be much more robust
-        return global_wrapper_pagename;
+        return cfg.getGlobalWrapperPagename();
     }
 
-    private final String _getTemplateForAuthority(String authority)
+    private final String _getTemplateForAuthority(String authority, ItemContextConfiguration cfg)
     {
         // TODO: figure out how to let this be more configuratble.
         // Using the authority from the URL did not quite work because
         // for some links, the authority comes back blank, which would
         // be ambiguous in a multi-site environment.  For now, don't
         // expose this feature until it can be much more robust
-        return global_template_pagename;
+        return cfg.getGlobalTemplatePagename();
     }
 
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext;
+
+import com.fatwire.cs.core.uri.Assembler;
+
+import java.util.*;
+
+import static com.fatwire.developernet.uri.itemcontext.ItemContextAssembler.*;
+
+/**
+ * Immutable snapshot of the {@link ItemContextAssembler} configuration.  All of the properties are compiled
+ * once, when the assembler's properties are set, so that assembly and disassembly only need to read fields
+ * and perform single map lookups.  In particular, the item type aliases configured using
+ * {@link ItemContextAssembler#PROP_ITEM_TYPE_PARAMETER_PREFIX} and
+ * {@link ItemContextAssembler#PROP_ITEM_TYPE_ALIAS_PREFIX} are compiled into a bidirectional table so
+ * that no property names need to be built at runtime.
+ *
+ * @see ItemContextAssembler
+ */
+final class ItemContextConfiguration
+{
+    /**
+     * List of parameters that are effectively embedded in the pathinfo for this URL.
+     * item-type is embedded as itself, p is embedded as item-context, cid is embedded as item-alias.
+     */
+    static final Set<String> EMBEDDED_PARAMS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("pagename", "childpagename", "item-context", "item-alias", "variant", "item-type", "c", "cid", "p")));
+
+    private final Map<String, String> typeToAlias;
+    private final Map<String, String> aliasToType;
+    private final String uriBase;
+    private final String pathPrefix;
+    private final String contextType;
+    private final String globalWrapperPagename;
+    private final String globalTemplatePagename;
+    private final List<String> nopackArgs;
+    private final Set<String> packedargsExclusions;
+    private final int assemblyCacheSize;
+    private final int disassemblyCacheSize;
+
+    /**
+     * Compile the configuration from the assembler's properties.
+     *
+     * @param properties all properties set into the assembler
+     */
+    ItemContextConfiguration(Map<String, String> properties)
+    {
+        Map<String, String> t2a = new HashMap<String, String>();
+        Map<String, String> a2t = new HashMap<String, String>();
+        for(Map.Entry<String, String> entry : properties.entrySet())
+        {
+            String name = entry.getKey();
+            if(name.startsWith(PROP_ITEM_TYPE_PARAMETER_PREFIX))
+            {
+                t2a.put(name.substring(PROP_ITEM_TYPE_PARAMETER_PREFIX.length()), entry.getValue());
+            }
+            else if(name.startsWith(PROP_ITEM_TYPE_ALIAS_PREFIX))
+            {
+                a2t.put(name.substring(PROP_ITEM_TYPE_ALIAS_PREFIX.length()), entry.getValue());
+            }
+        }
+        typeToAlias = Collections.unmodifiableMap(t2a);
+        aliasToType = Collections.unmodifiableMap(a2t);
+
+        uriBase = properties.get(Assembler.PROP_URIBASE_SATELLITE_SERVER);
+        boolean appendServletContext = Boolean.valueOf(_get(properties, PROP_SERVLET_CONTEXT_TOGGLE, "true")).booleanValue();
+        String prefix = appendServletContext && uriBase != null ? uriBase : "";
+        pathPrefix = prefix.endsWith("/") ? prefix : prefix + "/";
+
+        contextType = _get(properties, PROP_ITEM_TYPE_FOR_CONTEXT, PROP_ITEM_TYPE_FOR_CONTEXT_DEFAULT);
+        globalWrapperPagename = properties.get(PROP_GLOBAL_WRAPPER_PAGENAME);
+        globalTemplatePagename = properties.get(PROP_GLOBAL_TEMPLATE_PAGENAME);
+
+        List<String> nopack = new ArrayList<String>();
+        for(String arg : _get(properties, PROP_ALWAYS_UNPACK_ARGS, "").split(","))
+        {
+            if(arg.length() > 0)
+            {
+                nopack.add(arg);
+            }
+        }
+        nopackArgs = Collections.unmodifiableList(nopack);
+
+        Set<String> exclusions = new HashSet<String>(EMBEDDED_PARAMS);
+        exclusions.addAll(nopack);
+        packedargsExclusions = Collections.unmodifiableSet(exclusions);
+
+        assemblyCacheSize = _getInt(properties, PROP_ASSEMBLY_CACHE_SIZE, PROP_ASSEMBLY_CACHE_SIZE_DEFAULT);
+        disassemblyCacheSize = _getInt(properties, PROP_DISASSEMBLY_CACHE_SIZE, PROP_DISASSEMBLY_CACHE_SIZE_DEFAULT);
+    }
+
+    private static int _getInt(Map<String, String> properties, String name, String dephault)
+    {
+        String value = _get(properties, name, dephault).trim();
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Value for property " + name + " is not a valid integer: " + value, e);
+        }
+    }
+
+    private static String _get(Map<String, String> properties, String name, String dephault)
+    {
+        String result = properties.get(name);
+        return result == null ? dephault : result;
+    }
+
+    /**
+     * Given an item alias, return the item type.
+     *
+     * @param alias input alias
+     * @return item type or null if not configured
+     */
+    String itemTypeNameFromAlias(String alias)
+    {
+        return aliasToType.get(alias);
+    }
+
+    /**
+     * Given an item type, return its alias
+     *
+     * @param atName item type name
+     * @return alias or null if not configured
+     */
+    String aliasFromItemTypeName(String atName)
+    {
+        return typeToAlias.get(atName);
+    }
+
+    /**
+     * @return the value of the <code>PROP_URIBASE_SATELLITE_SERVER</code> property, or null if it is not set.
+     */
+    String getUriBase()
+    {
+        return uriBase;
+    }
+
+    /**
+     * @return prefix for assembled paths: the Satellite Server URI base if the servlet context is to be appended,
+     *         always ending in a slash.
+     */
+    String getPathPrefix()
+    {
+        return pathPrefix;
+    }
+
+    String getContextType()
+    {
+        return contextType;
+    }
+
+    String getGlobalWrapperPagename()
+    {
+        return globalWrapperPagename;
+    }
+
+    String getGlobalTemplatePagename()
+    {
+        return globalTemplatePagename;
+    }
+
+    /**
+     * @return parameters to always be removed from packedargs and displayed as query string parameters.
+     */
+    List<String> getNopackArgs()
+    {
+        return nopackArgs;
+    }
+
+    /**
+     * @return all of the parameters to be removed from packedargs: the embedded parameters and the nopack args.
+     */
+    Set<String> getPackedargsExclusions()
+    {
+        return packedargsExclusions;
+    }
+
+    /**
+     * @return maximum number of assembled URIs to cache, or 0 (or less) if assembly caching is disabled.
+     */
+    int getAssemblyCacheSize()
+    {
+        return assemblyCacheSize;
+    }
+
+    /**
+     * @return maximum number of disassembled URIs to cache, or 0 (or less) if disassembly caching is disabled.
+     */
+    int getDisassemblyCacheSize()
+    {
+        return disassemblyCacheSize;
+    }
+}
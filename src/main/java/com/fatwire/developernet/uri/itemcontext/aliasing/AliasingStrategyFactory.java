@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Util.ftErrors;
+import com.fatwire.developernet.CSRuntimeException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates the aliasing strategies of a class, given its name.  The class and its constructor taking an
+ * <code>ICS</code> are looked up once per class name, and strategies are then created through that constructor.
+ */
+public final class AliasingStrategyFactory
+{
+    /**
+     * Factories, by class name.
+     */
+    private static final ConcurrentMap<String, AliasingStrategyFactory> FACTORIES = new ConcurrentHashMap<String, AliasingStrategyFactory>();
+
+    private final String className;
+    private final Constructor<? extends AssetAliasingStrategy> constructor;
+
+    private AliasingStrategyFactory(String className)
+    {
+        this.className = className;
+        Class<?> c;
+        try
+        {c = Class.forName(className);}
+        catch(ClassNotFoundException e)
+        {
+            throw new CSRuntimeException("Could not find class for AssetAliasingStrategy.", ftErrors.exceptionerr, e);
+        }
+        if(!AssetAliasingStrategy.class.isAssignableFrom(c))
+        {
+            throw new CSRuntimeException("Class " + className + " is not an AssetAliasingStrategy.", ftErrors.exceptionerr);
+        }
+        try
+        {constructor = c.asSubclass(AssetAliasingStrategy.class).getConstructor(ICS.class);}
+        catch(NoSuchMethodException e)
+        {
+            throw new CSRuntimeException("Class " + className + " does not have a suitable constructor.", ftErrors.exceptionerr, e);
+        }
+    }
+
+    /**
+     * Get the factory of a strategy class, looking up the class the first time.
+     *
+     * @param className name of a class implementing {@link AssetAliasingStrategy}, with a public constructor
+     * taking an <code>ICS</code>
+     * @return the factory
+     * @throws CSRuntimeException if the class cannot be found or has no suitable constructor
+     */
+    public static AliasingStrategyFactory getInstance(String className)
+    {
+        AliasingStrategyFactory factory = FACTORIES.get(className);
+        if(factory == null)
+        {
+            AliasingStrategyFactory newFactory = new AliasingStrategyFactory(className);
+            factory = FACTORIES.putIfAbsent(className, newFactory);
+            if(factory == null)
+            {
+                factory = newFactory;
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * @return name of the strategy class
+     */
+    public String getClassName()
+    {
+        return className;
+    }
+
+    /**
+     * Create a strategy.
+     *
+     * @param ics context passed to the constructor
+     * @return a new strategy
+     * @throws CSRuntimeException if the strategy cannot be created
+     */
+    public AssetAliasingStrategy newInstance(ICS ics)
+    {
+        try
+        {return constructor.newInstance(ics);}
+        catch(InstantiationException e)
+        {
+            throw new CSRuntimeException("Could not instantiate " + className, ftErrors.exceptionerr, e);
+        }
+        catch(IllegalAccessException e)
+        {
+            throw new CSRuntimeException("Illegal access attempting to instantiate " + className, ftErrors.exceptionerr, e);
+        }
+        catch(InvocationTargetException e)
+        {
+            throw new CSRuntimeException("Attempted to instantiate " + className + " but the constructor threw an exception: " + e.getTargetException(), ftErrors.exceptionerr, e);
+        }
+    }
+
+    public String toString()
+    {
+        return "AliasingStrategyFactory{" + className + "}";
+    }
+}
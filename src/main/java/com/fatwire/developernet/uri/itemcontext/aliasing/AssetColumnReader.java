@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Interfaces.IList;
+import COM.FutureTense.Interfaces.Utilities;
+import COM.FutureTense.Util.IterableIListWrapper;
+import COM.FutureTense.Util.ftErrors;
+import com.fatwire.assetapi.data.AssetId;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.*;
+
+import static com.fatwire.developernet.IListUtils.getLongValue;
+import static com.fatwire.developernet.IListUtils.getStringValue;
+
+/**
+ * Reads one column of the primary table of assets, such as <code>name</code> or <code>path</code>, for many assets
+ * at once.  The assets of each type are looked up with one query per {@link #BATCH_SIZE} ids, instead of reading
+ * every asset through the asset API.
+ */
+final class AssetColumnReader
+{
+    /**
+     * Maximum number of ids in a single <code>IN</code> clause.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final Log LOG = LogFactory.getLog(AssetColumnReader.class.getName());
+
+    private AssetColumnReader()
+    {
+    }
+
+    /**
+     * Read a column of the primary table of each asset.  Assets that cannot be found, or whose value is empty, are
+     * mapped to null.  If the table of an asset type cannot be queried, the aliases of the assets of that type are
+     * computed one by one by the strategy, and those that fail are mapped to null as well, so that one asset does not
+     * keep the others from being aliased.
+     *
+     * @param ics context
+     * @param ids assets to read
+     * @param column name of the column, which is also the name of the attribute
+     * @param strategy strategy computing the alias of a single asset when the table cannot be queried
+     * @param localeName locale passed to the strategy
+     * @return values in the same order as the ids, never null
+     */
+    static List<String> computeAliases(ICS ics, List<AssetId> ids, String column, AssetAliasingStrategy strategy, String localeName)
+    {
+        Map<String, List<AssetId>> byType = new HashMap<String, List<AssetId>>();
+        for(AssetId id : ids)
+        {
+            List<AssetId> ofType = byType.get(id.getType());
+            if(ofType == null)
+            {
+                ofType = new ArrayList<AssetId>();
+                byType.put(id.getType(), ofType);
+            }
+            if(!ofType.contains(id))
+            {
+                ofType.add(id);
+            }
+        }
+        Map<AssetId, String> found = new HashMap<AssetId, String>(ids.size() * 2);
+        for(Map.Entry<String, List<AssetId>> ofType : byType.entrySet())
+        {
+            List<AssetId> batch = ofType.getValue();
+            for(int from = 0; from < batch.size(); from += BATCH_SIZE)
+            {
+                List<AssetId> sub = batch.subList(from, Math.min(from + BATCH_SIZE, batch.size()));
+                if(!_load(ics, ofType.getKey(), sub, column, found))
+                {
+                    for(AssetId id : sub)
+                    {
+                        found.put(id, _computeAlias(strategy, id, localeName));
+                    }
+                }
+            }
+        }
+        List<String> result = new ArrayList<String>(ids.size());
+        for(AssetId id : ids)
+        {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * @return false if the table could not be queried
+     */
+    private static boolean _load(ICS ics, String type, List<AssetId> ids, String column, Map<AssetId, String> found)
+    {
+        if(!_isIdentifier(type))
+        {
+            return false;
+        }
+        StringBuilder sql = new StringBuilder("SELECT id, ").append(column).append(" AS alias FROM ").append(type).append(" WHERE id IN (");
+        for(int i = 0; i < ids.size(); i++)
+        {
+            if(i > 0)
+            {
+                sql.append(',');
+            }
+            sql.append(ids.get(i).getId());
+        }
+        sql.append(')');
+
+        StringBuffer errstr = new StringBuffer();
+        IList list = ics.SQL(type, sql.toString(), null, -1, false, errstr);
+        if(ics.GetErrno() < 0 && ics.GetErrno() != ftErrors.norows)
+        {
+            LOG.warn("AssetColumnReader._load: could not read " + column + " of " + type + " assets, reading them one by one: " + errstr);
+            return false;
+        }
+
+        Map<Long, String> values = new HashMap<Long, String>(ids.size() * 2);
+        if(list != null && list.hasData())
+        {
+            for(IList row : new IterableIListWrapper(list))
+            {
+                String value = getStringValue(row, "alias");
+                values.put(getLongValue(row, "id"), Utilities.goodString(value) ? value : null);
+            }
+        }
+        for(AssetId id : ids)
+        {
+            found.put(id, values.get(id.getId()));
+        }
+        if(LOG.isTraceEnabled())
+        {
+            LOG.trace("AssetColumnReader._load: found " + column + " of " + type + " assets " + ids + ": " + values);
+        }
+        return true;
+    }
+
+    private static String _computeAlias(AssetAliasingStrategy strategy, AssetId id, String localeName)
+    {
+        try
+        {
+            return strategy.computeAlias(id, localeName);
+        }
+        catch(RuntimeException e)
+        {
+            LOG.warn("AssetColumnReader._computeAlias: could not compute the alias of " + id, e);
+            return null;
+        }
+    }
+
+    /**
+     * Asset type names are used as table names, so only plain identifiers are queried.
+     */
+    private static boolean _isIdentifier(String s)
+    {
+        if(s == null || s.length() == 0)
+        {
+            return false;
+        }
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_'))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
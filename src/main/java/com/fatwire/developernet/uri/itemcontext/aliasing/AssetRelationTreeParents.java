@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Interfaces.IList;
+import COM.FutureTense.Util.IterableIListWrapper;
+import COM.FutureTense.Util.ftErrors;
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.CSRuntimeException;
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.cache.CacheStatistics;
+import com.fatwire.developernet.uri.cache.SharedCacheHolder;
+import com.openmarket.xcelerate.asset.AssetIdImpl;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.*;
+
+import static com.fatwire.developernet.IListUtils.getLongValue;
+
+/**
+ * JVM-wide cache of the assets that refer to other assets through a named association, read from the
+ * <code>AssetRelationTree</code> table.  The metadata-article strategies use it to find the pages an article is
+ * associated to: the parents of all the articles matching an alias are looked up with a single query, and
+ * remembered.
+ * <p/>
+ * <p>The cache must be cleared when associations change, see {@link #clear}.</p>
+ */
+public final class AssetRelationTreeParents
+{
+    /**
+     * Property name defining the maximum number of assets whose parents are cached.
+     *
+     * @see #PROPERTY_MAX_SIZE_DEFAULT
+     */
+    public static final String PROPERTY_MAX_SIZE = "com.fatwire.developernet.uri.itemcontext.aliasing.relation-cache.max-size";
+    /**
+     * Default value of the {@link #PROPERTY_MAX_SIZE} property.
+     */
+    public static final String PROPERTY_MAX_SIZE_DEFAULT = "10000";
+    /**
+     * Property name defining the number of seconds after which cached parents expire.  0 means never.
+     *
+     * @see #PROPERTY_TTL_SECONDS_DEFAULT
+     */
+    public static final String PROPERTY_TTL_SECONDS = "com.fatwire.developernet.uri.itemcontext.aliasing.relation-cache.ttl-seconds";
+    /**
+     * Default value of the {@link #PROPERTY_TTL_SECONDS} property.
+     */
+    public static final String PROPERTY_TTL_SECONDS_DEFAULT = "300";
+
+    /**
+     * Maximum number of ids in a single <code>IN</code> clause.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final Log LOG = LogFactory.getLog(AssetRelationTreeParents.class.getName());
+
+    private static final SharedCacheHolder<AssetRelationTreeParents> INSTANCE = new SharedCacheHolder<AssetRelationTreeParents>(PROPERTY_MAX_SIZE, PROPERTY_MAX_SIZE_DEFAULT, PROPERTY_TTL_SECONDS, PROPERTY_TTL_SECONDS_DEFAULT)
+    {
+        protected AssetRelationTreeParents create(ICS ics, int maxSize, long ttlMillis)
+        {
+            return new AssetRelationTreeParents(maxSize, ttlMillis);
+        }
+    };
+
+    private final BoundedCache<String, List<AssetId>> parents;
+
+    private AssetRelationTreeParents(int maxSize, long ttlMillis)
+    {
+        parents = new BoundedCache<String, List<AssetId>>(maxSize, ttlMillis);
+    }
+
+    /**
+     * Get the cache, creating it if this has not been done yet.
+     *
+     * @param ics context, used to read the configuration if the cache needs to be created
+     * @return the cache
+     */
+    public static AssetRelationTreeParents getInstance(ICS ics)
+    {
+        return INSTANCE.get(ics);
+    }
+
+    /**
+     * Forget all parents.  Should be called when associations have changed, after a publish for example.
+     */
+    public static void clear()
+    {
+        AssetRelationTreeParents cache = INSTANCE.peek();
+        if(cache != null)
+        {
+            cache.parents.clear();
+            LOG.info("AssetRelationTreeParents cleared");
+        }
+    }
+
+    /**
+     * Forget the parents of some assets, through any association.
+     *
+     * @param children assets whose associations may have changed
+     * @return the parents that were cached for these assets
+     */
+    public static Set<AssetId> invalidate(Collection<AssetId> children)
+    {
+        final Set<AssetId> removed = new HashSet<AssetId>();
+        AssetRelationTreeParents cache = INSTANCE.peek();
+        if(cache != null)
+        {
+            final Set<String> prefixes = new HashSet<String>(children.size() * 2);
+            for(AssetId child : children)
+            {
+                prefixes.add(child.getType() + '/' + child.getId() + '/');
+            }
+            cache.parents.removeAll(new BoundedCache.Filter<String, List<AssetId>>()
+            {
+                public boolean matches(String key, List<AssetId> value)
+                {
+                    if(prefixes.contains(key.substring(0, key.indexOf('/', key.indexOf('/') + 1) + 1)))
+                    {
+                        removed.addAll(value);
+                        return true;
+                    }
+                    return false;
+                }
+            });
+        }
+        return removed;
+    }
+
+    /**
+     * Forget the parents cached for any child when they include some assets.  Parents are cached by child, so this
+     * is what removes the associations of an asset that has changed as a parent, such as a page associated to a
+     * different article.
+     *
+     * @param changedParents assets whose associations may have changed
+     * @return the number of cached entries removed
+     */
+    public static int invalidateParents(Collection<AssetId> changedParents)
+    {
+        AssetRelationTreeParents cache = INSTANCE.peek();
+        if(cache == null || changedParents.isEmpty())
+        {
+            return 0;
+        }
+        final Set<AssetId> changed = new HashSet<AssetId>(changedParents);
+        return cache.parents.removeAll(new BoundedCache.Filter<String, List<AssetId>>()
+        {
+            public boolean matches(String key, List<AssetId> value)
+            {
+                for(AssetId parent : value)
+                {
+                    if(changed.contains(parent))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+    }
+
+    private static String _key(AssetId child, String parentType, String associationName)
+    {
+        return child.getType() + '/' + child.getId() + '/' + parentType + '/' + associationName;
+    }
+
+    private static String _quote(String s)
+    {
+        return s.replace("'", "''");
+    }
+
+    /**
+     * Find the assets of a given type that refer to each of the specified assets through an association.
+     * Equivalent to calling <code>AssetRelationTreeUtils.getAssetRelationTreeParents</code> for each asset, but
+     * the assets whose parents are not cached are looked up with one query per asset type.
+     *
+     * @param ics context
+     * @param children assets to find the parents of
+     * @param parentType asset type of the parents
+     * @param associationName name of the association, or null for any association
+     * @return parents of each asset, never null.  Assets without parents are mapped to an empty list.
+     */
+    public Map<AssetId, List<AssetId>> getParents(ICS ics, Collection<AssetId> children, String parentType, String associationName)
+    {
+        Map<AssetId, List<AssetId>> result = new HashMap<AssetId, List<AssetId>>(children.size() * 2);
+        Map<String, List<AssetId>> missingByType = new HashMap<String, List<AssetId>>();
+        for(AssetId child : children)
+        {
+            List<AssetId> p = parents.get(_key(child, parentType, associationName));
+            if(p != null)
+            {
+                result.put(child, p);
+            }
+            else
+            {
+                List<AssetId> missing = missingByType.get(child.getType());
+                if(missing == null)
+                {
+                    missing = new ArrayList<AssetId>();
+                    missingByType.put(child.getType(), missing);
+                }
+                if(!missing.contains(child))
+                {
+                    missing.add(child);
+                }
+            }
+        }
+        for(Map.Entry<String, List<AssetId>> missing : missingByType.entrySet())
+        {
+            List<AssetId> ids = missing.getValue();
+            for(int from = 0; from < ids.size(); from += BATCH_SIZE)
+            {
+                _load(ics, missing.getKey(), ids.subList(from, Math.min(from + BATCH_SIZE, ids.size())), parentType, associationName, result);
+            }
+        }
+        return result;
+    }
+
+    private void _load(ICS ics, String childType, List<AssetId> children, String parentType, String associationName, Map<AssetId, List<AssetId>> result)
+    {
+        StringBuilder sql = new StringBuilder("SELECT c.oid AS child, p.oid AS parent FROM AssetRelationTree c, AssetRelationTree p WHERE p.nid = c.nparentid");
+        if(associationName != null)
+        {
+            sql.append(" AND c.ncode = '").append(_quote(associationName)).append('\'');
+        }
+        sql.append(" AND c.otype = '").append(_quote(childType)).append('\'');
+        sql.append(" AND p.otype = '").append(_quote(parentType)).append('\'');
+        sql.append(" AND c.oid IN (");
+        for(int i = 0; i < children.size(); i++)
+        {
+            if(i > 0)
+            {
+                sql.append(',');
+            }
+            sql.append(children.get(i).getId());
+        }
+        sql.append(") ORDER BY c.nid");
+
+        StringBuffer errstr = new StringBuffer();
+        IList list = ics.SQL("AssetRelationTree", sql.toString(), null, -1, false, errstr);
+        if(ics.GetErrno() < 0 && ics.GetErrno() != ftErrors.norows)
+        {
+            throw new CSRuntimeException("Failure looking up " + parentType + " parents of " + children + " through association " + associationName + ": " + errstr, ics.GetErrno());
+        }
+
+        Map<Long, List<AssetId>> found = new HashMap<Long, List<AssetId>>();
+        if(list != null && list.hasData())
+        {
+            for(IList row : new IterableIListWrapper(list))
+            {
+                Long child = getLongValue(row, "child");
+                List<AssetId> p = found.get(child);
+                if(p == null)
+                {
+                    p = new ArrayList<AssetId>(1);
+                    found.put(child, p);
+                }
+                p.add(new AssetIdImpl(parentType, getLongValue(row, "parent")));
+            }
+        }
+        for(AssetId child : children)
+        {
+            List<AssetId> p = found.get(child.getId());
+            p = p == null ? Collections.<AssetId>emptyList() : Collections.unmodifiableList(p);
+            parents.put(_key(child, parentType, associationName), p);
+            result.put(child, p);
+        }
+        if(LOG.isTraceEnabled())
+        {
+            LOG.trace("AssetRelationTreeParents._load: found " + parentType + " parents through " + associationName + " for " + children + ": " + found);
+        }
+    }
+
+    /**
+     * @return usage of the cache
+     */
+    public CacheStatistics getStatistics()
+    {
+        return parents;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import com.fatwire.assetapi.data.AssetId;
+
+import java.util.List;
+
+/**
+ * Aliasing strategy that can compute the aliases of several assets at once, typically with a single query.
+ * Callers check for this interface and fall back to calling {@link #computeAlias} for each asset when a
+ * strategy does not implement it.
+ */
+public interface BulkAssetAliasingStrategy extends AssetAliasingStrategy
+{
+    /**
+     * Given a list of asset IDs, compute the alias of each asset.  Equivalent to calling
+     * {@link #computeAlias} for each of them.
+     *
+     * @param ids Asset IDs
+     * @param localeName name of locale to find the paths for.  Null is allowed,
+     * in which case to translation is sought.
+     * @return aliases, in the same order as the IDs.  An element is null if no alias could be computed for that
+     * asset.
+     */
+    List<String> computeAliases(List<AssetId> ids, String localeName);
+}
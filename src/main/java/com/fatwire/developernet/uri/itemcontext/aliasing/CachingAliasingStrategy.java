@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Util.ftErrors;
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.CSRuntimeException;
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.cache.CacheStatistics;
+import com.fatwire.developernet.uri.cache.SharedCacheHolder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aliasing strategy that remembers the results of another strategy, so that the asset API is only queried the
+ * first time an alias is computed or resolved.
+ * <p/>
+ * <p><strong>Configuration</strong></p>
+ * <p>To use it, set the aliasing strategy property of the assembler helper to the name of this class, and
+ * {@link #PROPERTY_DELEGATE_CLASS} to the name of the strategy that actually computes aliases.  The caches are
+ * JVM-wide, one pair per delegate class.  Their size is set by {@link #PROPERTY_MAX_SIZE}, and the time after which
+ * entries expire by {@link #PROPERTY_TTL_SECONDS}.  These properties are read once, when the first instance is
+ * created.</p>
+ * <p>Properties are configured in the {@link SharedCacheHolder#CONFIGURATION_FILE_NAME} file.</p>
+ * <p/>
+ * <p>The delegate is only instantiated when a value is not found in the caches.  Exceptions thrown by the delegate
+ * are not cached.  Aliases that are not cached are computed in a single call when several are needed at once
+ * and the delegate implements {@link BulkAssetAliasingStrategy}.</p>
+ */
+public final class CachingAliasingStrategy implements BulkAssetAliasingStrategy
+{
+    /**
+     * Property name defining the class name of the aliasing strategy whose results are cached.
+     *
+     * @see #PROPERTY_DELEGATE_CLASS_DEFAULT
+     */
+    public static final String PROPERTY_DELEGATE_CLASS = "com.fatwire.developernet.uri.itemcontext.aliasing.caching.delegate-class";
+    /**
+     * Default value of the {@link #PROPERTY_DELEGATE_CLASS} property.
+     */
+    public static final String PROPERTY_DELEGATE_CLASS_DEFAULT = IdAliasingStrategy.class.getName();
+    /**
+     * Property name defining the maximum number of entries in each cache.
+     *
+     * @see #PROPERTY_MAX_SIZE_DEFAULT
+     */
+    public static final String PROPERTY_MAX_SIZE = "com.fatwire.developernet.uri.itemcontext.aliasing.caching.max-size";
+    /**
+     * Default value of the {@link #PROPERTY_MAX_SIZE} property.
+     */
+    public static final String PROPERTY_MAX_SIZE_DEFAULT = "10000";
+    /**
+     * Property name defining the number of seconds after which cached aliases expire.  0 means never.
+     *
+     * @see #PROPERTY_TTL_SECONDS_DEFAULT
+     */
+    public static final String PROPERTY_TTL_SECONDS = "com.fatwire.developernet.uri.itemcontext.aliasing.caching.ttl-seconds";
+    /**
+     * Default value of the {@link #PROPERTY_TTL_SECONDS} property.
+     */
+    public static final String PROPERTY_TTL_SECONDS_DEFAULT = "300";
+
+    private static final Log LOG = LogFactory.getLog(CachingAliasingStrategy.class.getName());
+
+    /**
+     * Caches, by delegate class name.
+     */
+    private static final ConcurrentMap<String, Caches> CACHES = new ConcurrentHashMap<String, Caches>();
+
+    /**
+     * Caches of the configured delegate class.
+     */
+    private static final SharedCacheHolder<Caches> CONFIGURED = new SharedCacheHolder<Caches>(PROPERTY_MAX_SIZE, PROPERTY_MAX_SIZE_DEFAULT, PROPERTY_TTL_SECONDS, PROPERTY_TTL_SECONDS_DEFAULT)
+    {
+        protected Caches create(ICS ics, int maxSize, long ttlMillis)
+        {
+            String delegateClass = getProperty(ics, PROPERTY_DELEGATE_CLASS, PROPERTY_DELEGATE_CLASS_DEFAULT);
+            if(CachingAliasingStrategy.class.getName().equals(delegateClass))
+            {
+                throw new CSRuntimeException("CachingAliasingStrategy cannot delegate to itself.", ftErrors.badparams);
+            }
+            return _getCaches(delegateClass, maxSize, ttlMillis);
+        }
+    };
+
+    /**
+     * Cached value standing for a null alias.  Compared by identity.
+     */
+    private static final String NO_ALIAS = new String("");
+
+    private final ICS ics;
+    private final Caches caches;
+    private AssetAliasingStrategy delegate;
+
+    public CachingAliasingStrategy(ICS ics)
+    {
+        this.ics = ics;
+        caches = CONFIGURED.get(ics);
+    }
+
+    private static Caches _getCaches(String clazz, int maxSize, long ttlMillis)
+    {
+        Caches c = CACHES.get(clazz);
+        if(c == null)
+        {
+            Caches newCaches = new Caches(clazz, maxSize, ttlMillis);
+            c = CACHES.putIfAbsent(clazz, newCaches);
+            if(c == null)
+            {
+                c = newCaches;
+                if(LOG.isDebugEnabled())
+                {
+                    LOG.debug("Created alias caches for " + clazz + " with maxSize " + maxSize + " and ttl " + ttlMillis + "ms");
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Instantiate the delegate the first time it is needed.
+     *
+     * @return the strategy whose results are cached
+     */
+    private AssetAliasingStrategy _getDelegate()
+    {
+        if(delegate == null)
+        {
+            delegate = caches._getDelegateFactory().newInstance(ics);
+        }
+        return delegate;
+    }
+
+    /**
+     * Asset types cannot contain a slash, so no part of the key can be confused with the next one.
+     */
+    private static String _aliasKey(AssetId id, String localeName)
+    {
+        return localeName == null ? id.getType() + '/' + id.getId() : id.getType() + '/' + id.getId() + '/' + localeName;
+    }
+
+    public String computeAlias(AssetId id, String localeName)
+    {
+        String key = _aliasKey(id, localeName);
+        String alias = caches.aliases.get(key);
+        if(alias == null)
+        {
+            alias = _getDelegate().computeAlias(id, localeName);
+            caches.aliases.put(key, alias == null ? NO_ALIAS : alias);
+            return alias;
+        }
+        return alias == NO_ALIAS ? null : alias;
+    }
+
+    public List<String> computeAliases(List<AssetId> ids, String localeName)
+    {
+        List<String> result = new ArrayList<String>(ids.size());
+        List<AssetId> missing = new ArrayList<AssetId>();
+        int[] missingIndexes = new int[ids.size()];
+        for(int i = 0; i < ids.size(); i++)
+        {
+            String alias = caches.aliases.get(_aliasKey(ids.get(i), localeName));
+            if(alias == null)
+            {
+                missingIndexes[missing.size()] = i;
+                missing.add(ids.get(i));
+            }
+            result.add(alias == NO_ALIAS ? null : alias);
+        }
+        if(missing.isEmpty())
+        {
+            return result;
+        }
+
+        AssetAliasingStrategy d = _getDelegate();
+        List<String> computed;
+        if(d instanceof BulkAssetAliasingStrategy)
+        {
+            computed = ((BulkAssetAliasingStrategy)d).computeAliases(missing, localeName);
+        }
+        else
+        {
+            computed = new ArrayList<String>(missing.size());
+            for(AssetId id : missing)
+            {
+                computed.add(d.computeAlias(id, localeName));
+            }
+        }
+        for(int n = 0; n < missing.size(); n++)
+        {
+            String alias = computed.get(n);
+            caches.aliases.put(_aliasKey(missing.get(n), localeName), alias == null ? NO_ALIAS : alias);
+            result.set(missingIndexes[n], alias);
+        }
+        return result;
+    }
+
+    public List<CandidateInfo> findCandidatesForAlias(String type, String alias)
+    {
+        String key = type + '/' + alias;
+        List<CandidateInfo> candidates = caches.candidates.get(key);
+        if(candidates == null)
+        {
+            candidates = Collections.unmodifiableList(new ArrayList<CandidateInfo>(_getDelegate().findCandidatesForAlias(type, alias)));
+            caches.candidates.put(key, candidates);
+        }
+        return new ArrayList<CandidateInfo>(candidates);
+    }
+
+    /**
+     * @return usage of the cache of computed aliases, shared by all instances delegating to the same class
+     */
+    public CacheStatistics getAliasCacheStatistics()
+    {
+        return caches.aliases;
+    }
+
+    /**
+     * @return usage of the cache of candidates found for an alias, shared by all instances delegating to the same
+     *         class
+     */
+    public CacheStatistics getCandidateCacheStatistics()
+    {
+        return caches.candidates;
+    }
+
+    /**
+     * Empty the caches of all delegate classes.  This should be called after assets have been published or
+     * their aliases have been edited, unless the configured time to live is short enough.
+     */
+    public static void clearAll()
+    {
+        for(Caches c : CACHES.values())
+        {
+            c.aliases.clear();
+            c.candidates.clear();
+        }
+        LOG.info("CachingAliasingStrategy caches cleared");
+    }
+
+    /**
+     * Remove the aliases of some assets from the caches of all delegate classes, in all locales.  The new aliases
+     * are not known, so the candidates found for any alias of the same asset types are removed too.
+     *
+     * @param ids assets whose aliases may have changed
+     */
+    public static void invalidate(Collection<AssetId> ids)
+    {
+        final Set<String> assets = new HashSet<String>(ids.size() * 2);
+        final Set<String> types = new HashSet<String>();
+        for(AssetId id : ids)
+        {
+            assets.add(_aliasKey(id, null));
+            types.add(id.getType());
+        }
+        int aliases = 0;
+        int candidates = 0;
+        for(Caches c : CACHES.values())
+        {
+            aliases += c.aliases.removeAll(new BoundedCache.Filter<String, String>()
+            {
+                public boolean matches(String key, String value)
+                {
+                    // strip the locale from the key
+                    int slash = key.indexOf('/', key.indexOf('/') + 1);
+                    return assets.contains(slash == -1 ? key : key.substring(0, slash));
+                }
+            });
+            candidates += c.candidates.removeAll(new BoundedCache.Filter<String, List<CandidateInfo>>()
+            {
+                public boolean matches(String key, List<CandidateInfo> value)
+                {
+                    return types.contains(key.substring(0, key.indexOf('/')));
+                }
+            });
+        }
+        if(LOG.isDebugEnabled())
+        {
+            LOG.debug("Invalidated " + aliases + " aliases and " + candidates + " candidate lists for " + ids);
+        }
+    }
+
+    /**
+     * @return names of the delegate classes whose results are cached
+     */
+    public static Set<String> getDelegateClasses()
+    {
+        return new HashSet<String>(CACHES.keySet());
+    }
+
+    /**
+     * Copy the aliases cached for a delegate class, so that they can be saved and {@link #preload preloaded} later.
+     *
+     * @param delegateClass name of the delegate class
+     * @return aliases by opaque key, null standing for an asset without alias.  Empty if nothing is cached.
+     */
+    public static Map<String, String> getCachedAliases(String delegateClass)
+    {
+        Caches c = CACHES.get(delegateClass);
+        if(c == null)
+        {
+            return Collections.emptyMap();
+        }
+        Map<String, String> aliases = c.aliases.toMap();
+        for(Map.Entry<String, String> alias : aliases.entrySet())
+        {
+            if(alias.getValue() == NO_ALIAS)
+            {
+                alias.setValue(null);
+            }
+        }
+        return aliases;
+    }
+
+    /**
+     * Copy the candidates cached for a delegate class, so that they can be saved and {@link #preload preloaded}
+     * later.
+     *
+     * @param delegateClass name of the delegate class
+     * @return candidates by opaque key.  Empty if nothing is cached.
+     */
+    public static Map<String, List<CandidateInfo>> getCachedCandidates(String delegateClass)
+    {
+        Caches c = CACHES.get(delegateClass);
+        return c == null ? Collections.<String, List<CandidateInfo>>emptyMap() : c.candidates.toMap();
+    }
+
+    /**
+     * Add aliases and candidates obtained from {@link #getCachedAliases} and {@link #getCachedCandidates} to the
+     * caches of a delegate class, creating the caches if needed.
+     *
+     * @param ics context, used to read the configuration if the caches need to be created
+     * @param delegateClass name of the delegate class
+     * @param aliases aliases by key
+     * @param candidates candidates by key
+     */
+    public static void preload(ICS ics, String delegateClass, Map<String, String> aliases, Map<String, List<CandidateInfo>> candidates)
+    {
+        int maxSize = Integer.parseInt(SharedCacheHolder.getProperty(ics, PROPERTY_MAX_SIZE, PROPERTY_MAX_SIZE_DEFAULT));
+        long ttlMillis = Long.parseLong(SharedCacheHolder.getProperty(ics, PROPERTY_TTL_SECONDS, PROPERTY_TTL_SECONDS_DEFAULT)) * 1000L;
+        Caches c = _getCaches(delegateClass, maxSize, ttlMillis);
+        for(Map.Entry<String, String> alias : aliases.entrySet())
+        {
+            c.aliases.put(alias.getKey(), alias.getValue() == null ? NO_ALIAS : alias.getValue());
+        }
+        for(Map.Entry<String, List<CandidateInfo>> candidate : candidates.entrySet())
+        {
+            c.candidates.put(candidate.getKey(), Collections.unmodifiableList(new ArrayList<CandidateInfo>(candidate.getValue())));
+        }
+        if(LOG.isDebugEnabled())
+        {
+            LOG.debug("Preloaded " + aliases.size() + " aliases and " + candidates.size() + " candidate lists for " + delegateClass);
+        }
+    }
+
+    public String toString()
+    {
+        return "CachingAliasingStrategy{delegate=" + caches.delegateClass + ", aliases=" + caches.aliases + ", candidates=" + caches.candidates + "}";
+    }
+
+    private static final class Caches
+    {
+        private final String delegateClass;
+        private final BoundedCache<String, String> aliases;
+        private final BoundedCache<String, List<CandidateInfo>> candidates;
+        private volatile AliasingStrategyFactory delegateFactory;
+
+        private Caches(String delegateClass, int maxSize, long ttlMillis)
+        {
+            this.delegateClass = delegateClass;
+            aliases = new BoundedCache<String, String>(maxSize, ttlMillis);
+            candidates = new BoundedCache<String, List<CandidateInfo>>(maxSize, ttlMillis);
+        }
+
+        /**
+         * Look up the delegate class the first time a delegate is needed, so that caches can be preloaded for a
+         * class that is not available.
+         */
+        private AliasingStrategyFactory _getDelegateFactory()
+        {
+            AliasingStrategyFactory f = delegateFactory;
+            if(f == null)
+            {
+                f = AliasingStrategyFactory.getInstance(delegateClass);
+                delegateFactory = f;
+            }
+            return f;
+        }
+    }
+}
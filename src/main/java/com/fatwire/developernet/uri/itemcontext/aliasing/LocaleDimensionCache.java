@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Interfaces.IList;
+import COM.FutureTense.Util.IterableIListWrapper;
+import COM.FutureTense.Util.ftErrors;
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.cache.CacheStatistics;
+import com.fatwire.developernet.uri.cache.SharedCacheHolder;
+import com.fatwire.mda.Dimension;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.fatwire.developernet.IListUtils.getLongValue;
+import static com.fatwire.developernet.facade.mda.DimensionUtils.getLocaleAsDimension;
+
+/**
+ * JVM-wide cache of the locale of assets, shared by the aliasing strategies.  Finding the candidates for an alias
+ * requires the locale of each candidate, and common aliases match many assets, so looking up each locale in the
+ * database every time is expensive.
+ */
+public final class LocaleDimensionCache
+{
+    /**
+     * Property name defining the maximum number of assets whose locale is cached.
+     *
+     * @see #PROPERTY_MAX_SIZE_DEFAULT
+     */
+    public static final String PROPERTY_MAX_SIZE = "com.fatwire.developernet.uri.itemcontext.aliasing.locale-cache.max-size";
+    /**
+     * Default value of the {@link #PROPERTY_MAX_SIZE} property.
+     */
+    public static final String PROPERTY_MAX_SIZE_DEFAULT = "10000";
+    /**
+     * Property name defining the number of seconds after which cached locales expire.  0 means never.
+     *
+     * @see #PROPERTY_TTL_SECONDS_DEFAULT
+     */
+    public static final String PROPERTY_TTL_SECONDS = "com.fatwire.developernet.uri.itemcontext.aliasing.locale-cache.ttl-seconds";
+    /**
+     * Default value of the {@link #PROPERTY_TTL_SECONDS} property.
+     */
+    public static final String PROPERTY_TTL_SECONDS_DEFAULT = "600";
+
+    /**
+     * Maximum number of ids in a single <code>IN</code> clause.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final Log LOG = LogFactory.getLog(LocaleDimensionCache.class.getName());
+
+    /**
+     * Cached value standing for an asset without a locale.
+     */
+    private static final Object NO_LOCALE = new Object();
+
+    private static final SharedCacheHolder<LocaleDimensionCache> INSTANCE = new SharedCacheHolder<LocaleDimensionCache>(PROPERTY_MAX_SIZE, PROPERTY_MAX_SIZE_DEFAULT, PROPERTY_TTL_SECONDS, PROPERTY_TTL_SECONDS_DEFAULT)
+    {
+        protected LocaleDimensionCache create(ICS ics, int maxSize, long ttlMillis)
+        {
+            return new LocaleDimensionCache(maxSize, ttlMillis);
+        }
+    };
+
+    private final BoundedCache<String, Object> locales;
+
+    /**
+     * Locale dimensions by id.  There are only a few of them, so they are not bounded.
+     */
+    private final ConcurrentMap<Long, Dimension> dimensions = new ConcurrentHashMap<Long, Dimension>();
+
+    private LocaleDimensionCache(int maxSize, long ttlMillis)
+    {
+        locales = new BoundedCache<String, Object>(maxSize, ttlMillis);
+    }
+
+    /**
+     * Get the cache, creating it if this has not been done yet.
+     *
+     * @param ics context, used to read the configuration if the cache needs to be created
+     * @return the cache
+     */
+    public static LocaleDimensionCache getInstance(ICS ics)
+    {
+        return INSTANCE.get(ics);
+    }
+
+    /**
+     * Forget all locales.  Should be called when the locale of assets has been changed.
+     */
+    public static void clear()
+    {
+        LocaleDimensionCache cache = INSTANCE.peek();
+        if(cache != null)
+        {
+            cache.locales.clear();
+            cache.dimensions.clear();
+            LOG.info("LocaleDimensionCache cleared");
+        }
+    }
+
+    /**
+     * Forget the locale of some assets.
+     *
+     * @param ids assets whose locale may have changed
+     */
+    public static void invalidate(Collection<AssetId> ids)
+    {
+        LocaleDimensionCache cache = INSTANCE.peek();
+        if(cache != null)
+        {
+            for(AssetId id : ids)
+            {
+                cache.locales.remove(_key(id));
+            }
+        }
+    }
+
+    private static String _key(AssetId id)
+    {
+        return id.getType() + '/' + id.getId();
+    }
+
+    /**
+     * Get the locale of an asset.
+     *
+     * @param ics context, used if the locale is not cached
+     * @param id asset id
+     * @return locale, or null if the asset does not have one
+     */
+    public Dimension getLocale(ICS ics, AssetId id)
+    {
+        String key = _key(id);
+        Object dim = locales.get(key);
+        if(dim == null)
+        {
+            dim = getLocaleAsDimension(ics, id);
+            locales.put(key, dim == null ? NO_LOCALE : dim);
+        }
+        return dim == NO_LOCALE ? null : (Dimension)dim;
+    }
+
+    /**
+     * Get the locales of several assets.  The cache is consulted for all of them first, and the locales of the assets
+     * missing from the cache are then read from the <code>&lt;type&gt;_Dim</code> tables, with one query per asset
+     * type.  Only the first asset found in each locale is looked up with <code>getLocaleAsDimension</code>, as are
+     * the assets whose table cannot be queried.
+     *
+     * @param ics context, used for the locales that are not cached
+     * @param ids asset ids
+     * @return locale of each asset, null for assets without a locale
+     */
+    public Map<AssetId, Dimension> getLocales(ICS ics, Collection<AssetId> ids)
+    {
+        Map<AssetId, Dimension> result = new HashMap<AssetId, Dimension>(ids.size() * 2);
+        Map<String, List<AssetId>> missingByType = new HashMap<String, List<AssetId>>();
+        int numMissing = 0;
+        for(AssetId id : ids)
+        {
+            Object dim = locales.get(_key(id));
+            if(dim != null)
+            {
+                result.put(id, dim == NO_LOCALE ? null : (Dimension)dim);
+            }
+            else
+            {
+                List<AssetId> missing = missingByType.get(id.getType());
+                if(missing == null)
+                {
+                    missing = new ArrayList<AssetId>();
+                    missingByType.put(id.getType(), missing);
+                }
+                if(!missing.contains(id))
+                {
+                    missing.add(id);
+                    numMissing++;
+                }
+            }
+        }
+        if(LOG.isTraceEnabled() && numMissing > 0)
+        {
+            LOG.trace("LocaleDimensionCache.getLocales: " + (ids.size() - numMissing) + " cached, looking up " + missingByType.values());
+        }
+        for(Map.Entry<String, List<AssetId>> missing : missingByType.entrySet())
+        {
+            List<AssetId> batch = missing.getValue();
+            for(int from = 0; from < batch.size(); from += BATCH_SIZE)
+            {
+                _load(ics, missing.getKey(), batch.subList(from, Math.min(from + BATCH_SIZE, batch.size())), result);
+            }
+        }
+        return result;
+    }
+
+    private void _load(ICS ics, String type, List<AssetId> ids, Map<AssetId, Dimension> result)
+    {
+        Map<Long, Long> found = _queryLocaleIds(ics, type, ids);
+        for(AssetId id : ids)
+        {
+            Dimension dim;
+            if(found == null)
+            {
+                dim = getLocaleAsDimension(ics, id);
+            }
+            else
+            {
+                Long locale = found.get(id.getId());
+                dim = locale == null ? null : _getDimension(ics, locale, id);
+            }
+            locales.put(_key(id), dim == null ? NO_LOCALE : dim);
+            result.put(id, dim);
+        }
+    }
+
+    /**
+     * @return id of the locale of each asset that has one, or null if the table could not be queried
+     */
+    private static Map<Long, Long> _queryLocaleIds(ICS ics, String type, List<AssetId> ids)
+    {
+        if(!type.matches("[A-Za-z0-9_]+"))
+        {
+            return null;
+        }
+        StringBuilder sql = new StringBuilder("SELECT cs_ownerid, cs_assetid FROM ").append(type).append("_Dim WHERE cs_ownerid IN (");
+        for(int i = 0; i < ids.size(); i++)
+        {
+            if(i > 0)
+            {
+                sql.append(',');
+            }
+            sql.append(ids.get(i).getId());
+        }
+        sql.append(')');
+
+        StringBuffer errstr = new StringBuffer();
+        IList list = ics.SQL(type + "_Dim", sql.toString(), null, -1, false, errstr);
+        if(ics.GetErrno() < 0 && ics.GetErrno() != ftErrors.norows)
+        {
+            LOG.warn("LocaleDimensionCache._queryLocaleIds: could not read the locales of " + type + " assets, looking them up one by one: " + errstr);
+            return null;
+        }
+        Map<Long, Long> found = new HashMap<Long, Long>(ids.size() * 2);
+        if(list != null && list.hasData())
+        {
+            for(IList row : new IterableIListWrapper(list))
+            {
+                found.put(getLongValue(row, "cs_ownerid"), getLongValue(row, "cs_assetid"));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get a locale by id, looking it up through an asset in that locale the first time.
+     */
+    private Dimension _getDimension(ICS ics, Long locale, AssetId id)
+    {
+        Dimension dim = dimensions.get(locale);
+        if(dim == null)
+        {
+            dim = getLocaleAsDimension(ics, id);
+            if(dim == null || dim.getId() == null || dim.getId().getId() != locale)
+            {
+                // not the locale recorded in the table: trust the lookup for this asset only
+                return dim;
+            }
+            dimensions.put(locale, dim);
+        }
+        return dim;
+    }
+
+    /**
+     * @return usage of the cache
+     */
+    public CacheStatistics getStatistics()
+    {
+        return locales;
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.mda.Dimension;
+import com.openmarket.xcelerate.asset.AssetIdImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Read-only hash index of asset aliases, held in a memory-mapped file rather than on the Java heap.  Each asset
+ * is a fixed-size record holding its id, type, locale and the position of its alias.  Two open-addressing hash
+ * tables of record numbers find the records by type and alias, and by type and id.  Aliases are compared as UTF-8
+ * bytes in the file, so a lookup only allocates the records it returns.</p>
+ * <p/>
+ * <p>Locales are numbered in the index; each locale is stored with the id of its dimension and the id of one asset
+ * in that locale, so that the <code>Dimension</code> can be looked up again.</p>
+ * <p/>
+ * <p>Indexes are written by a {@link Builder}.  A single index file is limited to 2 GB.</p>
+ */
+public final class MappedAliasIndex
+{
+    private static final int MAGIC = 0x43534149;
+
+    /**
+     * Version of the format, to be incremented whenever it changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * Id (8 bytes), type (4), locale (4), offset of the alias (4) and length of the alias (4, -1 for none).
+     */
+    private static final int RECORD_SIZE = 24;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final Map<String, Integer> typeIndexes;
+    private final String[] types;
+    private final long[] localeDimensionIds;
+    private final AssetId[] localeAssets;
+    private final int numRecords;
+    private final int aliasSlots;
+    private final int idSlots;
+    private final int recordsOffset;
+    private final int aliasTableOffset;
+    private final int idTableOffset;
+    private final int bytesOffset;
+
+    private MappedAliasIndex(File file, ByteBuffer buffer) throws IOException
+    {
+        this.file = file;
+        this.buffer = buffer;
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException(file + " is not an alias index");
+        }
+        if(buffer.getInt(4) != FORMAT_VERSION)
+        {
+            throw new IOException(file + " has format version " + buffer.getInt(4) + " instead of " + FORMAT_VERSION);
+        }
+        int numTypes = buffer.getInt(8);
+        int numLocales = buffer.getInt(12);
+        numRecords = buffer.getInt(16);
+        aliasSlots = buffer.getInt(20);
+        idSlots = buffer.getInt(24);
+        int bytesLength = buffer.getInt(28);
+
+        int offset = HEADER_SIZE;
+        types = new String[numTypes];
+        typeIndexes = new HashMap<String, Integer>(numTypes * 2);
+        for(int i = 0; i < numTypes; i++)
+        {
+            int length = buffer.getInt(offset);
+            types[i] = _readString(offset + 4, length);
+            typeIndexes.put(types[i], i);
+            offset += 4 + length;
+        }
+        localeDimensionIds = new long[numLocales];
+        localeAssets = new AssetId[numLocales];
+        for(int i = 0; i < numLocales; i++)
+        {
+            localeDimensionIds[i] = buffer.getLong(offset);
+            localeAssets[i] = new AssetIdImpl(types[buffer.getInt(offset + 8)], buffer.getLong(offset + 12));
+            offset += 20;
+        }
+        recordsOffset = offset;
+        aliasTableOffset = recordsOffset + numRecords * RECORD_SIZE;
+        idTableOffset = aliasTableOffset + aliasSlots * 4;
+        bytesOffset = idTableOffset + idSlots * 4;
+        if((long)bytesOffset + bytesLength != buffer.capacity())
+        {
+            throw new IOException(file + " is truncated or corrupt");
+        }
+    }
+
+    /**
+     * Map an index file into memory.
+     *
+     * @param file index file
+     * @return the index
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static MappedAliasIndex open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " is too large to be an alias index");
+            }
+            return new MappedAliasIndex(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally
+        {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    private static int _aliasHash(int type, byte[] alias)
+    {
+        int h = type * 0x9E3779B9;
+        for(byte b : alias)
+        {
+            h = (h ^ (b & 0xff)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int _idHash(int type, long id)
+    {
+        long h = (id + type) * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private static byte[] _bytes(String s)
+    {
+        try
+        {
+            return s.getBytes("UTF-8");
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String _readString(int offset, int length)
+    {
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++)
+        {
+            bytes[i] = buffer.get(offset + i);
+        }
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int _record(int n)
+    {
+        return recordsOffset + n * RECORD_SIZE;
+    }
+
+    /**
+     * @return the file the index was read from
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return number of assets in the index
+     */
+    public int size()
+    {
+        return numRecords;
+    }
+
+    /**
+     * @param type asset type
+     * @return true if assets of that type were indexed
+     */
+    public boolean containsType(String type)
+    {
+        return typeIndexes.containsKey(type);
+    }
+
+    /**
+     * Find the record of an asset.
+     *
+     * @param type asset type
+     * @param id asset id
+     * @return record number, or -1 if the asset is not in the index
+     */
+    public int findRecord(String type, long id)
+    {
+        Integer t = typeIndexes.get(type);
+        if(t == null)
+        {
+            return -1;
+        }
+        int mask = idSlots - 1;
+        for(int i = _idHash(t, id) & mask; ; i = (i + 1) & mask)
+        {
+            int slot = buffer.getInt(idTableOffset + i * 4);
+            if(slot == 0)
+            {
+                return -1;
+            }
+            int record = _record(slot - 1);
+            if(buffer.getLong(record) == id && buffer.getInt(record + 8) == t)
+            {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     * Find the records of the assets of a type that have an alias.
+     *
+     * @param type asset type
+     * @param alias alias
+     * @return record numbers, empty if there are none
+     */
+    public int[] findRecords(String type, String alias)
+    {
+        Integer t = typeIndexes.get(type);
+        if(t == null)
+        {
+            return new int[0];
+        }
+        byte[] bytes = _bytes(alias);
+        int[] found = new int[0];
+        int mask = aliasSlots - 1;
+        for(int i = _aliasHash(t, bytes) & mask; ; i = (i + 1) & mask)
+        {
+            int slot = buffer.getInt(aliasTableOffset + i * 4);
+            if(slot == 0)
+            {
+                return found;
+            }
+            if(_matches(_record(slot - 1), t, bytes))
+            {
+                int[] more = new int[found.length + 1];
+                System.arraycopy(found, 0, more, 0, found.length);
+                more[found.length] = slot - 1;
+                found = more;
+            }
+        }
+    }
+
+    private boolean _matches(int record, int type, byte[] alias)
+    {
+        if(buffer.getInt(record + 8) != type || buffer.getInt(record + 20) != alias.length)
+        {
+            return false;
+        }
+        int offset = bytesOffset + buffer.getInt(record + 16);
+        for(int i = 0; i < alias.length; i++)
+        {
+            if(buffer.get(offset + i) != alias[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param record record number
+     * @return id of the asset
+     */
+    public long getId(int record)
+    {
+        return buffer.getLong(_record(record));
+    }
+
+    /**
+     * @param record record number
+     * @return locale number of the asset, or -1 if it has no locale
+     */
+    public int getLocale(int record)
+    {
+        return buffer.getInt(_record(record) + 12);
+    }
+
+    /**
+     * @param record record number
+     * @return alias of the asset, or null if it has none
+     */
+    public String getAlias(int record)
+    {
+        int r = _record(record);
+        int length = buffer.getInt(r + 20);
+        return length == -1 ? null : _readString(bytesOffset + buffer.getInt(r + 16), length);
+    }
+
+    /**
+     * @return number of locales in the index
+     */
+    public int getLocaleCount()
+    {
+        return localeDimensionIds.length;
+    }
+
+    /**
+     * @param locale locale number
+     * @return id of the dimension of the locale
+     */
+    public long getLocaleDimensionId(int locale)
+    {
+        return localeDimensionIds[locale];
+    }
+
+    /**
+     * @param locale locale number
+     * @return an asset in that locale
+     */
+    public AssetId getLocaleAsset(int locale)
+    {
+        return localeAssets[locale];
+    }
+
+    public String toString()
+    {
+        return "MappedAliasIndex{file=" + file + ", assets=" + numRecords + ", types=" + typeIndexes.keySet() + ", locales=" + localeDimensionIds.length + "}";
+    }
+
+    /**
+     * Collects assets and their aliases, then writes them to an index file.  Only the record data is held on the
+     * heap while building; the hash tables are written directly into the file.  This class is not thread-safe.
+     */
+    public static final class Builder
+    {
+        private final Map<String, Integer> typeIndexes = new HashMap<String, Integer>();
+        private final List<String> types = new ArrayList<String>();
+        private final Map<Long, Integer> localeIndexes = new HashMap<Long, Integer>();
+        private final List<Long> localeDimensionIds = new ArrayList<Long>();
+        private final List<AssetId> localeAssets = new ArrayList<AssetId>();
+        private long[] ids = new long[1024];
+        private int[] recordTypes = new int[1024];
+        private int[] recordLocales = new int[1024];
+        private int[] aliasOffsets = new int[1024];
+        private int[] aliasLengths = new int[1024];
+        private byte[] bytes = new byte[16384];
+        private int numRecords;
+        private int numBytes;
+
+        /**
+         * Add an asset.  Each asset must only be added once.
+         *
+         * @param id asset
+         * @param locale locale of the asset, or null
+         * @param alias alias of the asset, or null
+         */
+        public void add(AssetId id, Dimension locale, String alias)
+        {
+            Integer type = typeIndexes.get(id.getType());
+            if(type == null)
+            {
+                type = types.size();
+                typeIndexes.put(id.getType(), type);
+                types.add(id.getType());
+            }
+            int localeIndex = -1;
+            if(locale != null)
+            {
+                Integer l = localeIndexes.get(locale.getId().getId());
+                if(l == null)
+                {
+                    l = localeDimensionIds.size();
+                    localeIndexes.put(locale.getId().getId(), l);
+                    localeDimensionIds.add(locale.getId().getId());
+                    localeAssets.add(id);
+                }
+                localeIndex = l;
+            }
+            if(numRecords == ids.length)
+            {
+                ids = _grow(ids);
+                recordTypes = _grow(recordTypes);
+                recordLocales = _grow(recordLocales);
+                aliasOffsets = _grow(aliasOffsets);
+                aliasLengths = _grow(aliasLengths);
+            }
+            ids[numRecords] = id.getId();
+            recordTypes[numRecords] = type;
+            recordLocales[numRecords] = localeIndex;
+            if(alias == null)
+            {
+                aliasLengths[numRecords] = -1;
+            }
+            else
+            {
+                byte[] b = _bytes(alias);
+                while(numBytes + b.length > bytes.length)
+                {
+                    byte[] larger = new byte[bytes.length * 2];
+                    System.arraycopy(bytes, 0, larger, 0, numBytes);
+                    bytes = larger;
+                }
+                System.arraycopy(b, 0, bytes, numBytes, b.length);
+                aliasOffsets[numRecords] = numBytes;
+                aliasLengths[numRecords] = b.length;
+                numBytes += b.length;
+            }
+            numRecords++;
+        }
+
+        private static long[] _grow(long[] a)
+        {
+            long[] larger = new long[a.length * 2];
+            System.arraycopy(a, 0, larger, 0, a.length);
+            return larger;
+        }
+
+        private static int[] _grow(int[] a)
+        {
+            int[] larger = new int[a.length * 2];
+            System.arraycopy(a, 0, larger, 0, a.length);
+            return larger;
+        }
+
+        /**
+         * @return number of assets added so far
+         */
+        public int size()
+        {
+            return numRecords;
+        }
+
+        /**
+         * Write the index to a temporary file, then rename it to its final name, so that readers never see a
+         * partial index.
+         *
+         * @param file index file, replaced if it exists
+         * @return the index, mapped from the new file
+         * @throws IOException if the index cannot be written
+         */
+        public MappedAliasIndex write(File file) throws IOException
+        {
+            int slots = 4;
+            while(slots < numRecords * 2)
+            {
+                slots <<= 1;
+            }
+            long size = HEADER_SIZE;
+            List<byte[]> typeBytes = new ArrayList<byte[]>(types.size());
+            for(String type : types)
+            {
+                byte[] b = _bytes(type);
+                typeBytes.add(b);
+                size += 4 + b.length;
+            }
+            size += localeDimensionIds.size() * 20L + (long)numRecords * RECORD_SIZE + slots * 8L + numBytes;
+            if(size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Alias index of " + numRecords + " assets would be " + size + " bytes, more than 2 GB");
+            }
+
+            File tmp = new File(file.getPath() + ".tmp");
+            tmp.delete();
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            try
+            {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(types.size()).putInt(localeDimensionIds.size());
+                out.putInt(numRecords).putInt(slots).putInt(slots).putInt(numBytes);
+                for(byte[] b : typeBytes)
+                {
+                    out.putInt(b.length).put(b);
+                }
+                for(int i = 0; i < localeDimensionIds.size(); i++)
+                {
+                    out.putLong(localeDimensionIds.get(i)).putInt(typeIndexes.get(localeAssets.get(i).getType())).putLong(localeAssets.get(i).getId());
+                }
+                for(int n = 0; n < numRecords; n++)
+                {
+                    out.putLong(ids[n]).putInt(recordTypes[n]).putInt(recordLocales[n]).putInt(aliasOffsets[n]).putInt(aliasLengths[n]);
+                }
+                int aliasTableOffset = out.position();
+                int idTableOffset = aliasTableOffset + slots * 4;
+                int mask = slots - 1;
+                byte[] alias = new byte[0];
+                for(int n = 0; n < numRecords; n++)
+                {
+                    if(aliasLengths[n] != -1)
+                    {
+                        if(alias.length != aliasLengths[n])
+                        {
+                            alias = new byte[aliasLengths[n]];
+                        }
+                        System.arraycopy(bytes, aliasOffsets[n], alias, 0, alias.length);
+                        int i = _aliasHash(recordTypes[n], alias) & mask;
+                        while(out.getInt(aliasTableOffset + i * 4) != 0)
+                        {
+                            i = (i + 1) & mask;
+                        }
+                        out.putInt(aliasTableOffset + i * 4, n + 1);
+                    }
+                    int i = _idHash(recordTypes[n], ids[n]) & mask;
+                    while(out.getInt(idTableOffset + i * 4) != 0)
+                    {
+                        i = (i + 1) & mask;
+                    }
+                    out.putInt(idTableOffset + i * 4, n + 1);
+                }
+                out.position(idTableOffset + slots * 4);
+                out.put(bytes, 0, numBytes);
+                out.force();
+            }
+            finally
+            {
+                raf.close();
+            }
+            if(!tmp.renameTo(file))
+            {
+                // some platforms cannot rename over an existing file
+                file.delete();
+                if(!tmp.renameTo(file))
+                {
+                    tmp.delete();
+                    throw new IOException("Could not rename " + tmp + " to " + file);
+                }
+            }
+            return open(file);
+        }
+    }
+}
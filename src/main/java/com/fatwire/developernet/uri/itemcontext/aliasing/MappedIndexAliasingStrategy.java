@@ -0,0 +1,691 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Interfaces.IList;
+import COM.FutureTense.Interfaces.Utilities;
+import COM.FutureTense.Util.IterableIListWrapper;
+import COM.FutureTense.Util.ftErrors;
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.CSRuntimeException;
+import com.fatwire.developernet.uri.cache.SharedConfigurationHolder;
+import com.fatwire.mda.Dimension;
+import com.openmarket.xcelerate.asset.AssetIdImpl;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.fatwire.developernet.IListUtils.getLongValue;
+import static com.fatwire.developernet.facade.mda.DimensionUtils.getLocaleAsDimension;
+
+/**
+ * Aliasing strategy that looks aliases up in a {@link MappedAliasIndex}, so that catalogues of millions of assets
+ * can be aliased without keeping their ids and aliases on the Java heap.  Candidates are only turned into
+ * {@link CandidateInfo} objects when they are returned.
+ * <p/>
+ * <p><strong>Configuration</strong></p>
+ * <p>The index file is set by {@link #PROPERTY_INDEX_FILE}, and built by {@link #rebuildIndex} for the asset types
+ * listed in {@link #PROPERTY_TYPES}, using the strategy set by {@link #PROPERTY_DELEGATE_CLASS} to compute the
+ * aliases.  The delegate is also used for the asset types that are not in the index, and when there is no index
+ * file yet.  The aliases of the delegate must not depend on the locale they are computed for, as is the case for
+ * {@link PathAliasingStrategy}, {@link NameAliasingStrategy} and {@link IdAliasingStrategy}: the index holds one
+ * alias per asset, along with the locale of the asset.</p>
+ * <p>Properties are configured in the {@link SharedConfigurationHolder#CONFIGURATION_FILE_NAME} file.</p>
+ * <p/>
+ * <p>The index is read-only.  Assets that change after it has been built must be passed to {@link #invalidate}, which
+ * {@link com.fatwire.developernet.uri.siteplan.CacheInvalidator} does.  Their aliases are then computed by the
+ * delegate right away, and kept on the heap, by alias, until the index is rebuilt.  Voided and deleted assets are no
+ * longer found.  When more than {@link #PROPERTY_MAX_CHANGED} assets have changed, the index is dropped and all
+ * aliases are computed by the delegate until it is rebuilt.</p>
+ */
+public final class MappedIndexAliasingStrategy implements BulkAssetAliasingStrategy
+{
+    /**
+     * Property name defining the path of the index file.  There is no default; without it, all aliases are computed
+     * by the delegate.
+     */
+    public static final String PROPERTY_INDEX_FILE = "com.fatwire.developernet.uri.itemcontext.aliasing.mapped-index.file";
+    /**
+     * Property name defining the comma-separated asset types to put in the index when it is rebuilt.
+     */
+    public static final String PROPERTY_TYPES = "com.fatwire.developernet.uri.itemcontext.aliasing.mapped-index.types";
+    /**
+     * Property name defining the class name of the aliasing strategy used to build the index, and for the assets
+     * that are not in it.
+     *
+     * @see #PROPERTY_DELEGATE_CLASS_DEFAULT
+     */
+    public static final String PROPERTY_DELEGATE_CLASS = "com.fatwire.developernet.uri.itemcontext.aliasing.mapped-index.delegate-class";
+    /**
+     * Default value of the {@link #PROPERTY_DELEGATE_CLASS} property.
+     */
+    public static final String PROPERTY_DELEGATE_CLASS_DEFAULT = PathAliasingStrategy.class.getName();
+    /**
+     * Property name defining the number of changed assets kept on the heap, beyond which the index is no longer used
+     * until it is rebuilt.
+     *
+     * @see #PROPERTY_MAX_CHANGED_DEFAULT
+     */
+    public static final String PROPERTY_MAX_CHANGED = "com.fatwire.developernet.uri.itemcontext.aliasing.mapped-index.max-changed";
+    /**
+     * Default value of the {@link #PROPERTY_MAX_CHANGED} property.
+     */
+    public static final String PROPERTY_MAX_CHANGED_DEFAULT = "10000";
+
+    /**
+     * Number of assets whose aliases are computed at once while building the index.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final Log LOG = LogFactory.getLog(MappedIndexAliasingStrategy.class.getName());
+
+    /**
+     * Index and changed assets, by index file path.
+     */
+    private static final ConcurrentMap<String, Holder> HOLDERS = new ConcurrentHashMap<String, Holder>();
+
+    /**
+     * Holders of the indexes being rebuilt, which also need to know about changed assets.
+     */
+    private static final ConcurrentMap<String, Holder> REBUILDING = new ConcurrentHashMap<String, Holder>();
+
+    /**
+     * Alias of a changed asset that has no alias, or that has been voided or deleted.
+     */
+    private static final Object NO_ALIAS = new Object();
+
+    /**
+     * Delegate class and index file, read once.
+     */
+    private static final SharedConfigurationHolder<Settings> SETTINGS = new SharedConfigurationHolder<Settings>()
+    {
+        protected Settings create(ICS ics)
+        {
+            String delegateClass = SharedConfigurationHolder.getProperty(ics, PROPERTY_DELEGATE_CLASS, PROPERTY_DELEGATE_CLASS_DEFAULT);
+            if(MappedIndexAliasingStrategy.class.getName().equals(delegateClass))
+            {
+                throw new CSRuntimeException("MappedIndexAliasingStrategy cannot delegate to itself.", ftErrors.badparams);
+            }
+            return new Settings(delegateClass, SharedConfigurationHolder.getProperty(ics, PROPERTY_INDEX_FILE, null));
+        }
+    };
+
+    private final ICS ics;
+    private final String delegateClass;
+    private final Holder holder;
+    private AssetAliasingStrategy delegate;
+
+    public MappedIndexAliasingStrategy(ICS ics)
+    {
+        this.ics = ics;
+        Settings settings = SETTINGS.get(ics);
+        delegateClass = settings.delegateClass;
+        holder = settings.indexFile == null ? null : _getHolder(settings.indexFile);
+    }
+
+    /**
+     * Map the index file the first time it is needed.
+     */
+    private static Holder _getHolder(String path)
+    {
+        Holder h = HOLDERS.get(path);
+        if(h == null)
+        {
+            File file = new File(path);
+            MappedAliasIndex index = null;
+            if(file.isFile())
+            {
+                try
+                {
+                    index = MappedAliasIndex.open(file);
+                    LOG.info("Opened " + index);
+                }
+                catch(IOException e)
+                {
+                    LOG.error("Could not open alias index " + file + ", computing aliases without it", e);
+                }
+            }
+            else
+            {
+                LOG.warn("Alias index " + file + " does not exist, computing aliases without it until it is rebuilt");
+            }
+            Holder newHolder = new Holder(index, null);
+            h = HOLDERS.putIfAbsent(path, newHolder);
+            if(h == null)
+            {
+                h = newHolder;
+            }
+        }
+        return h;
+    }
+
+    private AssetAliasingStrategy _getDelegate()
+    {
+        if(delegate == null)
+        {
+            delegate = AliasingStrategyFactory.getInstance(delegateClass).newInstance(ics);
+        }
+        return delegate;
+    }
+
+    private static String _key(String type, long id)
+    {
+        return type + '/' + id;
+    }
+
+    private static String _key(String type, String alias)
+    {
+        return type + '/' + alias;
+    }
+
+    /**
+     * @return the index, or null if the aliases of this type must be computed by the delegate
+     */
+    private MappedAliasIndex _getIndex(String type)
+    {
+        MappedAliasIndex index = holder == null ? null : holder.index;
+        return index != null && index.containsType(type) ? index : null;
+    }
+
+    public String computeAlias(AssetId id, String localeName)
+    {
+        MappedAliasIndex index = _getIndex(id.getType());
+        if(index != null)
+        {
+            String key = _key(id.getType(), id.getId());
+            Object alias = holder.changed.get(key);
+            if(alias != null)
+            {
+                return alias == NO_ALIAS ? null : (String)alias;
+            }
+            int record = index.findRecord(id.getType(), id.getId());
+            if(record != -1)
+            {
+                return index.getAlias(record);
+            }
+        }
+        return _getDelegate().computeAlias(id, localeName);
+    }
+
+    public List<String> computeAliases(List<AssetId> ids, String localeName)
+    {
+        List<String> result = new ArrayList<String>(ids.size());
+        for(AssetId id : ids)
+        {
+            result.add(computeAlias(id, localeName));
+        }
+        return result;
+    }
+
+    public List<CandidateInfo> findCandidatesForAlias(String type, String alias)
+    {
+        MappedAliasIndex index = _getIndex(type);
+        if(index == null)
+        {
+            return _getDelegate().findCandidatesForAlias(type, alias);
+        }
+        if(!Utilities.goodString(alias))
+        {
+            throw new CSRuntimeException("Invalid cpath specified in findCandidatesForAlias", ftErrors.badparams);
+        }
+        List<CandidateInfo> result = new ArrayList<CandidateInfo>();
+        for(int record : index.findRecords(type, alias))
+        {
+            long id = index.getId(record);
+            if(!holder.changed.containsKey(_key(type, id)))
+            {
+                int locale = index.getLocale(record);
+                AssetId assetId = new AssetIdImpl(type, id);
+                result.add(new CandidateInfo(assetId, locale == -1 ? null : _getLocale(index, locale, assetId)));
+            }
+        }
+        long[] changed = holder.byAlias.get(_key(type, alias));
+        if(changed != null)
+        {
+            List<AssetId> ids = new ArrayList<AssetId>(changed.length);
+            for(long id : changed)
+            {
+                ids.add(new AssetIdImpl(type, id));
+            }
+            Map<AssetId, Dimension> dims = LocaleDimensionCache.getInstance(ics).getLocales(ics, ids);
+            for(AssetId assetId : ids)
+            {
+                result.add(new CandidateInfo(assetId, dims.get(assetId)));
+            }
+        }
+        if(LOG.isTraceEnabled())
+        {
+            LOG.trace("MappedIndexAliasingStrategy.findCandidatesForAlias: found candidates for c:" + type + ", cpath:" + alias + ": " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the dimension of a locale of the index, looking it up the first time.
+     */
+    private Dimension _getLocale(MappedAliasIndex index, int locale, AssetId candidate)
+    {
+        AtomicReferenceArray<Object> locales = holder.locales;
+        Object dim = locales == null || locales.length() != index.getLocaleCount() ? null : locales.get(locale);
+        if(dim == null)
+        {
+            Dimension found = LocaleDimensionCache.getInstance(ics).getLocale(ics, index.getLocaleAsset(locale));
+            dim = found != null && found.getId().getId() == index.getLocaleDimensionId(locale) ? found : NO_ALIAS;
+            if(locales != null && locales.length() == index.getLocaleCount())
+            {
+                locales.compareAndSet(locale, null, dim);
+            }
+        }
+        // the asset standing for the locale has changed: look the locale of the candidate up
+        return dim == NO_ALIAS ? LocaleDimensionCache.getInstance(ics).getLocale(ics, candidate) : (Dimension)dim;
+    }
+
+    /**
+     * Record the current aliases of assets changed since the indexes were built, computing them with the delegate.
+     * The assets are then found through their new alias only, and not at all if they have been voided or deleted.
+     * If the aliases cannot be computed, or too many assets have changed, the index is dropped until it is rebuilt.
+     *
+     * @param ics context, used to compute the aliases
+     * @param ids changed assets
+     */
+    public static void invalidate(ICS ics, Collection<AssetId> ids)
+    {
+        List<Holder> holders = new ArrayList<Holder>(HOLDERS.values());
+        holders.addAll(REBUILDING.values());
+        Set<AssetId> indexed = new LinkedHashSet<AssetId>();
+        for(Holder h : holders)
+        {
+            for(AssetId id : ids)
+            {
+                if(h._containsType(id.getType()))
+                {
+                    indexed.add(id);
+                }
+            }
+        }
+        if(indexed.isEmpty())
+        {
+            return;
+        }
+
+        Map<AssetId, String> aliases;
+        try
+        {
+            aliases = _computeCurrentAliases(ics, new ArrayList<AssetId>(indexed));
+        }
+        catch(RuntimeException e)
+        {
+            LOG.error("Could not compute the aliases of changed assets " + indexed + ", no longer using the alias index until it is rebuilt", e);
+            for(Holder h : holders)
+            {
+                h._drop();
+            }
+            return;
+        }
+        int maxChanged = Integer.parseInt(SharedConfigurationHolder.getProperty(ics, PROPERTY_MAX_CHANGED, PROPERTY_MAX_CHANGED_DEFAULT));
+        for(Holder h : holders)
+        {
+            for(Map.Entry<AssetId, String> alias : aliases.entrySet())
+            {
+                if(h._containsType(alias.getKey().getType()))
+                {
+                    h._put(alias.getKey(), alias.getValue());
+                }
+            }
+            if(h.changed.size() > maxChanged)
+            {
+                LOG.warn("More than " + maxChanged + " assets have changed since " + h.index + " was built, no longer using it until it is rebuilt");
+                h._drop();
+            }
+        }
+    }
+
+    /**
+     * @return alias of each asset, null for assets without alias and for voided or deleted assets
+     */
+    private static Map<AssetId, String> _computeCurrentAliases(ICS ics, List<AssetId> ids)
+    {
+        AssetAliasingStrategy aliasing = AliasingStrategyFactory.getInstance(SETTINGS.get(ics).delegateClass).newInstance(ics);
+        Map<String, List<AssetId>> byType = new HashMap<String, List<AssetId>>();
+        for(AssetId id : ids)
+        {
+            List<AssetId> ofType = byType.get(id.getType());
+            if(ofType == null)
+            {
+                ofType = new ArrayList<AssetId>();
+                byType.put(id.getType(), ofType);
+            }
+            ofType.add(id);
+        }
+        Map<AssetId, String> result = new HashMap<AssetId, String>(ids.size() * 2);
+        for(Map.Entry<String, List<AssetId>> ofType : byType.entrySet())
+        {
+            List<AssetId> all = ofType.getValue();
+            for(int from = 0; from < all.size(); from += BATCH_SIZE)
+            {
+                List<AssetId> batch = all.subList(from, Math.min(from + BATCH_SIZE, all.size()));
+                List<AssetId> live = _findLiveAssets(ics, ofType.getKey(), batch);
+                List<String> aliases = _computeAliases(aliasing, live);
+                for(AssetId id : batch)
+                {
+                    result.put(id, null);
+                }
+                for(int i = 0; i < live.size(); i++)
+                {
+                    result.put(live.get(i), aliases.get(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the assets that exist and are not voided
+     */
+    private static List<AssetId> _findLiveAssets(ICS ics, String type, List<AssetId> ids)
+    {
+        if(!type.matches("[A-Za-z0-9_]+"))
+        {
+            throw new CSRuntimeException("Invalid asset type: " + type, ftErrors.badparams);
+        }
+        StringBuilder sql = new StringBuilder("SELECT id FROM ").append(type).append(" WHERE status != 'VO' AND id IN (");
+        for(int i = 0; i < ids.size(); i++)
+        {
+            if(i > 0)
+            {
+                sql.append(',');
+            }
+            sql.append(ids.get(i).getId());
+        }
+        sql.append(')');
+
+        StringBuffer errstr = new StringBuffer();
+        IList list = ics.SQL(type, sql.toString(), null, -1, false, errstr);
+        if(ics.GetErrno() < 0 && ics.GetErrno() != ftErrors.norows)
+        {
+            throw new CSRuntimeException("Failure reading the status of " + type + " assets " + ids + ": " + errstr, ics.GetErrno());
+        }
+        List<AssetId> live = new ArrayList<AssetId>(ids.size());
+        if(list != null && list.hasData())
+        {
+            for(IList row : new IterableIListWrapper(list))
+            {
+                live.add(new AssetIdImpl(type, getLongValue(row, "id")));
+            }
+        }
+        return live;
+    }
+
+    private static List<String> _computeAliases(AssetAliasingStrategy aliasing, List<AssetId> ids)
+    {
+        if(ids.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        if(aliasing instanceof BulkAssetAliasingStrategy)
+        {
+            return ((BulkAssetAliasingStrategy)aliasing).computeAliases(ids, null);
+        }
+        List<String> aliases = new ArrayList<String>(ids.size());
+        for(AssetId id : ids)
+        {
+            aliases.add(aliasing.computeAlias(id, null));
+        }
+        return aliases;
+    }
+
+    /**
+     * Build the index file from all the assets of the configured types, and replace the index in use.  This reads
+     * every asset, so it should be run when the site is quiet.
+     *
+     * @param ics context
+     * @return the new index
+     * @throws IOException if the index cannot be written
+     */
+    public static MappedAliasIndex rebuildIndex(ICS ics) throws IOException
+    {
+        String path = SETTINGS.get(ics).indexFile;
+        String types = SharedConfigurationHolder.getProperty(ics, PROPERTY_TYPES, null);
+        if(path == null || types == null)
+        {
+            throw new CSRuntimeException("Both " + PROPERTY_INDEX_FILE + " and " + PROPERTY_TYPES + " must be set to build the alias index.", ftErrors.badparams);
+        }
+        long start = System.currentTimeMillis();
+        AssetAliasingStrategy aliasing = AliasingStrategyFactory.getInstance(SETTINGS.get(ics).delegateClass).newInstance(ics);
+
+        // assets changed while building are recorded in the new holder too
+        Set<String> typeSet = new HashSet<String>();
+        for(String type : types.split(","))
+        {
+            if(type.trim().length() > 0)
+            {
+                typeSet.add(type.trim());
+            }
+        }
+        Holder rebuilt = new Holder(null, typeSet);
+        REBUILDING.put(path, rebuilt);
+        try
+        {
+            MappedAliasIndex.Builder builder = new MappedAliasIndex.Builder();
+            for(String type : typeSet)
+            {
+                _addAssets(ics, aliasing, type, builder);
+            }
+            MappedAliasIndex index = builder.write(new File(path));
+            rebuilt._install(index);
+            HOLDERS.put(path, rebuilt);
+            LOG.info("Rebuilt " + index + " in " + (System.currentTimeMillis() - start) + "ms");
+            return index;
+        }
+        finally
+        {
+            REBUILDING.remove(path);
+        }
+    }
+
+    private static void _addAssets(ICS ics, AssetAliasingStrategy aliasing, String type, MappedAliasIndex.Builder builder)
+    {
+        if(!type.matches("[A-Za-z0-9_]+"))
+        {
+            throw new CSRuntimeException("Invalid asset type: " + type, ftErrors.badparams);
+        }
+        StringBuffer errstr = new StringBuffer();
+        IList list = ics.SQL(type, "SELECT id FROM " + type + " WHERE status != 'VO' ORDER BY id", null, -1, false, errstr);
+        if(ics.GetErrno() < 0 && ics.GetErrno() != ftErrors.norows)
+        {
+            throw new CSRuntimeException("Failure listing the " + type + " assets: " + errstr, ics.GetErrno());
+        }
+        if(list == null || !list.hasData())
+        {
+            return;
+        }
+        List<AssetId> batch = new ArrayList<AssetId>(BATCH_SIZE);
+        for(IList row : new IterableIListWrapper(list))
+        {
+            batch.add(new AssetIdImpl(type, getLongValue(row, "id")));
+            if(batch.size() == BATCH_SIZE)
+            {
+                _addBatch(ics, aliasing, batch, builder);
+                batch.clear();
+            }
+        }
+        _addBatch(ics, aliasing, batch, builder);
+    }
+
+    private static void _addBatch(ICS ics, AssetAliasingStrategy aliasing, List<AssetId> batch, MappedAliasIndex.Builder builder)
+    {
+        if(batch.isEmpty())
+        {
+            return;
+        }
+        List<String> aliases = _computeAliases(aliasing, batch);
+        for(int i = 0; i < batch.size(); i++)
+        {
+            // not through the LocaleDimensionCache, which would fill the heap with all the assets
+            builder.add(batch.get(i), getLocaleAsDimension(ics, batch.get(i)), aliases.get(i));
+        }
+    }
+
+    public String toString()
+    {
+        return "MappedIndexAliasingStrategy{delegate=" + delegateClass + ", index=" + (holder == null ? null : holder.index) + ", changed=" + (holder == null ? 0 : holder.changed.size()) + "}";
+    }
+
+    private static final class Holder
+    {
+        private volatile MappedAliasIndex index;
+
+        /**
+         * Dimension, or {@link #NO_ALIAS} if it cannot be found, of each locale of the index.
+         */
+        private volatile AtomicReferenceArray<Object> locales;
+
+        /**
+         * Asset types of the index being built, null once it is installed.
+         */
+        private volatile Set<String> types;
+
+        /**
+         * Set when the index must no longer be used.
+         */
+        private boolean dropped;
+
+        /**
+         * Current alias, or {@link #NO_ALIAS}, of the assets changed since the index was built, by type and id.
+         * Only modified while holding the lock of the holder.
+         */
+        private final ConcurrentMap<String, Object> changed = new ConcurrentHashMap<String, Object>();
+
+        /**
+         * Ids of the changed assets, by type and current alias.  The arrays are replaced, never modified.
+         */
+        private final ConcurrentMap<String, long[]> byAlias = new ConcurrentHashMap<String, long[]>();
+
+        private Holder(MappedAliasIndex index, Set<String> types)
+        {
+            this.types = types;
+            if(index != null)
+            {
+                _install(index);
+            }
+        }
+
+        private synchronized void _install(MappedAliasIndex index)
+        {
+            if(dropped)
+            {
+                LOG.warn("Too many assets changed while " + index + " was built, not using it");
+                return;
+            }
+            locales = new AtomicReferenceArray<Object>(index.getLocaleCount());
+            this.index = index;
+            types = null;
+        }
+
+        private boolean _containsType(String type)
+        {
+            MappedAliasIndex i = index;
+            Set<String> t = types;
+            return i != null ? i.containsType(type) : t != null && t.contains(type);
+        }
+
+        private synchronized void _put(AssetId id, String alias)
+        {
+            Object old = changed.put(_key(id.getType(), id.getId()), alias == null ? NO_ALIAS : alias);
+            if(old instanceof String)
+            {
+                _removeId(_key(id.getType(), (String)old), id.getId());
+            }
+            if(alias != null)
+            {
+                _addId(_key(id.getType(), alias), id.getId());
+            }
+        }
+
+        private void _addId(String key, long id)
+        {
+            long[] ids = byAlias.get(key);
+            if(ids == null)
+            {
+                byAlias.put(key, new long[]{id});
+                return;
+            }
+            for(long i : ids)
+            {
+                if(i == id)
+                {
+                    return;
+                }
+            }
+            long[] more = new long[ids.length + 1];
+            System.arraycopy(ids, 0, more, 0, ids.length);
+            more[ids.length] = id;
+            byAlias.put(key, more);
+        }
+
+        private void _removeId(String key, long id)
+        {
+            long[] ids = byAlias.get(key);
+            if(ids == null)
+            {
+                return;
+            }
+            long[] fewer = new long[ids.length];
+            int n = 0;
+            for(long i : ids)
+            {
+                if(i != id)
+                {
+                    fewer[n++] = i;
+                }
+            }
+            if(n == 0)
+            {
+                byAlias.remove(key);
+            }
+            else if(n < ids.length)
+            {
+                long[] copy = new long[n];
+                System.arraycopy(fewer, 0, copy, 0, n);
+                byAlias.put(key, copy);
+            }
+        }
+
+        /**
+         * Stop using the index, and forget the changed assets.
+         */
+        private synchronized void _drop()
+        {
+            dropped = true;
+            index = null;
+            types = null;
+            changed.clear();
+            byAlias.clear();
+        }
+    }
+
+    private static final class Settings
+    {
+        private final String delegateClass;
+        private final String indexFile;
+
+        Settings(String delegateClass, String indexFile)
+        {
+            this.delegateClass = delegateClass;
+            this.indexFile = indexFile;
+        }
+    }
+}
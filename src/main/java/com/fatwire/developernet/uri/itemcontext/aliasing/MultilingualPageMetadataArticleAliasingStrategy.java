@@ -9,13 +9,11 @@
 package com.fatwire.developernet.uri.itemcontext.aliasing;
 
 import COM.FutureTense.Interfaces.ICS;
-import COM.FutureTense.Interfaces.Utilities;
 import COM.FutureTense.Util.ftErrors;
 import com.fatwire.assetapi.common.AssetAccessException;
 import com.fatwire.assetapi.data.*;
 import com.fatwire.developernet.CSRuntimeException;
-import com.fatwire.developernet.facade.mda.DimensionUtils;
-import static com.fatwire.developernet.facade.runtag.example.asset.AssetRelationTreeUtils.getAssetRelationTreeParents;
+import com.fatwire.developernet.uri.cache.SharedConfigurationHolder;
 import com.fatwire.mda.Dimension;
 import com.fatwire.mda.DimensionableAssetManager;
 import com.fatwire.system.SessionFactory;
@@ -38,6 +36,7 @@ import java.util.*;
  * and {@link #PROPERTY_PAGE_ARTICLE_ASSET_TYPE} contains the asset type that should be retrieved from the
  * association.</p>
  * <p>Properties are configured in the {@link #CONFIGURATION_FILE_NAME} file.</p>
+ * <p>Translations are looked up through the JVM-wide {@link TranslationGraph}.</p>
  *
  * @author Tony Field
  * @since Jun 1, 2009
@@ -75,6 +74,17 @@ public class MultilingualPageMetadataArticleAliasingStrategy implements AssetAli
      */
     public static final String PROPERTY_PAGE_ARTICLE_ASSET_TYPE_DEFAULT = "Article";
 
+    /**
+     * Configuration, read once.
+     */
+    private static final SharedConfigurationHolder<Settings> SETTINGS = new SharedConfigurationHolder<Settings>()
+    {
+        protected Settings create(ICS ics)
+        {
+            return new Settings(getProperty(ics, PROPERTY_PAGE_ARTICLE_ASSOCIATION_NAME, PROPERTY_PAGE_ARTICLE_ASSOCIATION_NAME_DEFAULT), getProperty(ics, PROPERTY_PAGE_ARTICLE_ASSET_TYPE, PROPERTY_PAGE_ARTICLE_ASSET_TYPE_DEFAULT));
+        }
+    };
+
     private final ICS ics;
     private final String associationNameForPage;
     private final PathAliasingStrategy pathTranslationStrategy;
@@ -86,23 +96,23 @@ public class MultilingualPageMetadataArticleAliasingStrategy implements AssetAli
     {
         this.ics = ics;
         pathTranslationStrategy = new PathAliasingStrategy(ics);
-        associationNameForPage = _getProperty(PROPERTY_PAGE_ARTICLE_ASSOCIATION_NAME, PROPERTY_PAGE_ARTICLE_ASSOCIATION_NAME_DEFAULT);
-        articleAssetType = _getProperty(PROPERTY_PAGE_ARTICLE_ASSET_TYPE, PROPERTY_PAGE_ARTICLE_ASSET_TYPE_DEFAULT);
+        Settings settings = SETTINGS.get(ics);
+        associationNameForPage = settings.associationNameForPage;
+        articleAssetType = settings.articleAssetType;
         adm = (AssetDataManager)SessionFactory.getSession(ics).getManager(AssetDataManager.class.getName());
         dam = (DimensionableAssetManager)SessionFactory.getSession(ics).getManager(DimensionableAssetManager.class.getName());
     }
 
-    private String _getProperty(String name, String dephault)
+
+    /**
+     * @param ics context, used to read the configuration the first time
+     * @return the configured type of the articles holding the aliases of pages
+     */
+    public static String getArticleAssetType(ICS ics)
     {
-        String s = ics.GetProperty(name, CONFIGURATION_FILE_NAME, true);
-        if(!Utilities.goodString(s))
-        {
-            s = System.getProperty(name, dephault);
-        }
-        return s;
+        return SETTINGS.get(ics).articleAssetType;
     }
 
-
     public String computeAlias(AssetId id, final String localeName)
     {
         if(LOG.isTraceEnabled())
@@ -132,14 +142,14 @@ public class MultilingualPageMetadataArticleAliasingStrategy implements AssetAli
                         {
                             LOG.trace("MultilingualPageMetadataArticleAliasingStrategy.computeAlias: Found one asset (" + article + ") associated to page " + id + " using association named " + associationNameForPage);
                         }
-                        Dimension dim = DimensionUtils.getLocaleAsDimension(ics, article);
+                        Dimension dim = LocaleDimensionCache.getInstance(ics).getLocale(ics, article);
                         if(dim.getName().equals(localeName))
                         {
                             translated = article;
                         }
                         else
                         {
-                            translated = dam.getRelative(assoc.get(0), localeName);
+                            translated = TranslationGraph.getInstance(ics).getTranslation(dam, article, localeName);
                         }
                         if(translated == null)
                         {
@@ -201,11 +211,37 @@ public class MultilingualPageMetadataArticleAliasingStrategy implements AssetAli
                 }
             }
 
+            // look up all the articles in ART with specified assoc name at once
+            AssetRelationTreeParents art = AssetRelationTreeParents.getInstance(ics);
+            List<AssetId> articleIds = new ArrayList<AssetId>(matchingArticles.size());
+            for(CandidateInfo article : matchingArticles)
+            {
+                articleIds.add(article.getId());
+            }
+            Map<AssetId, List<AssetId>> parents = art.getParents(ics, articleIds, "Page", associationNameForPage);
+
+            // then all the translations of the articles that are not associated to a page
+            Map<AssetId, Collection<AssetId>> translations = new HashMap<AssetId, Collection<AssetId>>();
+            List<AssetId> translationIds = new ArrayList<AssetId>();
+            for(CandidateInfo article : matchingArticles)
+            {
+                if(parents.get(article.getId()).isEmpty() && !translations.containsKey(article.getId()))
+                {
+                    if(LOG.isTraceEnabled())
+                    {
+                        LOG.trace("MultilingualPageMetadataArticleAliasingStrategy.findCandidatesForAlias: Did not find the " + article + " associated to a page using the association " + associationNameForPage + " so we have to look it up in other locales in case the locale found on the path is not the locale associated with the Page.");
+                    }
+                    Collection<AssetId> relatives = TranslationGraph.getInstance(ics).getTranslations(dam, article.getId());
+                    translations.put(article.getId(), relatives);
+                    translationIds.addAll(relatives);
+                }
+            }
+            Map<AssetId, List<AssetId>> translationParents = translationIds.isEmpty() ? parents : art.getParents(ics, translationIds, "Page", associationNameForPage);
+
             List<CandidateInfo> candidatePages = new ArrayList<CandidateInfo>();
             for(CandidateInfo article : matchingArticles)
             {
-                // look up article in ART with specified assoc name
-                List<AssetId> foundPages = getAssetRelationTreeParents(ics, LOG, article.getId(), "Page", associationNameForPage);
+                List<AssetId> foundPages = parents.get(article.getId());
                 if(foundPages.size() > 0)
                 {
                     for(AssetId foundPage : foundPages)
@@ -216,20 +252,11 @@ public class MultilingualPageMetadataArticleAliasingStrategy implements AssetAli
                 }
                 else
                 {
-                    if(LOG.isTraceEnabled())
+                    for(AssetId translationOfMatch : translations.get(article.getId()))
                     {
-                        LOG.trace("MultilingualPageMetadataArticleAliasingStrategy.findCandidatesForAlias: Did not find the " + article + " associated to a page using the association " + associationNameForPage + " so we have to look it up in other locales in case the locale found on the path is not the locale associated with the Page.");
-                    }
-                    for(AssetId translationOfMatch : dam.getRelatives(article.getId(), null))
-                    {
-                        foundPages = getAssetRelationTreeParents(ics, LOG, translationOfMatch, "Page", associationNameForPage);
-                        if(foundPages.size() > 0)
+                        for(AssetId foundPage : translationParents.get(translationOfMatch))
                         {
-                            // todo: remove? Dimension translationDim = getLocaleAsDimension(ics, translationOfMatch);
-                            for(AssetId foundPage : foundPages)
-                            {
-                                candidatePages.add(new CandidateInfo(foundPage, article.getDim()));
-                            }
+                            candidatePages.add(new CandidateInfo(foundPage, article.getDim()));
                         }
                     }
                 }
@@ -250,4 +277,16 @@ public class MultilingualPageMetadataArticleAliasingStrategy implements AssetAli
             return result;
         }
     }
+
+    private static final class Settings
+    {
+        private final String associationNameForPage;
+        private final String articleAssetType;
+
+        Settings(String associationNameForPage, String articleAssetType)
+        {
+            this.associationNameForPage = associationNameForPage;
+            this.articleAssetType = articleAssetType;
+        }
+    }
 }
@@ -15,7 +15,6 @@ import com.fatwire.assetapi.common.AssetAccessException;
 import com.fatwire.assetapi.data.*;
 import com.fatwire.developernet.CSRuntimeException;
 import static com.fatwire.developernet.IListUtils.getLongValue;
-import static com.fatwire.developernet.facade.mda.DimensionUtils.getLocaleAsDimension;
 import com.fatwire.developernet.facade.runtag.example.asset.AssetList;
 import com.fatwire.mda.Dimension;
 import com.fatwire.system.SessionFactory;
@@ -36,7 +35,7 @@ import java.util.*;
  * @author Tony Field
  * @since Jun 1, 2009
  */
-public class NameAliasingStrategy implements AssetAliasingStrategy
+public class NameAliasingStrategy implements BulkAssetAliasingStrategy
 {
     private static Log LOG = LogFactory.getLog(NameAliasingStrategy.class.getName());
     private final ICS ics;
@@ -65,6 +64,20 @@ public class NameAliasingStrategy implements AssetAliasingStrategy
         return result;
     }
 
+    public List<String> computeAliases(List<AssetId> ids, String localeName)
+    {
+        if(LOG.isTraceEnabled())
+        {
+            LOG.trace("NameAliasingStrategy.computeAliases: Computing cpaths for " + ids + " in locale " + localeName);
+        }
+        List<String> result = AssetColumnReader.computeAliases(ics, ids, "name", this, localeName);
+        if(LOG.isTraceEnabled())
+        {
+            LOG.trace("NameAliasingStrategy.computeAliases: found names: " + result);
+        }
+        return result;
+    }
+
     public List<CandidateInfo> findCandidatesForAlias(String c, String cpath)
     {
         if(LOG.isTraceEnabled())
@@ -106,12 +119,15 @@ public class NameAliasingStrategy implements AssetAliasingStrategy
         }
         else
         {
-
+            List<AssetId> ids = new ArrayList<AssetId>(pages.numRows());
             for(IList row : new IterableIListWrapper(pages))
             {
-                AssetId id = new AssetIdImpl(c, getLongValue(row, "id"));
-                Dimension dim = getLocaleAsDimension(ics, id);
-                CandidateInfo ci = new CandidateInfo(id, dim);
+                ids.add(new AssetIdImpl(c, getLongValue(row, "id")));
+            }
+            Map<AssetId, Dimension> dims = LocaleDimensionCache.getInstance(ics).getLocales(ics, ids);
+            for(AssetId id : ids)
+            {
+                CandidateInfo ci = new CandidateInfo(id, dims.get(id));
                 result.add(ci);
                 if(LOG.isTraceEnabled())
                 {
@@ -12,12 +12,11 @@
 package com.fatwire.developernet.uri.itemcontext.aliasing;
 
 import COM.FutureTense.Interfaces.ICS;
-import COM.FutureTense.Interfaces.Utilities;
 import COM.FutureTense.Util.ftErrors;
 import com.fatwire.assetapi.common.AssetAccessException;
 import com.fatwire.assetapi.data.*;
 import com.fatwire.developernet.CSRuntimeException;
-import static com.fatwire.developernet.facade.runtag.example.asset.AssetRelationTreeUtils.getAssetRelationTreeParents;
+import com.fatwire.developernet.uri.cache.SharedConfigurationHolder;
 import com.fatwire.system.SessionFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -73,6 +72,17 @@ public class PageMetadataArticleAliasingStrategy implements AssetAliasingStrateg
     public static final String PROPERTY_PAGE_ARTICLE_ASSET_TYPE_DEFAULT = "Article";
 
     private static Log LOG = LogFactory.getLog(PageMetadataArticleAliasingStrategy.class.getName());
+    /**
+     * Configuration, read once.
+     */
+    private static final SharedConfigurationHolder<Settings> SETTINGS = new SharedConfigurationHolder<Settings>()
+    {
+        protected Settings create(ICS ics)
+        {
+            return new Settings(getProperty(ics, PROPERTY_PAGE_ARTICLE_ASSOCIATION_NAME, PROPERTY_PAGE_ARTICLE_ASSOCIATION_NAME_DEFAULT), getProperty(ics, PROPERTY_PAGE_ARTICLE_ASSET_TYPE, PROPERTY_PAGE_ARTICLE_ASSET_TYPE_DEFAULT));
+        }
+    };
+
     private final ICS ics;
     private final String associationNameForPage;
     private final PathAliasingStrategy pathTranslationStrategy;
@@ -83,22 +93,22 @@ public class PageMetadataArticleAliasingStrategy implements AssetAliasingStrateg
     {
         this.ics = ics;
         pathTranslationStrategy = new PathAliasingStrategy(ics);
-        associationNameForPage = _getProperty(PROPERTY_PAGE_ARTICLE_ASSOCIATION_NAME, PROPERTY_PAGE_ARTICLE_ASSOCIATION_NAME_DEFAULT);
-        articleAssetType = _getProperty(PROPERTY_PAGE_ARTICLE_ASSET_TYPE, PROPERTY_PAGE_ARTICLE_ASSET_TYPE_DEFAULT);
+        Settings settings = SETTINGS.get(ics);
+        associationNameForPage = settings.associationNameForPage;
+        articleAssetType = settings.articleAssetType;
         adm = (AssetDataManager)SessionFactory.getSession(ics).getManager(AssetDataManager.class.getName());
     }
 
-    private String _getProperty(String name, String dephault)
+
+    /**
+     * @param ics context, used to read the configuration the first time
+     * @return the configured type of the articles holding the aliases of pages
+     */
+    public static String getArticleAssetType(ICS ics)
     {
-        String s = ics.GetProperty(name, CONFIGURATION_FILE_NAME, true);
-        if(!Utilities.goodString(s))
-        {
-            s = System.getProperty(name, dephault);
-        }
-        return s;
+        return SETTINGS.get(ics).articleAssetType;
     }
 
-
     public String computeAlias(AssetId id, String localeName)
     {
         if(LOG.isTraceEnabled())
@@ -170,12 +180,18 @@ public class PageMetadataArticleAliasingStrategy implements AssetAliasingStrateg
                 }
             }
 
+            // look up all the articles in ART with specified assoc name at once
+            List<AssetId> articleIds = new ArrayList<AssetId>(matchingArticles.size());
+            for(CandidateInfo article : matchingArticles)
+            {
+                articleIds.add(article.getId());
+            }
+            Map<AssetId, List<AssetId>> parents = AssetRelationTreeParents.getInstance(ics).getParents(ics, articleIds, "Page", associationNameForPage);
+
             List<CandidateInfo> candidatePages = new ArrayList<CandidateInfo>();
             for(CandidateInfo article : matchingArticles)
             {
-                // look up article in ART with specified assoc name
-                List<AssetId> pages = getAssetRelationTreeParents(ics, LOG, article.getId(), "Page", associationNameForPage);
-                for(AssetId page : pages)
+                for(AssetId page : parents.get(article.getId()))
                 {
                     candidatePages.add(new CandidateInfo(page, article.getDim())); // we care about the dim of the article that produced the page's path
                 }
@@ -196,4 +212,16 @@ public class PageMetadataArticleAliasingStrategy implements AssetAliasingStrateg
             return result;
         }
     }
+
+    private static final class Settings
+    {
+        private final String associationNameForPage;
+        private final String articleAssetType;
+
+        Settings(String associationNameForPage, String articleAssetType)
+        {
+            this.associationNameForPage = associationNameForPage;
+            this.articleAssetType = articleAssetType;
+        }
+    }
 }
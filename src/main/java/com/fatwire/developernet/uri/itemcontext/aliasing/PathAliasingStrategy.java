@@ -15,7 +15,6 @@ import com.fatwire.assetapi.common.AssetAccessException;
 import com.fatwire.assetapi.data.*;
 import com.fatwire.developernet.CSRuntimeException;
 import static com.fatwire.developernet.IListUtils.getLongValue;
-import static com.fatwire.developernet.facade.mda.DimensionUtils.getLocaleAsDimension;
 import com.fatwire.developernet.facade.runtag.TagRunnerRuntimeException;
 import com.fatwire.developernet.facade.runtag.example.asset.AssetList;
 import com.fatwire.mda.Dimension;
@@ -35,7 +34,7 @@ import java.util.*;
  * @author Tony Field
  * @since Jun 1, 2009
  */
-public class PathAliasingStrategy implements AssetAliasingStrategy
+public class PathAliasingStrategy implements BulkAssetAliasingStrategy
 {
     private static Log LOG = LogFactory.getLog(PathAliasingStrategy.class.getName());
     private final ICS ics;
@@ -64,6 +63,20 @@ public class PathAliasingStrategy implements AssetAliasingStrategy
         return result;
     }
 
+    public List<String> computeAliases(List<AssetId> ids, String localeName)
+    {
+        if(LOG.isTraceEnabled())
+        {
+            LOG.trace("PathAliasingStrategy.computeAliases: Computing cpaths for " + ids + " in locale " + localeName);
+        }
+        List<String> result = AssetColumnReader.computeAliases(ics, ids, "path", this, localeName);
+        if(LOG.isTraceEnabled())
+        {
+            LOG.trace("PathAliasingStrategy.computeAliases: found paths: " + result);
+        }
+        return result;
+    }
+
     public List<CandidateInfo> findCandidatesForAlias(String c, String cpath)
     {
         if(LOG.isTraceEnabled())
@@ -110,12 +123,15 @@ public class PathAliasingStrategy implements AssetAliasingStrategy
         }
         else
         {
-
+            List<AssetId> ids = new ArrayList<AssetId>(pages.numRows());
             for(IList row : new IterableIListWrapper(pages))
             {
-                AssetId id = new AssetIdImpl(c, getLongValue(row, "id"));
-                Dimension dim = getLocaleAsDimension(ics, id);
-                CandidateInfo ci = new CandidateInfo(id, dim);
+                ids.add(new AssetIdImpl(c, getLongValue(row, "id")));
+            }
+            Map<AssetId, Dimension> dims = LocaleDimensionCache.getInstance(ics).getLocales(ics, ids);
+            for(AssetId id : ids)
+            {
+                CandidateInfo ci = new CandidateInfo(id, dims.get(id));
                 result.add(ci);
                 if(LOG.isTraceEnabled())
                 {
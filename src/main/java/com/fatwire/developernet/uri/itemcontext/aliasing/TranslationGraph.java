@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext.aliasing;
+
+import COM.FutureTense.Interfaces.ICS;
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.cache.CacheStatistics;
+import com.fatwire.developernet.uri.cache.SharedCacheHolder;
+import com.fatwire.mda.DimensionableAssetManager;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * JVM-wide, in-memory graph of the translations of assets.  All the translations of an asset share one node,
+ * which holds the translation of the asset in each locale, and the list of all the translations.  Nodes are
+ * built lazily: a locale is only looked up with the {@link DimensionableAssetManager} the first time the
+ * translation into that locale is asked for, and the translations are only listed the first time they are needed.
+ * <p/>
+ * <p>The graph must be cleared when translations change, see {@link #clear}, or the changed assets removed, see
+ * {@link #invalidate}.</p>
+ */
+public final class TranslationGraph
+{
+    /**
+     * Property name defining the maximum number of assets in the graph.
+     *
+     * @see #PROPERTY_MAX_SIZE_DEFAULT
+     */
+    public static final String PROPERTY_MAX_SIZE = "com.fatwire.developernet.uri.itemcontext.aliasing.translation-graph.max-size";
+    /**
+     * Default value of the {@link #PROPERTY_MAX_SIZE} property.
+     */
+    public static final String PROPERTY_MAX_SIZE_DEFAULT = "10000";
+    /**
+     * Property name defining the number of seconds after which assets are removed from the graph.  0 means never.
+     *
+     * @see #PROPERTY_TTL_SECONDS_DEFAULT
+     */
+    public static final String PROPERTY_TTL_SECONDS = "com.fatwire.developernet.uri.itemcontext.aliasing.translation-graph.ttl-seconds";
+    /**
+     * Default value of the {@link #PROPERTY_TTL_SECONDS} property.
+     */
+    public static final String PROPERTY_TTL_SECONDS_DEFAULT = "600";
+
+    private static final Log LOG = LogFactory.getLog(TranslationGraph.class.getName());
+
+    /**
+     * Translation standing for "no translation in this locale".
+     */
+    private static final Object NO_TRANSLATION = new Object();
+
+    private static final SharedCacheHolder<TranslationGraph> INSTANCE = new SharedCacheHolder<TranslationGraph>(PROPERTY_MAX_SIZE, PROPERTY_MAX_SIZE_DEFAULT, PROPERTY_TTL_SECONDS, PROPERTY_TTL_SECONDS_DEFAULT)
+    {
+        protected TranslationGraph create(ICS ics, int maxSize, long ttlMillis)
+        {
+            return new TranslationGraph(maxSize, ttlMillis);
+        }
+    };
+
+    /**
+     * Node of each asset in the graph.
+     */
+    private final BoundedCache<String, Node> nodes;
+
+    private TranslationGraph(int maxSize, long ttlMillis)
+    {
+        nodes = new BoundedCache<String, Node>(maxSize, ttlMillis);
+    }
+
+    /**
+     * Get the graph, creating it if this has not been done yet.
+     *
+     * @param ics context, used to read the configuration if the graph needs to be created
+     * @return the graph
+     */
+    public static TranslationGraph getInstance(ICS ics)
+    {
+        return INSTANCE.get(ics);
+    }
+
+    /**
+     * Forget all translations.  Should be called when translations have been created or deleted, after a publish
+     * for example.
+     */
+    public static void clear()
+    {
+        TranslationGraph graph = INSTANCE.peek();
+        if(graph != null)
+        {
+            graph.nodes.clear();
+            LOG.info("TranslationGraph cleared");
+        }
+    }
+
+    /**
+     * Forget the translations of some assets.  The nodes of the assets are removed, with all their translations.
+     *
+     * @param ids assets whose translations may have changed
+     * @return the translations of the assets that were in the graph, not including the assets themselves
+     */
+    public static Set<AssetId> invalidate(Collection<AssetId> ids)
+    {
+        Set<AssetId> translations = new HashSet<AssetId>();
+        TranslationGraph graph = INSTANCE.peek();
+        if(graph != null)
+        {
+            final Set<Node> removed = new HashSet<Node>();
+            for(AssetId id : ids)
+            {
+                Node node = graph.nodes.get(_key(id));
+                if(node != null && removed.add(node))
+                {
+                    for(Object translated : node.translations.values())
+                    {
+                        if(translated != NO_TRANSLATION)
+                        {
+                            translations.add((AssetId)translated);
+                        }
+                    }
+                    Relatives relatives = node.relatives;
+                    if(relatives != null)
+                    {
+                        translations.add(relatives.of);
+                        translations.addAll(relatives.list);
+                    }
+                }
+            }
+            if(!removed.isEmpty())
+            {
+                graph.nodes.removeAll(new BoundedCache.Filter<String, Node>()
+                {
+                    public boolean matches(String key, Node value)
+                    {
+                        return removed.contains(value);
+                    }
+                });
+            }
+            translations.removeAll(ids);
+        }
+        return translations;
+    }
+
+    private static String _key(AssetId id)
+    {
+        return id.getType() + '/' + id.getId();
+    }
+
+    private Node _getNode(AssetId id)
+    {
+        String key = _key(id);
+        Node node = nodes.get(key);
+        if(node == null)
+        {
+            node = new Node();
+            nodes.put(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Translate an asset.  Equivalent to <code>dam.getRelative(id, localeName)</code>.
+     *
+     * @param dam manager used if the translation is not in the graph yet
+     * @param id asset
+     * @param localeName name of the locale
+     * @return the translation of the asset in the locale, or null if there is none
+     */
+    public AssetId getTranslation(DimensionableAssetManager dam, AssetId id, String localeName)
+    {
+        if(localeName == null)
+        {
+            return dam.getRelative(id, null);
+        }
+        Node node = _getNode(id);
+        Object translated = node.translations.get(localeName);
+        if(translated == null)
+        {
+            translated = dam.getRelative(id, localeName);
+            if(translated == null)
+            {
+                translated = NO_TRANSLATION;
+            }
+            else if(nodes.get(_key((AssetId)translated)) == null)
+            {
+                // the translation belongs to the same node
+                nodes.put(_key((AssetId)translated), node);
+            }
+            node.translations.put(localeName, translated);
+        }
+        return translated == NO_TRANSLATION ? null : (AssetId)translated;
+    }
+
+    /**
+     * List the translations of an asset.  Equivalent to <code>dam.getRelatives(id, null)</code>.
+     *
+     * @param dam manager used if the translations are not in the graph yet
+     * @param id asset
+     * @return the translations of the asset, in all locales
+     */
+    public Collection<AssetId> getTranslations(DimensionableAssetManager dam, AssetId id)
+    {
+        Node node = _getNode(id);
+        Relatives relatives = node.relatives;
+        if(relatives == null)
+        {
+            relatives = new Relatives(id, Collections.unmodifiableList(new ArrayList<AssetId>(dam.getRelatives(id, null))));
+            node.relatives = relatives;
+        }
+        else if(!relatives.of.equals(id) && !relatives.list.contains(relatives.of))
+        {
+            // the translations were listed for another asset of the node, and do not include that asset itself
+            List<AssetId> swapped = new ArrayList<AssetId>(relatives.list.size());
+            for(AssetId relative : relatives.list)
+            {
+                swapped.add(relative.equals(id) ? relatives.of : relative);
+            }
+            return swapped;
+        }
+        return relatives.list;
+    }
+
+    /**
+     * @return usage of the graph
+     */
+    public CacheStatistics getStatistics()
+    {
+        return nodes;
+    }
+
+    private static final class Node
+    {
+        /**
+         * Translation, or {@link #NO_TRANSLATION}, by locale name.
+         */
+        private final ConcurrentMap<String, Object> translations = new ConcurrentHashMap<String, Object>(4, 0.75f, 1);
+
+        /**
+         * Translations of one of the assets of the node, once they have been listed.
+         */
+        private volatile Relatives relatives;
+    }
+
+    private static final class Relatives
+    {
+        private final AssetId of;
+        private final List<AssetId> list;
+
+        private Relatives(AssetId of, List<AssetId> list)
+        {
+            this.of = of;
+            this.list = list;
+        }
+    }
+}
@@ -37,6 +37,63 @@ public abstract class LightweightAbstractAssembler implements Assembler
     private static final String CHARSET_lower = "_charset_";
     private static final String CHARSET_upper = "_CHARSET_";
 
+    /**
+     * Characters that never need to be escaped when URLEncoding: <code>a-z A-Z 0-9 . - * _</code>
+     * (the same set used by <code>java.net.URLEncoder</code>).  Indexed by character.
+     */
+    private static final boolean[] URL_SAFE = new boolean[128];
+
+    /**
+     * ASCII characters that <code>java.net.URI</code> leaves unquoted in a path: unreserved,
+     * punct, <code>/</code>, <code>;</code> and <code>@</code> (RFC 2396).  Indexed by character.
+     */
+    private static final boolean[] URI_PATH_LEGAL = new boolean[128];
+
+    /**
+     * ASCII characters that <code>java.net.URI</code> leaves unquoted in a fragment: unreserved
+     * and reserved (RFC 2396, plus <code>[</code> and <code>]</code>).  Indexed by character.
+     */
+    private static final boolean[] URI_FRAGMENT_LEGAL = new boolean[128];
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    static
+    {
+        for(char c = 'a'; c <= 'z'; c++)
+        {
+            URL_SAFE[c] = true;
+        }
+        for(char c = 'A'; c <= 'Z'; c++)
+        {
+            URL_SAFE[c] = true;
+        }
+        for(char c = '0'; c <= '9'; c++)
+        {
+            URL_SAFE[c] = true;
+        }
+        URL_SAFE['.'] = true;
+        URL_SAFE['-'] = true;
+        URL_SAFE['*'] = true;
+        URL_SAFE['_'] = true;
+
+        for(char c = 0; c < 128; c++)
+        {
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "_-!.~'()*".indexOf(c) != -1)
+            {
+                URI_PATH_LEGAL[c] = true;
+                URI_FRAGMENT_LEGAL[c] = true;
+            }
+        }
+        for(char c : ",;:$&+=/@".toCharArray())
+        {
+            URI_PATH_LEGAL[c] = true;
+        }
+        for(char c : ";/?:@&=+$,[]".toCharArray())
+        {
+            URI_FRAGMENT_LEGAL[c] = true;
+        }
+    }
+
     private final String encoding;
 
     private final Map<String, String> properties = new HashMap<String, String>();
@@ -97,8 +154,22 @@ public abstract class LightweightAbstractAssembler implements Assembler
         return result;
     }
 
+    /**
+     * Read-only view of all of the properties set into the assembler from the configuration files.
+     * Useful for sub-classes that need to compile families of properties (such as all properties
+     * sharing a prefix) when {@link #setProperties} is called.
+     *
+     * @return unmodifiable map of property names to values
+     */
+    protected final Map<String, String> getProperties()
+    {
+        return Collections.unmodifiableMap(properties);
+    }
+
     /**
      * URLEncodes a string using the encoding specified by this class.
+     * If the string does not contain any characters that need to be escaped,
+     * the input string itself is returned.
      *
      * @param string the string to encode
      * @return encoded string
@@ -107,24 +178,133 @@ public abstract class LightweightAbstractAssembler implements Assembler
      */
     protected final String encode(String string)
     {
-        String result;
-        try
+        return urlEncode(string, encoding);
+    }
+
+    /**
+     * URLEncodes a string using the specified encoding.  Produces the same result as
+     * <code>java.net.URLEncoder.encode(string, encoding)</code>, but returns the input string itself if
+     * it does not contain any characters that need to be escaped.  This replaces
+     * <code>com.fatwire.cs.core.uri.Util.encode</code>, and only gives the same result where that
+     * method follows <code>URLEncoder</code>.
+     *
+     * @param string the string to encode.  May be null.
+     * @param encoding the encoding to use, or null for the platform's default encoding
+     * @return encoded string
+     * @throws IllegalStateException if the encoding is not supported
+     */
+    static String urlEncode(String string, String encoding)
+    {
+        if(string == null)
+        {
+            return null;
+        }
+        int first = _firstUnsafe(string);
+        if(first == -1)
+        {
+            return string;
+        }
+        StringBuilder sb = new StringBuilder(string.length() + 16);
+        _appendEncoded(sb, string, first, encoding);
+        return sb.toString();
+    }
+
+    /**
+     * URLEncodes a string using the encoding specified by this class and appends
+     * the result to the specified buffer.  Strings that do not contain any characters
+     * that need to be escaped are appended as-is.
+     *
+     * @param sb buffer to append to
+     * @param string the string to encode.  Must not be null.
+     * @return the buffer
+     * @throws IllegalStateException if UTF-8 encoding is not supported
+     * and the platform's default encoding is not supported.
+     */
+    protected final StringBuilder appendEncoded(StringBuilder sb, String string)
+    {
+        int first = _firstUnsafe(string);
+        if(first == -1)
+        {
+            return sb.append(string);
+        }
+        return _appendEncoded(sb, string, first, encoding);
+    }
+
+    /**
+     * Find the first character in the string that needs to be escaped.
+     *
+     * @param string input string
+     * @return index of the first character to escape, or -1 if the string is safe as-is.
+     */
+    private static int _firstUnsafe(String string)
+    {
+        for(int i = 0, len = string.length(); i < len; i++)
+        {
+            char c = string.charAt(i);
+            if(c >= URL_SAFE.length || !URL_SAFE[c])
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Worker for URLEncoding.  Behaves like <code>java.net.URLEncoder</code>: safe characters
+     * are copied, spaces become <code>+</code>, and every other run of characters is converted
+     * to bytes in the specified encoding and written as <code>%XX</code> escapes.
+     *
+     * @param sb buffer to append to
+     * @param string string to encode
+     * @param first index of the first character that needs to be escaped
+     * @param encoding the encoding to use, or null for the platform's default encoding
+     * @return the buffer
+     */
+    private static StringBuilder _appendEncoded(StringBuilder sb, String string, int first, String encoding)
+    {
+        sb.append(string, 0, first);
+        int len = string.length();
+        int i = first;
+        while(i < len)
         {
-            if(string == null)
+            char c = string.charAt(i);
+            if(c < URL_SAFE.length && URL_SAFE[c])
             {
-                result = null;
+                sb.append(c);
+                i++;
+            }
+            else if(c == ' ')
+            {
+                sb.append('+');
+                i++;
             }
             else
             {
-                result = Util.encode(string, encoding);
+                // escape the whole run at once so that surrogate pairs stay together
+                int runStart = i;
+                do
+                {
+                    i++;
+                }
+                while(i < len && string.charAt(i) != ' ' && (string.charAt(i) >= URL_SAFE.length || !URL_SAFE[string.charAt(i)]));
+                byte[] bytes;
+                try
+                {
+                    String run = string.substring(runStart, i);
+                    bytes = encoding == null ? run.getBytes() : run.getBytes(encoding);
+                }
+                catch(UnsupportedEncodingException ex)
+                {
+                    String msg = "Unexpected failure encoding string '" + string + "'using an encoding (" + encoding + ").  Exception: " + ex;
+                    throw new IllegalStateException(msg);
+                }
+                for(byte b : bytes)
+                {
+                    _appendEscape(sb, b);
+                }
             }
         }
-        catch(UnsupportedEncodingException ex)
-        {
-            String msg = "Unexpected failure encoding string '" + string + "'using an encoding (" + encoding + ").  Exception: " + ex;
-            throw new IllegalStateException(msg);
-        }
-        return result;
+        return sb;
     }
 
     /**
@@ -194,6 +374,9 @@ public abstract class LightweightAbstractAssembler implements Assembler
      * There are multiple variants of combinations of these parameters to create a valid URL.
      * Consult the URI specificaiton for what is allowed and what is not.  The URI constructor
      * will throw a URISyntaxException if required components are missing for a given combination.
+     * <p/>
+     * The path and fragment are quoted exactly as the multi-arg <code>java.net.URI</code> constructors
+     * would quote them, so the assembled string only needs to be parsed once.
      *
      * @param scheme the URI scheme (protocol)
      * @param authority the URI authority (host:port)
@@ -215,12 +398,12 @@ public abstract class LightweightAbstractAssembler implements Assembler
         {
             bf.append("//").append(authority); // nothing legal to quote until I18N URLs work
         }
-        // Path needs quoting though, so let the URI object do it for us.
-        // Use the toASCIIString() method because we need the quoted values.
-        // (toString() is really just for readability and debugging, not programmatic use)
+        // Path and fragment need quoting though.  Quote them the same way the
+        // multi-arg URI constructors would, without building throwaway URI
+        // objects, so the only parse is the final one below.
         if(path != null)
         {
-            bf.append(new URI(null, null, path, null, null).getRawPath());
+            _appendQuotedPath(bf, path);
         }
         if(quotedQueryString != null)
         {
@@ -229,7 +412,7 @@ public abstract class LightweightAbstractAssembler implements Assembler
         // needs quoting
         if(fragment != null)
         {
-            bf.append(new URI(null, null, null, null, fragment).toASCIIString());
+            _appendQuotedFragment(bf, fragment);
         }
         URI uri = new URI(bf.toString());
 
@@ -242,6 +425,106 @@ public abstract class LightweightAbstractAssembler implements Assembler
         return uri;
     }
 
+    /**
+     * Quote a path and append it to the buffer.  Produces the same result as
+     * <code>new URI(null, null, path, null, null).getRawPath()</code> for absolute paths.
+     * Anything else (relative paths, or paths that would be mistaken for an authority)
+     * is handed to <code>java.net.URI</code> as before.
+     *
+     * @param bf buffer
+     * @param path unquoted path
+     * @throws URISyntaxException if the path is not valid
+     */
+    private static void _appendQuotedPath(StringBuilder bf, String path) throws URISyntaxException
+    {
+        int len = path.length();
+        if(len > 0 && (path.charAt(0) != '/' || (len > 1 && path.charAt(1) == '/')))
+        {
+            bf.append(new URI(null, null, path, null, null).getRawPath());
+            return;
+        }
+        for(int i = 0; i < len; i++)
+        {
+            char c = path.charAt(i);
+            if(c < URI_PATH_LEGAL.length)
+            {
+                if(URI_PATH_LEGAL[c])
+                {
+                    bf.append(c);
+                }
+                else
+                {
+                    _appendEscape(bf, (byte)c);
+                }
+            }
+            else if(Character.isSpaceChar(c) || Character.isISOControl(c))
+            {
+                _appendUtf8Escapes(bf, c);
+            }
+            else
+            {
+                bf.append(c); // "other" characters are legal in a URI
+            }
+        }
+    }
+
+    /**
+     * Quote a fragment and append it, including the leading <code>#</code>, to the buffer.
+     * Produces the same result as <code>new URI(null, null, null, null, fragment).toASCIIString()</code>.
+     * Fragments containing non-ASCII characters need to be normalized so they are
+     * still handed to <code>java.net.URI</code>.
+     *
+     * @param bf buffer
+     * @param fragment unquoted fragment
+     * @throws URISyntaxException if the fragment is not valid
+     */
+    private static void _appendQuotedFragment(StringBuilder bf, String fragment) throws URISyntaxException
+    {
+        int len = fragment.length();
+        for(int i = 0; i < len; i++)
+        {
+            if(fragment.charAt(i) >= URI_FRAGMENT_LEGAL.length)
+            {
+                bf.append(new URI(null, null, null, null, fragment).toASCIIString());
+                return;
+            }
+        }
+        bf.append('#');
+        for(int i = 0; i < len; i++)
+        {
+            char c = fragment.charAt(i);
+            if(URI_FRAGMENT_LEGAL[c])
+            {
+                bf.append(c);
+            }
+            else
+            {
+                _appendEscape(bf, (byte)c);
+            }
+        }
+    }
+
+    private static void _appendEscape(StringBuilder bf, byte b)
+    {
+        bf.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+    }
+
+    private static void _appendUtf8Escapes(StringBuilder bf, char c)
+    {
+        try
+        {
+            for(byte b : String.valueOf(c).getBytes("UTF-8"))
+            {
+                _appendEscape(bf, b);
+            }
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            // This is not expected to ever occur.
+            throw new IllegalStateException("UTF-8 encoding is not supported by this platform: " + e);
+        }
+    }
+
     /**
      * Parse a query string and put the parameters into a map.  Input
      * parameters will be URLDecoded prior to their addition into the
@@ -254,139 +537,414 @@ public abstract class LightweightAbstractAssembler implements Assembler
      * <p/>
      * This decoding method is smart enough to be able to interpret the <code>_charset_</code>
      * URL parameter that is often used by IE.
+     * <p/>
+     * The query string is scanned once to locate the name and value boundaries, and each
+     * name and value is decoded directly out of the original string.  A segment only goes
+     * through the decoder if it actually contains a <code>%</code> or a <code>+</code>;
+     * otherwise it is simply a substring of the input.  If <code>_charset_</code> is given,
+     * every segment goes through {@link #decode(String, String)} with it, so an unsupported
+     * charset is always reported.
+     * <p/>
+     * Names are compared after decoding, so <code>a=1&amp;%61=2</code> gives two values
+     * for <code>a</code>.
      *
      * @param qry
      * @return map containing <code>String</code>/<code>String[]</code> pairs.
      * @throws IllegalArgumentException if there are mistakes
      * in the string that make it impossible to parse.
+     * @see #parseQuery(String)
      */
     protected final Map<String, String[]> parseQueryString(String qry)
     {
-        Map<String, String[]> rawPairs = new HashMap<String, String[]>();
-        if(qry == null)
+        return parseQuery(qry).parameters;
+    }
+
+    /**
+     * Parse a query string, or a query string-like value such as <code>packedargs</code>, into a
+     * {@link ParsedQueryString}.  Decoding works exactly as in {@link #parseQueryString(String)}, but the
+     * result also remembers where each pair was found in the original string, so that pairs can later be
+     * removed (see {@link ParsedQueryString#exclude}) without decoding and re-encoding the rest.
+     *
+     * @param qry raw query string.  May be null.
+     * @return parsed query string, never null.
+     * @throws IllegalArgumentException if there are mistakes
+     * in the string that make it impossible to parse.
+     */
+    protected final ParsedQueryString parseQuery(String qry)
+    {
+        Map<String, String[]> res = new HashMap<String, String[]>();
+        if(qry == null || qry.length() == 0)
         {
-            return rawPairs;
+            return new ParsedQueryString(qry, null, 0, null, res);
         }
         int inlen = qry.length();
-        if(inlen == 0)
-        {
-            return rawPairs;
-        }
 
         if(LOG.isTraceEnabled())
         {
             LOG.trace("Parsing query string: " + qry);
         }
 
-        int iequal;
-        int iamper;
+        // Record the (trimmed) boundaries of each name and value as
+        // {nameStart, nameEnd, valueStart, valueEnd} so that nothing needs
+        // to be copied until we know which encoding to decode with.
+        int[] bounds = new int[16];
+        int numPairs = 0;
         int startAt = 0;
-        boolean bDone = false;
+        while(startAt < inlen)
+        {
+            int iequal = qry.indexOf('=', startAt);
+            if(iequal == -1)
+            {
+                break;        // no more pairs
+            }
+            int valueStart = iequal + 1;
+            if(valueStart >= inlen)
+            {
+                break;
+            }
+            // End of current name=value is '&' or EOL
+            int iamper = qry.indexOf('&', valueStart);
+            int valueEnd = iamper == -1 ? inlen : iamper;
+
+            if((numPairs + 1) * 4 > bounds.length)
+            {
+                int[] newBounds = new int[bounds.length * 2];
+                System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+                bounds = newBounds;
+            }
+            // deal with accidental odd chars in the URL
+            int pos = numPairs * 4;
+            bounds[pos] = _trimStart(qry, startAt, iequal);
+            bounds[pos + 1] = _trimEnd(qry, bounds[pos], iequal);
+            bounds[pos + 2] = _trimStart(qry, valueStart, valueEnd);
+            bounds[pos + 3] = _trimEnd(qry, bounds[pos + 2], valueEnd);
+            numPairs++;
 
-        while(!bDone)
+            startAt = iamper == -1 ? inlen : iamper + 1;
+        }
+
+        // Figure out which encoding to use to decode the params
+        final String encoding = _findCharset(qry, bounds, numPairs);
+
+        // Decode the pairs using the proper encoding and set them into the result map.
+        // Repeated names are rare, so their values are only collected into a list
+        // once a second value actually shows up.
+        Map<String, List<String>> repeated = null;
+        String[] names = new String[numPairs];
+        for(int i = 0; i < numPairs; i++)
         {
-            String n;
-            String v;
-            if((iequal = qry.indexOf("=", startAt)) != -1)
+            int pos = i * 4;
+            String key = _decodeSegment(qry, bounds[pos], bounds[pos + 1], encoding);
+            names[i] = key;
+            String val = _decodeSegment(qry, bounds[pos + 2], bounds[pos + 3], encoding);
+
+            if(LOG.isTraceEnabled())
             {
-                // End of current name=value is '&' or EOL
-                iamper = qry.indexOf("&", iequal);
-                n = qry.substring(startAt, iequal);
-                n = n.trim(); // deal with accidental odd chars in the URL
-                iequal++;
-                if(iequal >= inlen)
-                {
-                    break;
-                }
+                StringBuilder bf = new StringBuilder("Parsing query string.  Found raw pair [name]=[value]: ");
+                bf.append('[').append(qry, bounds[pos], bounds[pos + 1]).append(']').append('=').append('[').append(qry, bounds[pos + 2], bounds[pos + 3]).append(']');
+                bf.append(" decoded to: ");
+                bf.append('[').append(key).append(']').append('=').append('[').append(val).append(']');
+                LOG.trace(bf);
+            }
 
-                if(iamper == -1)
+            String[] av = res.get(key);
+            if(av == null)
+            {
+                res.put(key, new String[]{val});
+            }
+            else
+            {
+                // param specified twice in the url.
+                if(repeated == null)
                 {
-                    v = qry.substring(iequal);
+                    repeated = new HashMap<String, List<String>>();
                 }
-                else
+                List<String> values = repeated.get(key);
+                if(values == null)
                 {
-                    v = qry.substring(iequal, iamper);
+                    values = new ArrayList<String>(4);
+                    values.add(av[0]);
+                    repeated.put(key, values);
                 }
+                values.add(val);
+            }
+        }
 
-                if(iamper != -1)
-                {
-                    startAt = iamper + 1;
-                }
-                else
+        if(repeated != null)
+        {
+            for(Map.Entry<String, List<String>> entry : repeated.entrySet())
+            {
+                List<String> values = entry.getValue();
+                res.put(entry.getKey(), values.toArray(new String[values.size()]));
+            }
+        }
+
+        return new ParsedQueryString(qry, bounds, numPairs, names, res);
+    }
+
+    /**
+     * Scan a raw query string for any of the specified parameter names, without decoding the values or
+     * building a map.  Pairs are delimited exactly as in {@link #parseQueryString(String)}, and names are
+     * compared after trimming and URL-decoding, so <code>%63id</code> matches <code>cid</code>.  This is
+     * intended to reject query strings cheaply before paying for a full parse.
+     * <p/>
+     * Only US-ASCII names are supported: a name containing an escaped non-ASCII byte never matches.
+     * Malformed escapes never match either; they are left for {@link #parseQueryString(String)} to report.
+     *
+     * @param qry raw query string.  May be null.
+     * @param names decoded names to look for.  Must all be US-ASCII.
+     * @return the first name found, or null if none of the names occur in the query string.
+     */
+    protected final String findParameterName(String qry, Set<String> names)
+    {
+        if(qry == null || qry.length() == 0 || names.isEmpty())
+        {
+            return null;
+        }
+        int maxLength = 0;
+        for(String name : names)
+        {
+            maxLength = Math.max(maxLength, name.length());
+        }
+        int inlen = qry.length();
+        int startAt = 0;
+        while(startAt < inlen)
+        {
+            int iequal = qry.indexOf('=', startAt);
+            if(iequal == -1)
+            {
+                break;        // no more pairs
+            }
+            int valueStart = iequal + 1;
+            if(valueStart >= inlen)
+            {
+                break;
+            }
+            int start = _trimStart(qry, startAt, iequal);
+            int end = _trimEnd(qry, start, iequal);
+            // an escaped character takes three chars, so longer names can't possibly match
+            if(end - start <= maxLength * 3)
+            {
+                String name = _decodeAsciiName(qry, start, end, maxLength);
+                if(name != null && names.contains(name))
                 {
-                    bDone = true;
+                    return name;
                 }
+            }
+            int iamper = qry.indexOf('&', valueStart);
+            startAt = iamper == -1 ? inlen : iamper + 1;
+        }
+        return null;
+    }
 
-                v = v.trim(); // deal with stupid value
-
-                // add the value to the result.
-                String[] av = rawPairs.get(n);
-                if(av == null)
+    /**
+     * URLDecodes a region of a string that is expected to hold a short US-ASCII name.
+     *
+     * @param s string containing the region
+     * @param start start of the region (inclusive)
+     * @param end end of the region (exclusive)
+     * @param maxLength maximum length of the decoded name
+     * @return decoded name, or null if it is longer than <code>maxLength</code>, contains a non-ASCII
+     *         character, or is not well-formed.
+     */
+    private static String _decodeAsciiName(String s, int start, int end, int maxLength)
+    {
+        StringBuilder sb = null;
+        int length = 0;
+        for(int i = start; i < end; i++, length++)
+        {
+            if(length >= maxLength)
+            {
+                return null;
+            }
+            char c = s.charAt(i);
+            if(c == '%')
+            {
+                if(i + 2 >= end)
                 {
-                    av = new String[1];
-                    av[0] = v;
-                    rawPairs.put(n, av);
+                    return null;
                 }
-                else
+                int hi = Character.digit(s.charAt(i + 1), 16);
+                int lo = Character.digit(s.charAt(i + 2), 16);
+                if(hi < 0 || hi > 7 || lo < 0)
                 {
-                    // param specified twice in the url.
-                    String[] newVal = new String[av.length + 1];
-                    System.arraycopy(av, 0, newVal, 0, av.length);
-                    newVal[av.length] = v;
-                    rawPairs.put(n, newVal);
+                    return null;
                 }
+                c = (char)((hi << 4) + lo);
+                i += 2;
             }
-            else
+            else if(c == '+')
             {
-                break;        // no more pairs
+                c = ' ';
             }
+            else if(c >= 128)
+            {
+                return null;
+            }
+            else if(sb == null)
+            {
+                continue; // nothing decoded yet, keep scanning
+            }
+            if(sb == null)
+            {
+                sb = new StringBuilder(maxLength);
+                sb.append(s, start, start + length);
+            }
+            sb.append(c);
         }
+        return sb == null ? s.substring(start, end) : sb.toString();
+    }
 
-        // Figure out which encoding to use to decode the params
-        String[] _charset_ = rawPairs.get(CHARSET_lower) == null ? rawPairs.get(CHARSET_upper) : rawPairs.get(CHARSET_lower);
-        final String encoding;
-        if(_charset_ == null)
+    /**
+     * Determine the encoding override specified by the <code>_charset_</code> (or <code>_CHARSET_</code>)
+     * parameter, if any.  The lowercase version wins if both are present.
+     *
+     * @param qry raw query string
+     * @param bounds trimmed name and value boundaries, four per pair
+     * @param numPairs number of pairs recorded in <code>bounds</code>
+     * @return the raw value of the <code>_charset_</code> parameter, or null if none was specified.
+     * @throws IllegalStateException if the parameter is specified more than once
+     */
+    private static String _findCharset(String qry, int[] bounds, int numPairs)
+    {
+        if(qry.indexOf(CHARSET_lower) == -1 && qry.indexOf(CHARSET_upper) == -1)
         {
-            encoding = null; // try to follow the spec
+            return null; // try to follow the spec
         }
-        else
+        String lower = null;
+        String upper = null;
+        int lowerCount = 0;
+        int upperCount = 0;
+        for(int i = 0; i < numPairs; i++)
         {
-            switch(_charset_.length)
+            int pos = i * 4;
+            if(bounds[pos + 1] - bounds[pos] != CHARSET_lower.length())
             {
-                case 0:
-                    throw new IllegalStateException("Somehow an empty _charst_ param made it into our map. Impossible...");
-                case 1:
-                    encoding = _charset_[0]; // url contains an override for the spec
-                    break;
-                default:
-                    throw new IllegalStateException("Too many values of _charset_ found in the URL");
+                continue;
             }
+            if(qry.startsWith(CHARSET_lower, bounds[pos]))
+            {
+                lower = qry.substring(bounds[pos + 2], bounds[pos + 3]); // url contains an override for the spec
+                lowerCount++;
+            }
+            else if(qry.startsWith(CHARSET_upper, bounds[pos]))
+            {
+                upper = qry.substring(bounds[pos + 2], bounds[pos + 3]);
+                upperCount++;
+            }
+        }
+        if(lower != null ? lowerCount > 1 : upperCount > 1)
+        {
+            throw new IllegalStateException("Too many values of _charset_ found in the URL");
+        }
+        return lower == null ? upper : lower;
+    }
+
+    private static int _trimStart(String s, int start, int end)
+    {
+        while(start < end && s.charAt(start) <= ' ')
+        {
+            start++;
         }
+        return start;
+    }
 
-        // Decode the raw pairs using the proper encoding and set them into the result map
-        Map<String, String[]> res = new HashMap<String, String[]>(rawPairs.size());
-        for(String rawKey : rawPairs.keySet())
+    private static int _trimEnd(String s, int start, int end)
+    {
+        while(end > start && s.charAt(end - 1) <= ' ')
         {
-            String key = decode(rawKey, encoding);
-            String[] val = rawPairs.get(rawKey);
-            for(int i = 0; i < val.length; i++)
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * URLDecodes a region of a string.  If the region contains nothing to decode it is returned as a
+     * plain substring, otherwise it is decoded in a single pass over the region.  When the query string
+     * names its own encoding, the region goes through {@link #decode(String, String)} instead, so that an
+     * unsupported encoding is reported exactly as before.
+     *
+     * @param s string containing the region
+     * @param start start of the region (inclusive)
+     * @param end end of the region (exclusive)
+     * @param encoding the encoding to use to decode the region.  If null is specified, the decoding
+     * specified by this class shall be used.
+     * @return decoded string
+     * @throws IllegalStateException if the encoding specified is not supported
+     * @throws IllegalArgumentException if the region is not well-formed for decoding.
+     */
+    private String _decodeSegment(String s, int start, int end, String encoding)
+    {
+        if(encoding != null)
+        {
+            return decode(s.substring(start, end), encoding);
+        }
+        int i = start;
+        while(i < end)
+        {
+            char c = s.charAt(i);
+            if(c == '%' || c == '+')
             {
-                String rawVal = val[i];
-                val[i] = decode(rawVal, encoding);
+                break;
+            }
+            i++;
+        }
+        if(i == end)
+        {
+            return s.substring(start, end);
+        }
 
-                if(LOG.isTraceEnabled())
+        encoding = this.encoding;
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(s, start, i);
+        byte[] bytes = null;
+        while(i < end)
+        {
+            char c = s.charAt(i);
+            if(c == '+')
+            {
+                sb.append(' ');
+                i++;
+            }
+            else if(c == '%')
+            {
+                // collect consecutive escapes so multi-byte characters decode properly
+                if(bytes == null)
+                {
+                    bytes = new byte[(end - i) / 3];
+                }
+                int n = 0;
+                while(i < end && s.charAt(i) == '%')
+                {
+                    if(i + 2 >= end)
+                    {
+                        throw new IllegalArgumentException("Failure decoding string '" + s.substring(start, end) + "' using encoding '" + encoding + "'.  (Incomplete trailing escape (%) pattern)");
+                    }
+                    int hi = Character.digit(s.charAt(i + 1), 16);
+                    int lo = Character.digit(s.charAt(i + 2), 16);
+                    if(hi < 0 || lo < 0)
+                    {
+                        throw new IllegalArgumentException("Failure decoding string '" + s.substring(start, end) + "' using encoding '" + encoding + "'.  (Illegal hex characters in escape (%) pattern)");
+                    }
+                    bytes[n++] = (byte)((hi << 4) + lo);
+                    i += 3;
+                }
+                try
                 {
-                    StringBuilder bf = new StringBuilder("Parsing query string.  Found raw pair [name]=[value]: ");
-                    bf.append('[').append(rawKey).append(']').append('=').append('[').append(rawVal).append(']');
-                    bf.append(" decoded to: ");
-                    bf.append('[').append(key).append(']').append('=').append('[').append(val[i]).append(']');
-                    LOG.trace(bf);
+                    sb.append(encoding == null ? new String(bytes, 0, n) : new String(bytes, 0, n, encoding));
                 }
+                catch(UnsupportedEncodingException ex)
+                {
+                    throw new IllegalStateException("Unexpected failure decoding string '" + s.substring(start, end) + "'using encoding '" + encoding + "'.  (" + ex + ")");
+                }
+            }
+            else
+            {
+                sb.append(c);
+                i++;
             }
-            res.put(key, val);
         }
-
-        return res;
+        return sb.toString();
     }
 
     /**
@@ -395,7 +953,7 @@ public abstract class LightweightAbstractAssembler implements Assembler
      *
      * @param parameters parameters to encode and place in the query string
      * @return the query string, or null if no values needed to be added.
-     * @see #encode(String)
+     * @see #appendEncoded(StringBuilder, String)
      */
     protected final String constructQueryString(Map<String, String[]> parameters)
     {
@@ -424,7 +982,8 @@ public abstract class LightweightAbstractAssembler implements Assembler
                             LOG.trace(bf);
 
                         }
-                        qryStr.append(encode(key)).append('=').append(encode(val));
+                        appendEncoded(qryStr, key).append('=');
+                        appendEncoded(qryStr, val);
                     }
                 }
             }
@@ -443,7 +1002,8 @@ public abstract class LightweightAbstractAssembler implements Assembler
 
     /**
      * Given an array of query-string-like packed arguments, eliminate the specified parameters and
-     * return the packedargs parameter with the values stripped.
+     * return the packedargs parameter with the values stripped.  The remaining name=value pairs are
+     * copied as-is, without being decoded and re-encoded.
      *
      * @param origPackedargsStrings array of query string-like packed args.
      * @param toExclude list of args to remove from the packed args.
@@ -467,22 +1027,7 @@ public abstract class LightweightAbstractAssembler implements Assembler
 
         for(int i = 0; i < origPackedargsStrings.length; i++)
         {
-            Map<String, String[]> oldPacked = parseQueryString(origPackedargsStrings[i]);
-            Map<String, String[]> newPacked = new HashMap<String, String[]>();
-            for(String opK : oldPacked.keySet())
-            {
-                if(LOG.isTraceEnabled())
-                {
-                    LOG.trace("checking to see if a param should be excluded from packedargs: " + opK);
-                }
-                if(!toExclude.contains(opK))
-                {
-                    newPacked.put(opK, oldPacked.get(opK));
-                }
-            }
-
-            newPackedargsStrings[i] = constructQueryString(newPacked);
-
+            newPackedargsStrings[i] = parseQuery(origPackedargsStrings[i]).exclude(toExclude);
         }
 
         return newPackedargsStrings;
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2008 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.lightweight;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A query string (or a query string-like value such as <code>packedargs</code>) that has been parsed once,
+ * and can then be queried and filtered any number of times.  The decoded parameters are available as a map,
+ * and the original name=value pairs are remembered so that parameters can be removed from the string without
+ * decoding and re-encoding the pairs that remain.
+ * <p/>
+ * Instances are created by {@link LightweightAbstractAssembler#parseQuery(String)}.
+ *
+ * @see LightweightAbstractAssembler#parseQueryString(String)
+ */
+public final class ParsedQueryString
+{
+    private final String raw;
+    private final int[] bounds;
+    private final int numPairs;
+    private final String[] names;
+
+    /**
+     * Decoded parameters.  Handed out directly by {@link LightweightAbstractAssembler#parseQueryString(String)},
+     * which is why it is not wrapped.
+     */
+    final Map<String, String[]> parameters;
+
+    /**
+     * @param raw original query string
+     * @param bounds trimmed {nameStart, nameEnd, valueStart, valueEnd} for each pair, in order of appearance
+     * @param numPairs number of pairs recorded in <code>bounds</code>
+     * @param names decoded name of each pair
+     * @param parameters decoded parameters
+     */
+    ParsedQueryString(String raw, int[] bounds, int numPairs, String[] names, Map<String, String[]> parameters)
+    {
+        this.raw = raw;
+        this.bounds = bounds;
+        this.numPairs = numPairs;
+        this.names = names;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the original query string.  May be null.
+     */
+    public String getRawQuery()
+    {
+        return raw;
+    }
+
+    /**
+     * @return unmodifiable map of decoded names to decoded values.
+     */
+    public Map<String, String[]> getParameters()
+    {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * @param name decoded parameter name
+     * @return all decoded values of the parameter, or null if it is not present.
+     */
+    public String[] getValues(String name)
+    {
+        return parameters.get(name);
+    }
+
+    /**
+     * @param name decoded parameter name
+     * @return the first decoded value of the parameter, or null if it is not present.
+     */
+    public String getValue(String name)
+    {
+        String[] values = parameters.get(name);
+        return values == null ? null : values[0];
+    }
+
+    /**
+     * Build a new query string that contains all of the pairs of this one except those whose (decoded) names are
+     * in the specified collection.  The remaining pairs are copied from the original string exactly as they were
+     * encoded.  As in {@link LightweightAbstractAssembler#constructQueryString}, pairs without a value are dropped.
+     *
+     * @param toExclude decoded names of the parameters to remove
+     * @return the new query string, or null if no pairs remain
+     */
+    public String exclude(Collection<String> toExclude)
+    {
+        StringBuilder sb = null;
+        for(int i = 0; i < numPairs; i++)
+        {
+            int pos = i * 4;
+            if(bounds[pos + 2] == bounds[pos + 3] || toExclude.contains(names[i]))
+            {
+                continue;
+            }
+            if(sb == null)
+            {
+                sb = new StringBuilder(raw.length());
+            }
+            else
+            {
+                sb.append('&');
+            }
+            sb.append(raw, bounds[pos], bounds[pos + 1]).append('=').append(raw, bounds[pos + 2], bounds[pos + 3]);
+        }
+        return sb == null ? null : sb.toString();
+    }
+
+    public String toString()
+    {
+        return raw == null ? "" : raw;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import COM.FutureTense.Interfaces.ICS;
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.uri.cache.LongHashSet;
+import com.fatwire.developernet.uri.itemcontext.aliasing.AssetRelationTreeParents;
+import com.fatwire.developernet.uri.itemcontext.aliasing.CachingAliasingStrategy;
+import com.fatwire.developernet.uri.itemcontext.aliasing.LocaleDimensionCache;
+import com.fatwire.developernet.uri.itemcontext.aliasing.MappedIndexAliasingStrategy;
+import com.fatwire.developernet.uri.itemcontext.aliasing.TranslationGraph;
+import com.openmarket.xcelerate.asset.AssetIdImpl;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Invalidates the JVM-wide caches used to compute and resolve item contexts and aliases, after assets have been
+ * published.</p>
+ * <p/>
+ * <p>{@link #invalidate} only removes what may have been affected by a set of changed assets:</p>
+ * <ul>
+ * <li>for a page, the page and every page placed below it in the Site Plan Tree, since their item contexts contain
+ * its alias.  The {@link SitePlanTreeIndex} is dropped as well, since the page may have been moved.</li>
+ * <li>for any other asset, such as the article holding the metadata of a page, the asset and its known
+ * translations, and the pages associated to any of them, with the pages below those.</li>
+ * </ul>
+ * <p>The associations cached for the assets, and those cached for other assets that include a changed page, are
+ * removed too, so that a page associated to a different article is not found through the old one.</p>
+ * <p>The {@link NegativeResultCache} is always emptied, since new aliases may resolve item contexts that could not
+ * be resolved before.</p>
+ * <p/>
+ * <p>Changed assets are also reported to the {@link MappedIndexAliasingStrategy}, whose index file is only replaced
+ * by {@link MappedIndexAliasingStrategy#rebuildIndex}; {@link #invalidateAll} leaves it alone.</p>
+ * <p/>
+ * <p>{@link #invalidateAll} empties all the caches.  Invalidations run one at a time, and both increment a JVM-wide
+ * generation counter when they start and again when they are done, so that the generation is odd while the caches
+ * are being invalidated.  The alias caches are invalidated before the item contexts and misses derived from them.
+ * Helpers read the generation before resolving an item context or an alias, and only cache the result if
+ * {@link #isCurrent} still holds for it; since the check and the put are not atomic, they check again after the
+ * put, and remove what they added if an invalidation has started in the meantime.  A resolution racing with a
+ * publish therefore cannot leave a stale result behind.</p>
+ * <p/>
+ * <p>Other caches derived from item contexts or aliases can be invalidated at the same time by registering an
+ * {@link InvalidationListener}.</p>
+ */
+public final class CacheInvalidator
+{
+    private static final Log LOG = LogFactory.getLog("com.fatwire.developernet.uri.siteplan.helper");
+
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    /**
+     * Held while invalidating, so that the generation is odd exactly while an invalidation is running.
+     */
+    private static final Object LOCK = new Object();
+
+    private static final List<InvalidationListener> LISTENERS = new CopyOnWriteArrayList<InvalidationListener>();
+
+    private CacheInvalidator()
+    {
+    }
+
+    /**
+     * @return the generation of the caches: twice the number of invalidations since the JVM started, plus one while
+     * an invalidation is running
+     */
+    public static long getGeneration()
+    {
+        return GENERATION.get();
+    }
+
+    /**
+     * @param generation generation read before reading the caches
+     * @return true if no invalidation was running when the generation was read, and none has started since, so that
+     * results computed in between may be cached
+     */
+    public static boolean isCurrent(long generation)
+    {
+        return (generation & 1L) == 0 && generation == GENERATION.get();
+    }
+
+    /**
+     * Register a listener, called after each invalidation.
+     *
+     * @param listener listener
+     */
+    public static void addListener(InvalidationListener listener)
+    {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * @param listener listener to stop notifying
+     */
+    public static void removeListener(InvalidationListener listener)
+    {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Empty all the caches and indexes.
+     *
+     * @return the new generation
+     */
+    public static long invalidateAll()
+    {
+        long generation;
+        synchronized(LOCK)
+        {
+            GENERATION.incrementAndGet();
+            try
+            {
+                CachingAliasingStrategy.clearAll();
+                LocaleDimensionCache.clear();
+                AssetRelationTreeParents.clear();
+                TranslationGraph.clear();
+                PageChildren.clearCache();
+                SitePlanTreeIndex.clear();
+                // after the caches they are computed from
+                ItemContextTrie.getInstance().clear();
+                NegativeResultCache.clear();
+            }
+            finally
+            {
+                generation = GENERATION.incrementAndGet();
+            }
+        }
+        for(InvalidationListener listener : LISTENERS)
+        {
+            try
+            {
+                listener.allInvalidated(generation);
+            }
+            catch(RuntimeException e)
+            {
+                LOG.warn("InvalidationListener " + listener + " failed", e);
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Invalidate the cached item contexts and aliases that may depend on some assets.
+     *
+     * @param ics context, used to find the pages associated to assets and the pages placed below pages
+     * @param changed assets that have been published, modified or deleted
+     * @return the new generation
+     */
+    public static long invalidate(ICS ics, Collection<AssetId> changed)
+    {
+        if(changed.isEmpty())
+        {
+            return GENERATION.get();
+        }
+        long start = System.currentTimeMillis();
+        Set<AssetId> assets = new HashSet<AssetId>(changed);
+        LongHashSet subtrees = null;
+        int itemContexts = 0;
+        long generation;
+        synchronized(LOCK)
+        {
+            GENERATION.incrementAndGet();
+            try
+            {
+                Set<Long> pages = new HashSet<Long>();
+                List<AssetId> changedPages = new ArrayList<AssetId>();
+                List<AssetId> others = new ArrayList<AssetId>();
+                for(AssetId id : changed)
+                {
+                    if("Page".equals(id.getType()))
+                    {
+                        pages.add(id.getId());
+                        changedPages.add(id);
+                    }
+                    else
+                    {
+                        others.add(id);
+                    }
+                }
+                boolean pageChanged = !pages.isEmpty();
+
+                // the parents are cached by child, such as the article holding the metadata of a page
+                AssetRelationTreeParents.invalidateParents(changedPages);
+
+                if(!others.isEmpty())
+                {
+                    // the pages associated to the assets or to their translations, before and after the change
+                    Set<AssetId> related = new HashSet<AssetId>(others);
+                    related.addAll(TranslationGraph.invalidate(others));
+                    assets.addAll(related);
+                    Set<AssetId> referring = AssetRelationTreeParents.invalidate(related);
+                    for(List<AssetId> parents : AssetRelationTreeParents.getInstance(ics).getParents(ics, related, "Page", null).values())
+                    {
+                        referring.addAll(parents);
+                    }
+                    for(AssetId page : referring)
+                    {
+                        if("Page".equals(page.getType()))
+                        {
+                            pages.add(page.getId());
+                        }
+                    }
+                }
+
+                if(!pages.isEmpty())
+                {
+                    LongHashSet roots = new LongHashSet(pages.size());
+                    for(Long p : pages)
+                    {
+                        roots.add(p);
+                        assets.add(new AssetIdImpl("Page", p));
+                    }
+                    SitePlanTreeIndex index = SitePlanTreeIndex.getCurrentInstance();
+                    boolean built = index == null;
+                    if(built)
+                    {
+                        index = SitePlanTreeIndex.getInstance(ics);
+                    }
+                    subtrees = index.getSubtrees(roots);
+                    for(Long p : pages)
+                    {
+                        subtrees.add(p);
+                    }
+                    if(pageChanged && !built)
+                    {
+                        // pages may have been moved
+                        SitePlanTreeIndex.clear();
+                    }
+                }
+                // before the caches that may wrap it, so that they cannot be refilled from its old aliases
+                MappedIndexAliasingStrategy.invalidate(ics, assets);
+                CachingAliasingStrategy.invalidate(assets);
+                LocaleDimensionCache.invalidate(assets);
+                PageChildren.invalidate(pages);
+                // after the aliases they are computed from
+                if(subtrees != null)
+                {
+                    itemContexts = ItemContextTrie.getInstance().removePages(subtrees);
+                }
+                NegativeResultCache.clear();
+            }
+            finally
+            {
+                generation = GENERATION.incrementAndGet();
+            }
+        }
+
+        if(LOG.isInfoEnabled())
+        {
+            LOG.info("Invalidated caches for " + changed.size() + " assets: " + assets.size() + " assets and " + (subtrees == null ? 0 : subtrees.size()) + " pages affected, " + itemContexts + " item contexts removed in " + (System.currentTimeMillis() - start) + "ms, generation " + generation);
+        }
+        if(!LISTENERS.isEmpty())
+        {
+            LongHashSet affected = subtrees == null ? new LongHashSet(0) : subtrees;
+            for(InvalidationListener listener : LISTENERS)
+            {
+                try
+                {
+                    listener.assetsInvalidated(changed, affected, generation);
+                }
+                catch(RuntimeException e)
+                {
+                    LOG.warn("InvalidationListener " + listener + " failed", e);
+                }
+            }
+        }
+        return generation;
+    }
+}
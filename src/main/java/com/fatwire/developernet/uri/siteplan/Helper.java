@@ -15,15 +15,16 @@ import com.fatwire.assetapi.data.AssetId;
 import com.fatwire.developernet.CSRuntimeException;
 import com.fatwire.developernet.facade.runtag.example.asset.Children;
 import com.fatwire.developernet.facade.runtag.example.siteplan.NodePath;
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.cache.SingleFlight;
 import com.fatwire.developernet.uri.itemcontext.aliasing.*;
 import com.fatwire.mda.Dimension;
 import com.openmarket.xcelerate.asset.AssetIdImpl;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 
 import static com.fatwire.developernet.IListUtils.getLongValue;
@@ -73,7 +74,23 @@ import static com.fatwire.developernet.IListUtils.getStringValue;
  * or uses the path attribute for other asset types.</li>
  * <li>{@link MultilingualPageMetadataArticleAliasingStrategy} uses hte path attribute of an article associated
  * to the specified page asset, and then translates the article into the locale specified.</li>
+ * <li>{@link CachingAliasingStrategy} caches the aliases computed by any of the above, configured in its own
+ * property.</li>
  * </ul>
+ * <p>The property {@link #PROPERTY_SITEPLAN_INDEX} makes {@link #computeItemContext} read the Site Plan Tree from the
+ * JVM-wide {@link SitePlanTreeIndex} instead of looking up the node path of each page in the database.</p>
+ * <p>The property {@link #PROPERTY_ITEM_CONTEXT_INDEX} makes {@link #resolvePForItemContext} and
+ * {@link #resolveDimensionForItemContext} remember their results in the JVM-wide {@link ItemContextTrie}.</p>
+ * <p>The property {@link #PROPERTY_NEGATIVE_CACHE_TTL} makes {@link #resolvePForItemContext},
+ * {@link #resolveDimensionForItemContext} and {@link #resolveCidFromAlias} remember the item contexts and aliases
+ * that could not be resolved, in the JVM-wide {@link NegativeResultCache}.</p>
+ * <p>The property {@link #PROPERTY_PAGE_CHILDREN_CACHE_TTL} makes {@link #resolveCidFromAlias} remember the assets
+ * placed on each page it looks at, in the JVM-wide cache of {@link PageChildren}.</p>
+ * <p>The property {@link #PROPERTY_SINGLE_FLIGHT_TIMEOUT} makes concurrent requests resolving the same item context
+ * or alias wait for the first one's result instead of all querying the database.</p>
+ * <p>All JVM-wide caches used by this class are emptied by {@link #clearCaches}, which should be called after
+ * publishing.  {@link CacheInvalidator#invalidate} only removes what depends on the assets that were published.</p>
+ * <p>{@link SitePlanWarmer} fills the enabled caches for every page of the Site Plan Tree, typically at startup.</p>
  * <p/>
  * <p><strong>Usage</strong></p>
  * <p>This helper class needs to be used in two places - when URLs are first created, and when URLs are decomposed and
@@ -174,9 +191,121 @@ public class Helper
      */
     public static final String PROPERTY_ALIASING_STRATEGY_DEFAULT = IdAliasingStrategy.class.getName();
 
+    /**
+     * Property specifying whether to compute item contexts using the in-memory {@link SitePlanTreeIndex} instead of
+     * looking up the node path of each page in the database.  The index is shared by the whole JVM, and must be
+     * rebuilt when the Site Plan Tree changes.
+     *
+     * @see #PROPERTY_SITEPLAN_INDEX_DEFAULT
+     */
+    public static final String PROPERTY_SITEPLAN_INDEX = "com.fatwire.developernet.uri.siteplan.helper.siteplan-index";
+
+    /**
+     * Default value for the {@link #PROPERTY_SITEPLAN_INDEX} property.  The index is not used by default.
+     */
+    public static final String PROPERTY_SITEPLAN_INDEX_DEFAULT = "false";
+
+    /**
+     * Property specifying whether to remember resolved item contexts in the JVM-wide {@link ItemContextTrie}, so
+     * that resolving the same item context again takes a single lookup instead of a candidate search.  The index must
+     * be cleared when page aliases or the Site Plan Tree change.
+     *
+     * @see #PROPERTY_ITEM_CONTEXT_INDEX_DEFAULT
+     */
+    public static final String PROPERTY_ITEM_CONTEXT_INDEX = "com.fatwire.developernet.uri.siteplan.helper.item-context-index";
+
+    /**
+     * Default value for the {@link #PROPERTY_ITEM_CONTEXT_INDEX} property.  The index is not used by default.
+     */
+    public static final String PROPERTY_ITEM_CONTEXT_INDEX_DEFAULT = "false";
+
+    /**
+     * Property specifying for how many seconds item contexts and aliases that could not be resolved are remembered
+     * in the JVM-wide {@link NegativeResultCache}.  While they are, resolving them again fails immediately.  0 means
+     * misses are not remembered.
+     *
+     * @see #PROPERTY_NEGATIVE_CACHE_TTL_DEFAULT
+     */
+    public static final String PROPERTY_NEGATIVE_CACHE_TTL = "com.fatwire.developernet.uri.siteplan.helper.negative-cache-ttl-seconds";
+
+    /**
+     * Default value for the {@link #PROPERTY_NEGATIVE_CACHE_TTL} property.  Misses are not remembered by default.
+     */
+    public static final String PROPERTY_NEGATIVE_CACHE_TTL_DEFAULT = "0";
+
+    /**
+     * Property specifying the maximum number of item contexts, and of aliases, held by the
+     * {@link NegativeResultCache}.  Only used when the cache is created.
+     *
+     * @see #PROPERTY_NEGATIVE_CACHE_SIZE_DEFAULT
+     */
+    public static final String PROPERTY_NEGATIVE_CACHE_SIZE = "com.fatwire.developernet.uri.siteplan.helper.negative-cache-size";
+
+    /**
+     * Default value for the {@link #PROPERTY_NEGATIVE_CACHE_SIZE} property.
+     */
+    public static final String PROPERTY_NEGATIVE_CACHE_SIZE_DEFAULT = "10000";
+
+    /**
+     * Property specifying for how many seconds the assets placed on a page are remembered, once they have been looked
+     * up to tell apart assets sharing an alias.  0 means they are looked up every time.
+     *
+     * @see #PROPERTY_PAGE_CHILDREN_CACHE_TTL_DEFAULT
+     */
+    public static final String PROPERTY_PAGE_CHILDREN_CACHE_TTL = "com.fatwire.developernet.uri.siteplan.helper.page-children-cache-ttl-seconds";
+
+    /**
+     * Default value for the {@link #PROPERTY_PAGE_CHILDREN_CACHE_TTL} property.  Children are not remembered by
+     * default.
+     */
+    public static final String PROPERTY_PAGE_CHILDREN_CACHE_TTL_DEFAULT = "0";
+
+    /**
+     * Property specifying the maximum number of pages whose children are remembered.  Only used when the cache is
+     * created.
+     *
+     * @see #PROPERTY_PAGE_CHILDREN_CACHE_SIZE_DEFAULT
+     */
+    public static final String PROPERTY_PAGE_CHILDREN_CACHE_SIZE = "com.fatwire.developernet.uri.siteplan.helper.page-children-cache-size";
+
+    /**
+     * Default value for the {@link #PROPERTY_PAGE_CHILDREN_CACHE_SIZE} property.
+     */
+    public static final String PROPERTY_PAGE_CHILDREN_CACHE_SIZE_DEFAULT = "1000";
+
+    /**
+     * Property specifying how many milliseconds a thread waits for another thread that is already resolving the
+     * same item context or alias, before resolving it itself.  0 means every thread does its own resolution.
+     *
+     * @see #PROPERTY_SINGLE_FLIGHT_TIMEOUT_DEFAULT
+     */
+    public static final String PROPERTY_SINGLE_FLIGHT_TIMEOUT = "com.fatwire.developernet.uri.siteplan.helper.single-flight-timeout-ms";
+
+    /**
+     * Default value for the {@link #PROPERTY_SINGLE_FLIGHT_TIMEOUT} property.  Resolutions are not coalesced by
+     * default.
+     */
+    public static final String PROPERTY_SINGLE_FLIGHT_TIMEOUT_DEFAULT = "0";
+
+    /**
+     * Item context resolutions in progress, by item context and locale.
+     */
+    private static final SingleFlight<List<Object>, CandidateInfo> ITEM_CONTEXT_FLIGHTS = new SingleFlight<List<Object>, CandidateInfo>();
+
+    /**
+     * Alias resolutions in progress, by asset type, alias, page and locale.
+     */
+    private static final SingleFlight<List<Object>, Long> ALIAS_FLIGHTS = new SingleFlight<List<Object>, Long>();
+
     private final int lowestLevelToInclude;
+    private final boolean useSitePlanIndex;
+    private final boolean useItemContextIndex;
+    private final NegativeResultCache negativeCache;
+    private final long singleFlightTimeout;
+    private final BoundedCache<Long, PageChildren> pageChildrenCache;
     private final ICS ics;
-    private final AssetAliasingStrategy translator;
+    private final HelperConfiguration config;
+    private AssetAliasingStrategy translator;
 
     /**
      * Utility function for automatically resolving standardized variable names, and populating the ICS context with
@@ -259,71 +388,55 @@ public class Helper
      * Helper class for looking up cpath and ppath in URLs.  This class contains a reference to the ICS context and
      * must be released prior to the destruction of the ICS object.  Typically, instantiating a new instance for each
      * JSP is sufficient.  In the case of a reusable controller, it should be re-instantiated on each request.
+     * <p/>
+     * Creating a helper is cheap: the configuration is read once and shared by all helpers, and the aliasing strategy
+     * is only instantiated when it is first needed.
      *
      * @param ics context.
      */
     public Helper(ICS ics)
     {
         this.ics = ics;
-        lowestLevelToInclude = Integer.parseInt(_getProperty(PROPERTY_MAX_DEPTH_PROP_NAME, PROPERTY_MAX_DEPTH_PROP_NAME_DEFAULT));
-        translator = _getAliasingStrategy(_getProperty(PROPERTY_ALIASING_STRATEGY, PROPERTY_ALIASING_STRATEGY_DEFAULT), ics);
+        config = HelperConfiguration.getInstance(ics);
+        lowestLevelToInclude = config.getLowestLevelToInclude();
+        useSitePlanIndex = config.isUseSitePlanIndex();
+        useItemContextIndex = config.isUseItemContextIndex();
+        negativeCache = config.getNegativeCache();
+        pageChildrenCache = config.getPageChildrenCache();
+        singleFlightTimeout = config.getSingleFlightTimeout();
     }
 
     /**
-     * Instantiate the aliasing strategy
-     *
-     * @param clazz class name to instantiate
-     * @param ics context
-     * @return strategy
+     * Drop the configuration shared by all helpers, so that the next helper created reads the properties again.
+     * Helpers that already exist keep their configuration.
      */
-    private AssetAliasingStrategy _getAliasingStrategy(String clazz, ICS ics)
+    public static void resetConfiguration()
     {
-        Class c;
-        Constructor con;
-        Object o;
+        HelperConfiguration.reset();
+    }
 
-        try
-        {c = Class.forName(clazz);}
-        catch(ClassNotFoundException e)
-        {
-            throw new CSRuntimeException("Could not find class for AssetAliasingStrategy.", ftErrors.exceptionerr, e);
-        }
-        try
-        {con = c.getConstructor(ICS.class);}
-        catch(NoSuchMethodException e)
-        {
-            throw new CSRuntimeException("Class " + clazz + " does not have a suitable constructor.", ftErrors.exceptionerr, e);
-        }
-        try
-        {o = con.newInstance(ics);}
-        catch(InstantiationException e)
-        {
-            throw new CSRuntimeException("Could not instantiate " + clazz, ftErrors.exceptionerr, e);
-        }
-        catch(IllegalAccessException e)
-        {
-            throw new CSRuntimeException("Illegal access attempting to instantiate " + clazz, ftErrors.exceptionerr, e);
-        }
-        catch(InvocationTargetException e)
-        {
-            throw new CSRuntimeException("Attempted to instantiate " + clazz + " but the constructor threw an exception: " + e.getTargetException(), ftErrors.exceptionerr, e);
-        }
-        AssetAliasingStrategy aas = (AssetAliasingStrategy)o;
-        if(LOG.isDebugEnabled())
-        {
-            LOG.debug("Successfully instantiated AssetAliasingStrategy: " + clazz + ": " + aas);
-        }
-        return aas;
+    /**
+     * Empty all the JVM-wide caches and indexes used to compute and resolve item contexts and aliases, so that
+     * changes to assets or to the Site Plan Tree become visible.  Call this after a publish, or use
+     * {@link CacheInvalidator#invalidate} when the published assets are known.
+     */
+    public static void clearCaches()
+    {
+        CacheInvalidator.invalidateAll();
     }
 
-    private String _getProperty(String name, String dephault)
+    /**
+     * Instantiate the aliasing strategy the first time it is needed.
+     *
+     * @return strategy
+     */
+    private AssetAliasingStrategy _getTranslator()
     {
-        String s = ics.GetProperty(name, CONFIGURATION_FILE_NAME, true);
-        if(!Utilities.goodString(s))
+        if(translator == null)
         {
-            s = System.getProperty(name, dephault);
+            translator = config.newAliasingStrategy(ics);
         }
-        return s;
+        return translator;
     }
 
     /**
@@ -370,32 +483,78 @@ public class Helper
         {
             LOG.debug("computeAlias: Computing alias for asset-locale:" + id + "-" + localeName);
         }
-        String result = translator.computeAlias(id, localeName);
-
-        Matcher m = AssetAliasingStrategy.ILLEGAL_CHARACTER_PATTERN.matcher(result);
+        String result = _checkAlias(id, localeName, _getTranslator().computeAlias(id, localeName));
+        if(LOG.isDebugEnabled())
+        {
+            LOG.debug("computeAlias: Computed alias for asset-locale:" + id + "-" + localeName + " and got: " + result);
+        }
+        return result;
+    }
 
-        if(m.find())
+    /**
+     * Compute the aliases of several assets, in a single call if the aliasing strategy supports it.
+     *
+     * @param ids asset ids
+     * @param localeName name of the locale for which the aliases should be computed
+     * @return aliases in the same order as the ids, with null for assets without a usable alias
+     */
+    private List<String> _computeAliases(List<AssetId> ids, final String localeName)
+    {
+        AssetAliasingStrategy strategy = _getTranslator();
+        if(!(strategy instanceof BulkAssetAliasingStrategy))
         {
-            if(LOG.isDebugEnabled())
+            List<String> result = new ArrayList<String>(ids.size());
+            for(AssetId id : ids)
             {
-                LOG.debug("Computed alias from " + id + ":" + localeName + " but found illegal characters in it and therefore cannot use it: " + result);
+                result.add(computeAlias(id, localeName));
             }
-            result = null;
+            return result;
         }
         if(LOG.isDebugEnabled())
         {
-            LOG.debug("computeAlias: Computed alias for asset-locale:" + id + "-" + localeName + " and got: " + result);
+            LOG.debug("_computeAliases: Computing aliases for assets-locale:" + ids + "-" + localeName);
+        }
+        List<String> aliases = ((BulkAssetAliasingStrategy)strategy).computeAliases(ids, localeName);
+        List<String> result = new ArrayList<String>(ids.size());
+        for(int i = 0; i < ids.size(); i++)
+        {
+            result.add(_checkAlias(ids.get(i), localeName, aliases.get(i)));
+        }
+        if(LOG.isDebugEnabled())
+        {
+            LOG.debug("_computeAliases: Computed aliases for assets-locale:" + ids + "-" + localeName + " and got: " + result);
         }
         return result;
     }
 
+    /**
+     * @return the alias, or null if it is null or contains characters that cannot be used in a URL
+     */
+    private String _checkAlias(AssetId id, String localeName, String alias)
+    {
+        if(alias == null)
+        {
+            return null;
+        }
+        Matcher m = AssetAliasingStrategy.ILLEGAL_CHARACTER_PATTERN.matcher(alias);
+        if(m.find())
+        {
+            if(LOG.isDebugEnabled())
+            {
+                LOG.debug("Computed alias from " + id + ":" + localeName + " but found illegal characters in it and therefore cannot use it: " + alias);
+            }
+            return null;
+        }
+        return alias;
+    }
+
 
     /**
      * Given an input page asset id, create a breadcrumb-like path structure
      * for it.  If any page asset does not have an alias specified, no context is returned.
      * <p/>
-     * Note that the value for each individual element is computed using the {@link #computeAlias}
-     * method defined above.  This allows for the alias attribute to be provided in various ways,
+     * Note that the value for each individual element is computed as in the {@link #computeAlias}
+     * method defined above, in a single call if the aliasing strategy implements {@link BulkAssetAliasingStrategy}.  This allows for the alias attribute to be provided in various ways,
      * such as by looking up the "path" field or by looking up the "path" field of an associated asset.
      *
      * @param p page id
@@ -409,10 +568,14 @@ public class Helper
             LOG.debug("computeItemContext: Attempting to calculate ppath for Page:" + p + "-" + localeName + " with lowest level to include set to " + lowestLevelToInclude);
         }
 
-        IList nodepath = NodePath.getNodePathForPage(ics, p);
+        List<AssetId> trimmedBreadcrumbPath = _getBreadcrumbFromIndex(p);
+        if(trimmedBreadcrumbPath == null)
+        {
+            IList nodepath = NodePath.getNodePathForPage(ics, p);
 
-        List<AssetId> trimmedBreadcrumbPath = _pruneNodePathAndReverse(nodepath);
-        trimmedBreadcrumbPath.add(new AssetIdImpl("Page", p)); // add self, since it does not appear in NodePath
+            trimmedBreadcrumbPath = _pruneNodePathAndReverse(nodepath);
+            trimmedBreadcrumbPath.add(new AssetIdImpl("Page", p)); // add self, since it does not appear in NodePath
+        }
 
         String ppath = _listToString(trimmedBreadcrumbPath, localeName);
 
@@ -442,6 +605,35 @@ public class Helper
         }
     }
 
+    /**
+     * Look up the trimmed breadcrumb of a page, including the page itself, in the {@link SitePlanTreeIndex}.
+     *
+     * @param p page id
+     * @return breadcrumb, or null if the index is not used or does not contain the page
+     */
+    private List<AssetId> _getBreadcrumbFromIndex(long p)
+    {
+        if(!useSitePlanIndex)
+        {
+            return null;
+        }
+        long[] ids = SitePlanTreeIndex.getInstance(ics).getBreadcrumb(p, lowestLevelToInclude);
+        if(ids == null)
+        {
+            if(LOG.isTraceEnabled())
+            {
+                LOG.trace("_getBreadcrumbFromIndex: Page " + p + " not found in SitePlanTreeIndex, looking up its node path");
+            }
+            return null;
+        }
+        List<AssetId> list = new ArrayList<AssetId>(ids.length);
+        for(long id : ids)
+        {
+            list.add(new AssetIdImpl("Page", id));
+        }
+        return list;
+    }
+
     private List<AssetId> _pruneNodePathAndReverse(IList nodepath)
     {
         List<AssetId> list = new ArrayList<AssetId>();
@@ -507,19 +699,20 @@ public class Helper
     {
         if(list.size() > 0)
         {
+            if(list.contains(null))
+            {
+                throw new IllegalStateException("Found null value in ID list. List:" + list);
+            }
+            List<String> cpaths = _computeAliases(list, localeName);
             StringBuilder sb = new StringBuilder();
-            for(AssetId id : list)
+            for(int i = 0; i < cpaths.size(); i++)
             {
-                if(id == null)
-                {
-                    throw new IllegalStateException("Found null value in ID list. List:" + list);
-                }
-                String cpath = computeAlias(id, localeName);
+                String cpath = cpaths.get(i);
                 if(cpath == null || cpath.length() == 0)
                 {
                     if(LOG.isTraceEnabled())
                     {
-                        LOG.trace("_listToString: Computed cpath for page " + id + " and failed to return a value.  Cannot compute ppath for " + list.get(list.size() - 1));
+                        LOG.trace("_listToString: Computed cpath for page " + list.get(i) + " and failed to return a value.  Cannot compute ppath for " + list.get(list.size() - 1));
                     }
                     return null;
                 }
@@ -589,7 +782,7 @@ public class Helper
      * @param locale id of the locale
      * @return id of asset.  Never null.  If not resolvable, an exception is thrown (as this should never occur)
      */
-    public long resolveCidFromAlias(String c, String alias, long p, String locale)
+    public long resolveCidFromAlias(final String c, final String alias, final long p, final String locale)
     {
         if(LOG.isDebugEnabled())
         {
@@ -602,11 +795,31 @@ public class Helper
             return p;
         }
 
+        if(singleFlightTimeout > 0)
+        {
+            return ALIAS_FLIGHTS.execute(Arrays.<Object>asList(c, alias, p, locale), new Callable<Long>()
+            {
+                public Long call()
+                {
+                    return _resolveCidFromAlias(c, alias, p, locale);
+                }
+            }, singleFlightTimeout);
+        }
+        return _resolveCidFromAlias(c, alias, p, locale);
+    }
+
+    private long _resolveCidFromAlias(String c, String alias, long p, String locale)
+    {
         // next try to load the asset by path. if we get a unique value, great!
         // if we don't get a unique value, load p, and try to see if p is associated
         // with one of the cpath candidates.
         final long result;
-        List<CandidateInfo> candidates = translator.findCandidatesForAlias(c, alias);
+        long generation = CacheInvalidator.getGeneration();
+        if(negativeCache != null && negativeCache.isUnresolvableAlias(c, alias, locale))
+        {
+            throw new CSRuntimeException("Could not locate any assets in the database with a cpath matching: " + alias + " and locale " + locale + " (cached)", ftErrors.badparams);
+        }
+        List<CandidateInfo> candidates = _getTranslator().findCandidatesForAlias(c, alias);
 
         // Let the translator find all suitable candidates.
         // We then filter
@@ -626,6 +839,15 @@ public class Helper
         {
             case 0:
             {
+                if(negativeCache != null && CacheInvalidator.isCurrent(generation))
+                {
+                    negativeCache.addUnresolvableAlias(c, alias, locale);
+                    if(!CacheInvalidator.isCurrent(generation))
+                    {
+                        // invalidated while adding it: the miss may be stale, and may not have been cleared
+                        negativeCache.removeUnresolvableAlias(c, alias, locale);
+                    }
+                }
                 throw new CSRuntimeException("Could not locate any assets in the database with a cpath matching: " + alias + " and locale " + locale, ftErrors.badparams);
             }
             case 1:
@@ -641,7 +863,7 @@ public class Helper
             {
                 // Too bad.  Not a unique name.  Try to find an asset in the candidate
                 // list that is associated with p.
-                List<AssetId> pageKids = _findChildrenOfPage(p);
+                PageChildren pageKids = _getChildrenOfPage(p);
 
                 List<AssetId> matches = new ArrayList<AssetId>();
                 for(CandidateInfo candidate : candidates)
@@ -669,7 +891,7 @@ public class Helper
      * @return the matching candidate
      * @throws CSRuntimeException in case no match can be found.
      */
-    CandidateInfo resolveItemContext(String item_context, String locale)
+    CandidateInfo resolveItemContext(final String item_context, final String locale)
     {
         LOG.trace("resolveItemContext: Attempting to resolve P for ppath: " + item_context);
         if(item_context == null)
@@ -677,9 +899,44 @@ public class Helper
             throw new IllegalArgumentException("Null ppath not allowed");
         }
 
+        if(singleFlightTimeout > 0)
+        {
+            return ITEM_CONTEXT_FLIGHTS.execute(Arrays.<Object>asList(item_context, locale), new Callable<CandidateInfo>()
+            {
+                public CandidateInfo call()
+                {
+                    return _resolveItemContext(item_context, locale);
+                }
+            }, singleFlightTimeout);
+        }
+        return _resolveItemContext(item_context, locale);
+    }
+
+    private CandidateInfo _resolveItemContext(String item_context, String locale)
+    {
+        long generation = CacheInvalidator.getGeneration();
+
+        if(useItemContextIndex)
+        {
+            CandidateInfo indexed = ItemContextTrie.getInstance().get(locale, item_context);
+            if(indexed != null)
+            {
+                if(LOG.isTraceEnabled())
+                {
+                    LOG.trace("resolveItemContext: Found asset matching ppath: " + item_context + " and locale " + locale + " in ItemContextTrie, asset is : " + indexed);
+                }
+                return indexed;
+            }
+        }
+
+        if(negativeCache != null && negativeCache.isUnresolvableItemContext(locale, item_context))
+        {
+            throw new CSRuntimeException("No page found that matches the ppath specified: " + item_context + ", and locale: " + locale + " (cached)", ftErrors.pagenotfound);
+        }
+
         String[] breadcrumb = item_context.split("/");
 
-        List<CandidateInfo> rightmostCandidates = translator.findCandidatesForAlias("Page", breadcrumb[breadcrumb.length - 1]);
+        List<CandidateInfo> rightmostCandidates = _getTranslator().findCandidatesForAlias("Page", breadcrumb[breadcrumb.length - 1]);
         for(CandidateInfo rightmostCandidate : rightmostCandidates)
         {
             String candidatePpath = computeItemContext(rightmostCandidate.getId().getId(), rightmostCandidate.getDim() == null ? null : rightmostCandidate.getDim().getName());
@@ -691,6 +948,15 @@ public class Helper
                     if(LOG.isTraceEnabled()) {
                         LOG.trace("resolveItemContext: Found asset matching ppath: " + item_context + " and locale " + locale + ", asset is : " + rightmostCandidate );
                     }
+                    if(useItemContextIndex && CacheInvalidator.isCurrent(generation))
+                    {
+                        ItemContextTrie.getInstance().put(locale, item_context, rightmostCandidate);
+                        if(!CacheInvalidator.isCurrent(generation))
+                        {
+                            // invalidated while adding it: the page may be stale, and may not have been removed
+                            ItemContextTrie.getInstance().remove(locale, item_context);
+                        }
+                    }
                     return rightmostCandidate;
                 } else {
                     if(LOG.isTraceEnabled()) {
@@ -700,6 +966,14 @@ public class Helper
             }
         }
 
+        if(negativeCache != null && CacheInvalidator.isCurrent(generation))
+        {
+            negativeCache.addUnresolvableItemContext(locale, item_context);
+            if(!CacheInvalidator.isCurrent(generation))
+            {
+                negativeCache.removeUnresolvableItemContext(locale, item_context);
+            }
+        }
         throw new CSRuntimeException("No page found that matches the ppath specified: " + item_context + ", and locale: " + locale, ftErrors.pagenotfound);
     }
 
@@ -729,6 +1003,82 @@ public class Helper
         }
     }
 
+    /**
+     * Get the children of a page, from the cache if it is enabled.
+     */
+    private PageChildren _getChildrenOfPage(long p)
+    {
+        if(pageChildrenCache == null)
+        {
+            return new PageChildren(_findChildrenOfPage(p));
+        }
+        PageChildren children = pageChildrenCache.get(p);
+        if(children == null)
+        {
+            children = new PageChildren(_findChildrenOfPage(p));
+            pageChildrenCache.put(p, children);
+        }
+        return children;
+    }
+
+    /**
+     * Compute and resolve the item context of a page in a locale, and the aliases of the assets placed on it, so
+     * that they are in the caches when the first request for them arrives.  Used by {@link SitePlanWarmer}.  Pages
+     * that have no item context, because they are above the lowest level included or have no alias, are not
+     * resolved, but the assets placed on them are.
+     *
+     * @param p page id
+     * @param locale locale, or null to use no locale
+     * @return number of assets placed on the page that have an alias
+     * @throws CSRuntimeException if the item context of the page cannot be resolved in that locale
+     */
+    int warm(long p, Dimension locale)
+    {
+        String localeName = locale == null ? null : locale.getName();
+        String localeId = locale == null ? null : String.valueOf(locale.getId().getId());
+        String itemContext = computeItemContext(p, localeName);
+        if(itemContext != null)
+        {
+            resolveItemContext(itemContext, localeId);
+        }
+
+        List<AssetId> kids = _findChildrenOfPage(p);
+        if(pageChildrenCache != null)
+        {
+            pageChildrenCache.put(p, new PageChildren(kids));
+        }
+        if(kids.isEmpty())
+        {
+            return 0;
+        }
+        List<String> aliases = _computeAliases(kids, localeName);
+        int numAliases = 0;
+        for(int i = 0; i < kids.size(); i++)
+        {
+            String alias = aliases.get(i);
+            if(alias != null)
+            {
+                numAliases++;
+            }
+            if(alias != null && !"Page".equals(kids.get(i).getType()))
+            {
+                try
+                {
+                    resolveCidFromAlias(kids.get(i).getType(), alias, p, localeId);
+                }
+                catch(CSRuntimeException e)
+                {
+                    // the asset may not exist in that locale
+                    if(LOG.isTraceEnabled())
+                    {
+                        LOG.trace("warm: could not resolve alias " + alias + " of " + kids.get(i) + " on page " + p + " in locale " + localeId + ": " + e);
+                    }
+                }
+            }
+        }
+        return numAliases;
+    }
+
     private List<AssetId> _findChildrenOfPage(long p)
     {
         Children assetChildren = new Children();
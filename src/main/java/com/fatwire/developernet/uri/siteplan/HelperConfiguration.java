@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Interfaces.Utilities;
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.itemcontext.aliasing.AliasingStrategyFactory;
+import com.fatwire.developernet.uri.itemcontext.aliasing.AssetAliasingStrategy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static com.fatwire.developernet.uri.siteplan.Helper.*;
+
+/**
+ * Immutable snapshot of the {@link Helper} configuration, shared by all the helpers of the JVM.  The properties are
+ * read, and the class of the aliasing strategy is looked up, the first time a helper is created, so that
+ * creating a helper for each request only copies a few fields.
+ *
+ * @see Helper#resetConfiguration
+ */
+final class HelperConfiguration
+{
+    private static final Log LOG = LogFactory.getLog("com.fatwire.developernet.uri.siteplan.helper");
+
+    private static volatile HelperConfiguration instance;
+
+    private final int lowestLevelToInclude;
+    private final boolean useSitePlanIndex;
+    private final boolean useItemContextIndex;
+    private final NegativeResultCache negativeCache;
+    private final BoundedCache<Long, PageChildren> pageChildrenCache;
+    private final long singleFlightTimeout;
+    private final AliasingStrategyFactory aliasingStrategyFactory;
+
+    private HelperConfiguration(ICS ics)
+    {
+        lowestLevelToInclude = Integer.parseInt(_getProperty(ics, PROPERTY_MAX_DEPTH_PROP_NAME, PROPERTY_MAX_DEPTH_PROP_NAME_DEFAULT));
+        useSitePlanIndex = Boolean.valueOf(_getProperty(ics, PROPERTY_SITEPLAN_INDEX, PROPERTY_SITEPLAN_INDEX_DEFAULT)).booleanValue();
+        useItemContextIndex = Boolean.valueOf(_getProperty(ics, PROPERTY_ITEM_CONTEXT_INDEX, PROPERTY_ITEM_CONTEXT_INDEX_DEFAULT)).booleanValue();
+        long negativeCacheTtl = Long.parseLong(_getProperty(ics, PROPERTY_NEGATIVE_CACHE_TTL, PROPERTY_NEGATIVE_CACHE_TTL_DEFAULT));
+        negativeCache = negativeCacheTtl > 0 ? NegativeResultCache.getInstance(Integer.parseInt(_getProperty(ics, PROPERTY_NEGATIVE_CACHE_SIZE, PROPERTY_NEGATIVE_CACHE_SIZE_DEFAULT)), negativeCacheTtl * 1000L) : null;
+        long pageChildrenCacheTtl = Long.parseLong(_getProperty(ics, PROPERTY_PAGE_CHILDREN_CACHE_TTL, PROPERTY_PAGE_CHILDREN_CACHE_TTL_DEFAULT));
+        pageChildrenCache = pageChildrenCacheTtl > 0 ? PageChildren.getCache(Integer.parseInt(_getProperty(ics, PROPERTY_PAGE_CHILDREN_CACHE_SIZE, PROPERTY_PAGE_CHILDREN_CACHE_SIZE_DEFAULT)), pageChildrenCacheTtl * 1000L) : null;
+        singleFlightTimeout = Long.parseLong(_getProperty(ics, PROPERTY_SINGLE_FLIGHT_TIMEOUT, PROPERTY_SINGLE_FLIGHT_TIMEOUT_DEFAULT));
+        aliasingStrategyFactory = AliasingStrategyFactory.getInstance(_getProperty(ics, PROPERTY_ALIASING_STRATEGY, PROPERTY_ALIASING_STRATEGY_DEFAULT));
+    }
+
+    /**
+     * Get the configuration, reading it if this has not been done yet.
+     *
+     * @param ics context, used only if the configuration needs to be read
+     * @return the configuration
+     */
+    static HelperConfiguration getInstance(ICS ics)
+    {
+        HelperConfiguration cfg = instance;
+        if(cfg == null)
+        {
+            synchronized(HelperConfiguration.class)
+            {
+                cfg = instance;
+                if(cfg == null)
+                {
+                    cfg = new HelperConfiguration(ics);
+                    instance = cfg;
+                    if(LOG.isDebugEnabled())
+                    {
+                        LOG.debug("Read Helper configuration: " + cfg);
+                    }
+                }
+            }
+        }
+        return cfg;
+    }
+
+    /**
+     * Drop the configuration.  It will be read again the next time a helper is created.
+     */
+    static void reset()
+    {
+        synchronized(HelperConfiguration.class)
+        {
+            instance = null;
+        }
+    }
+
+    private static String _getProperty(ICS ics, String name, String dephault)
+    {
+        String s = ics.GetProperty(name, CONFIGURATION_FILE_NAME, true);
+        if(!Utilities.goodString(s))
+        {
+            s = System.getProperty(name, dephault);
+        }
+        return s;
+    }
+
+    /**
+     * Instantiate the aliasing strategy
+     *
+     * @param ics context
+     * @return strategy
+     */
+    AssetAliasingStrategy newAliasingStrategy(ICS ics)
+    {
+        AssetAliasingStrategy aas = aliasingStrategyFactory.newInstance(ics);
+        if(LOG.isDebugEnabled())
+        {
+            LOG.debug("Successfully instantiated AssetAliasingStrategy: " + aliasingStrategyFactory.getClassName() + ": " + aas);
+        }
+        return aas;
+    }
+
+    int getLowestLevelToInclude()
+    {
+        return lowestLevelToInclude;
+    }
+
+    boolean isUseSitePlanIndex()
+    {
+        return useSitePlanIndex;
+    }
+
+    boolean isUseItemContextIndex()
+    {
+        return useItemContextIndex;
+    }
+
+    /**
+     * @return the negative cache, or null if it is disabled
+     */
+    NegativeResultCache getNegativeCache()
+    {
+        return negativeCache;
+    }
+
+    /**
+     * @return the cache of page children, or null if it is disabled
+     */
+    BoundedCache<Long, PageChildren> getPageChildrenCache()
+    {
+        return pageChildrenCache;
+    }
+
+    long getSingleFlightTimeout()
+    {
+        return singleFlightTimeout;
+    }
+
+    public String toString()
+    {
+        return "HelperConfiguration{lowestLevelToInclude=" + lowestLevelToInclude + ", useSitePlanIndex=" + useSitePlanIndex + ", useItemContextIndex=" + useItemContextIndex + ", negativeCache=" + (negativeCache != null) + ", pageChildrenCache=" + (pageChildrenCache != null) + ", singleFlightTimeout=" + singleFlightTimeout + ", aliasingStrategy=" + aliasingStrategyFactory.getClassName() + "}";
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.uri.cache.LongHashSet;
+
+import java.util.Collection;
+
+/**
+ * Notified by the {@link CacheInvalidator} after cached item contexts and aliases have been invalidated, so that
+ * other caches derived from them can be invalidated as well.  Listeners are called on the thread that invalidated
+ * the caches, and must not throw exceptions.
+ */
+public interface InvalidationListener
+{
+    /**
+     * Called after the caches have been invalidated for some assets.
+     *
+     * @param changed assets that were reported as changed
+     * @param pages ids of all the pages whose item context or alias may have changed as a result
+     * @param generation generation of the caches after the invalidation
+     */
+    void assetsInvalidated(Collection<AssetId> changed, LongHashSet pages, long generation);
+
+    /**
+     * Called after all the caches have been invalidated.
+     *
+     * @param generation generation of the caches after the invalidation
+     */
+    void allInvalidated(long generation);
+}
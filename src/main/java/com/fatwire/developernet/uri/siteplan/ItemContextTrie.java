@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import com.fatwire.developernet.uri.cache.LongHashSet;
+import com.fatwire.developernet.uri.itemcontext.aliasing.CandidateInfo;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>JVM-wide reverse index from item contexts to the page they were computed from.  There is one trie per locale;
+ * each level of a trie holds one segment of the item context, so <code>company/news/2009</code> in locale
+ * <code>1234</code> is found by walking three nodes of the <code>1234</code> trie.  Sharing prefixes keeps the
+ * index small, since every page shares its ancestors' path.  The children of a node are kept in a small map that is
+ * copied when a child is added or removed, so that lookups need no locking and a node costs little more than its
+ * entries.</p>
+ * <p/>
+ * <p>The index is filled as item contexts are resolved by {@link Helper#resolveItemContext}: only successful
+ * resolutions are added.  It must be cleared when page aliases or the Site Plan Tree change, or the pages whose
+ * item context may have changed must be removed, see {@link CacheInvalidator}.</p>
+ *
+ * @see Helper#PROPERTY_ITEM_CONTEXT_INDEX
+ */
+public final class ItemContextTrie
+{
+    private static final Log LOG = LogFactory.getLog("com.fatwire.developernet.uri.siteplan.helper");
+
+    private static final ItemContextTrie INSTANCE = new ItemContextTrie();
+
+    /**
+     * Current tries.  {@link #clear} replaces them, so that an item context being added concurrently ends up in the
+     * discarded tries rather than in the new ones.
+     */
+    private volatile Tries tries = new Tries();
+
+    private ItemContextTrie()
+    {
+    }
+
+    /**
+     * @return the JVM-wide index
+     */
+    public static ItemContextTrie getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Look up the page for an item context.
+     *
+     * @param locale id of the locale, may be null
+     * @param itemContext item context
+     * @return the candidate found for the item context in that locale, or null if it is not in the index
+     */
+    public CandidateInfo get(String locale, String itemContext)
+    {
+        Tries t = tries;
+        Node node = locale == null ? t.noLocaleRoot : t.roots.get(locale);
+        int start = 0;
+        while(node != null)
+        {
+            int slash = itemContext.indexOf('/', start);
+            if(slash == -1)
+            {
+                node = node.child(itemContext.substring(start));
+                return node == null ? null : node.value;
+            }
+            node = node.child(itemContext.substring(start, slash));
+            start = slash + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Add the page found for an item context to the index.
+     *
+     * @param locale id of the locale, may be null
+     * @param itemContext item context
+     * @param candidate the page the item context resolves to
+     */
+    public void put(String locale, String itemContext, CandidateInfo candidate)
+    {
+        Tries t = tries;
+        Node node = locale == null ? t.noLocaleRoot : t.roots.get(locale);
+        if(node == null)
+        {
+            Node root = new Node();
+            node = t.roots.putIfAbsent(locale, root);
+            if(node == null)
+            {
+                node = root;
+            }
+        }
+        int start = 0;
+        int slash;
+        while((slash = itemContext.indexOf('/', start)) != -1)
+        {
+            node = node.getOrAddChild(itemContext.substring(start, slash));
+            start = slash + 1;
+        }
+        node = node.getOrAddChild(itemContext.substring(start));
+        if(node.value == null)
+        {
+            t.size.incrementAndGet();
+        }
+        node.value = candidate;
+    }
+
+    /**
+     * Remove an item context from the index.  The node is left in place, to be pruned by {@link #removePages}.
+     *
+     * @param locale id of the locale, may be null
+     * @param itemContext item context
+     */
+    public void remove(String locale, String itemContext)
+    {
+        Tries t = tries;
+        Node node = locale == null ? t.noLocaleRoot : t.roots.get(locale);
+        int start = 0;
+        int slash;
+        while(node != null && (slash = itemContext.indexOf('/', start)) != -1)
+        {
+            node = node.child(itemContext.substring(start, slash));
+            start = slash + 1;
+        }
+        if(node != null)
+        {
+            node = node.child(itemContext.substring(start));
+            if(node != null && node.value != null)
+            {
+                node.value = null;
+                t.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove the item contexts resolving to some pages, in all locales.  Nodes left without item contexts are
+     * pruned.  An item context added concurrently below a pruned node may be lost, which only costs a lookup.
+     *
+     * @param pages ids of the pages
+     * @return number of item contexts removed
+     */
+    public int removePages(LongHashSet pages)
+    {
+        Tries t = tries;
+        int removed = _removePages(t.noLocaleRoot, pages);
+        for(Node root : t.roots.values())
+        {
+            removed += _removePages(root, pages);
+        }
+        t.size.addAndGet(-removed);
+        return removed;
+    }
+
+    private static int _removePages(Node node, LongHashSet pages)
+    {
+        int removed = 0;
+        CandidateInfo value = node.value;
+        if(value != null && "Page".equals(value.getId().getType()) && pages.contains(value.getId().getId()))
+        {
+            node.value = null;
+            removed++;
+        }
+        Map<String, Node> c = node.children;
+        if(c != null)
+        {
+            for(Map.Entry<String, Node> child : c.entrySet())
+            {
+                Node n = child.getValue();
+                removed += _removePages(n, pages);
+                if(n.value == null && n.children == null)
+                {
+                    node.removeChild(child.getKey(), n);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all item contexts from the index.
+     */
+    public void clear()
+    {
+        tries = new Tries();
+        LOG.info("ItemContextTrie cleared");
+    }
+
+    /**
+     * @return approximate number of item contexts in the index, in all locales
+     */
+    public int size()
+    {
+        return tries.size.get();
+    }
+
+    /**
+     * The tries of all locales, replaced as a whole when the index is cleared.
+     */
+    private static final class Tries
+    {
+        private final ConcurrentMap<String, Node> roots = new ConcurrentHashMap<String, Node>();
+
+        /**
+         * Root of the trie holding the item contexts that were resolved without a locale.
+         */
+        private final Node noLocaleRoot = new Node();
+
+        private final AtomicInteger size = new AtomicInteger();
+    }
+
+    private static final class Node
+    {
+        /**
+         * Children by segment, or null if there are none.  The map is never changed once it is published: adding or
+         * removing a child replaces it, while holding the lock of the node.
+         */
+        private volatile Map<String, Node> children;
+        private volatile CandidateInfo value;
+
+        Node child(String segment)
+        {
+            Map<String, Node> c = children;
+            return c == null ? null : c.get(segment);
+        }
+
+        Node getOrAddChild(String segment)
+        {
+            Node child = child(segment);
+            if(child == null)
+            {
+                synchronized(this)
+                {
+                    Map<String, Node> c = children;
+                    child = c == null ? null : c.get(segment);
+                    if(child == null)
+                    {
+                        child = new Node();
+                        if(c == null)
+                        {
+                            children = Collections.singletonMap(segment, child);
+                        }
+                        else
+                        {
+                            Map<String, Node> copy = new HashMap<String, Node>((c.size() + 1) * 4 / 3 + 1);
+                            copy.putAll(c);
+                            copy.put(segment, child);
+                            children = copy;
+                        }
+                    }
+                }
+            }
+            return child;
+        }
+
+        /**
+         * Remove a child, if it is still the child for that segment.
+         */
+        synchronized void removeChild(String segment, Node child)
+        {
+            Map<String, Node> c = children;
+            if(c == null || c.get(segment) != child)
+            {
+                return;
+            }
+            if(c.size() == 1)
+            {
+                children = null;
+            }
+            else
+            {
+                Map<String, Node> copy = new HashMap<String, Node>(c);
+                copy.remove(segment);
+                children = copy;
+            }
+        }
+    }
+}
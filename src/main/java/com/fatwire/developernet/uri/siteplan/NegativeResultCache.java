@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.cache.CacheStatistics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>JVM-wide record of the item contexts and aliases that could not be resolved, so that repeated requests for
+ * URLs that do not exist (broken links, crawlers) fail without searching the database again.</p>
+ * <p/>
+ * <p>Misses are remembered for a short time only, so that assets that are created later become reachable without
+ * intervention.  The cache should also be cleared after a publish, see {@link Helper#clearCaches}.</p>
+ *
+ * @see Helper#PROPERTY_NEGATIVE_CACHE_TTL
+ */
+public final class NegativeResultCache
+{
+    private static final Log LOG = LogFactory.getLog("com.fatwire.developernet.uri.siteplan.helper");
+
+    private static volatile NegativeResultCache instance;
+
+    private final BoundedCache<String, Boolean> itemContexts;
+    private final BoundedCache<String, Boolean> aliases;
+
+    private NegativeResultCache(int maxSize, long ttlMillis)
+    {
+        itemContexts = new BoundedCache<String, Boolean>(maxSize, ttlMillis);
+        aliases = new BoundedCache<String, Boolean>(maxSize, ttlMillis);
+    }
+
+    /**
+     * Get the cache, creating it if this has not been done yet.  The size and time to live are only used when the
+     * cache is created.
+     *
+     * @param maxSize maximum number of item contexts, and of aliases, remembered
+     * @param ttlMillis time after which a miss is forgotten, in milliseconds
+     * @return the cache
+     */
+    public static NegativeResultCache getInstance(int maxSize, long ttlMillis)
+    {
+        NegativeResultCache cache = instance;
+        if(cache == null)
+        {
+            synchronized(NegativeResultCache.class)
+            {
+                cache = instance;
+                if(cache == null)
+                {
+                    cache = new NegativeResultCache(maxSize, ttlMillis);
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Forget all misses.
+     */
+    public static void clear()
+    {
+        NegativeResultCache cache = instance;
+        if(cache != null)
+        {
+            cache.itemContexts.clear();
+            cache.aliases.clear();
+            LOG.info("NegativeResultCache cleared");
+        }
+    }
+
+    /**
+     * Build an unambiguous key out of parts that may be null or contain any character.
+     */
+    private static String _key(String... parts)
+    {
+        StringBuilder sb = new StringBuilder();
+        for(String part : parts)
+        {
+            if(part == null)
+            {
+                sb.append('-');
+            }
+            else
+            {
+                sb.append(part.length()).append(':').append(part);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param locale id of the locale, may be null
+     * @param itemContext item context
+     * @return true if the item context was recently found not to match any page in that locale
+     */
+    public boolean isUnresolvableItemContext(String locale, String itemContext)
+    {
+        return itemContexts.get(_key(locale, itemContext)) != null;
+    }
+
+    /**
+     * Remember that an item context does not match any page in a locale.
+     *
+     * @param locale id of the locale, may be null
+     * @param itemContext item context
+     */
+    public void addUnresolvableItemContext(String locale, String itemContext)
+    {
+        itemContexts.put(_key(locale, itemContext), Boolean.TRUE);
+    }
+
+    /**
+     * Forget that an item context does not match any page in a locale.
+     *
+     * @param locale id of the locale, may be null
+     * @param itemContext item context
+     */
+    public void removeUnresolvableItemContext(String locale, String itemContext)
+    {
+        itemContexts.remove(_key(locale, itemContext));
+    }
+
+    /**
+     * @param type asset type
+     * @param alias alias
+     * @param locale id of the locale, may be null
+     * @return true if the alias was recently found not to match any asset of that type in that locale
+     */
+    public boolean isUnresolvableAlias(String type, String alias, String locale)
+    {
+        return aliases.get(_key(type, alias, locale)) != null;
+    }
+
+    /**
+     * Remember that an alias does not match any asset of a type in a locale.
+     *
+     * @param type asset type
+     * @param alias alias
+     * @param locale id of the locale, may be null
+     */
+    public void addUnresolvableAlias(String type, String alias, String locale)
+    {
+        aliases.put(_key(type, alias, locale), Boolean.TRUE);
+    }
+
+    /**
+     * Forget that an alias does not match any asset of a type in a locale.
+     *
+     * @param type asset type
+     * @param alias alias
+     * @param locale id of the locale, may be null
+     */
+    public void removeUnresolvableAlias(String type, String alias, String locale)
+    {
+        aliases.remove(_key(type, alias, locale));
+    }
+
+    /**
+     * @return usage of the item context misses
+     */
+    public CacheStatistics getItemContextStatistics()
+    {
+        return itemContexts;
+    }
+
+    /**
+     * @return usage of the alias misses
+     */
+    public CacheStatistics getAliasStatistics()
+    {
+        return aliases;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.uri.cache.BoundedCache;
+import com.fatwire.developernet.uri.cache.CacheStatistics;
+import com.fatwire.developernet.uri.cache.LongHashSet;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The assets placed on a page, as a set of ids per asset type, so that checking whether an asset is on the page
+ * does not depend on the number of children.  Instances are immutable once built.</p>
+ * <p/>
+ * <p>The children of pages can be remembered in a JVM-wide cache, see {@link #getCache}.  It must be cleared when
+ * pages are published, see {@link Helper#clearCaches} and {@link CacheInvalidator}.</p>
+ *
+ * @see Helper#PROPERTY_PAGE_CHILDREN_CACHE_TTL
+ */
+public final class PageChildren
+{
+    private static final Log LOG = LogFactory.getLog("com.fatwire.developernet.uri.siteplan.helper");
+
+    private static volatile BoundedCache<Long, PageChildren> cache;
+
+    private final Map<String, LongHashSet> idsByType;
+    private final int size;
+
+    /**
+     * @param children the assets placed on the page
+     */
+    public PageChildren(List<AssetId> children)
+    {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for(AssetId child : children)
+        {
+            Integer count = counts.get(child.getType());
+            counts.put(child.getType(), count == null ? 1 : count + 1);
+        }
+        idsByType = new HashMap<String, LongHashSet>(counts.size() * 2);
+        for(Map.Entry<String, Integer> count : counts.entrySet())
+        {
+            idsByType.put(count.getKey(), new LongHashSet(count.getValue()));
+        }
+        int n = 0;
+        for(AssetId child : children)
+        {
+            if(idsByType.get(child.getType()).add(child.getId()))
+            {
+                n++;
+            }
+        }
+        size = n;
+    }
+
+    /**
+     * @param id asset
+     * @return true if the asset is placed on the page
+     */
+    public boolean contains(AssetId id)
+    {
+        LongHashSet ids = idsByType.get(id.getType());
+        return ids != null && ids.contains(id.getId());
+    }
+
+    /**
+     * @return number of distinct assets placed on the page
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Get the JVM-wide cache of the children of pages, by page id, creating it if this has not been done yet.  The
+     * size and time to live are only used when the cache is created.
+     *
+     * @param maxSize maximum number of pages whose children are remembered
+     * @param ttlMillis time after which the children of a page are forgotten, in milliseconds
+     * @return the cache
+     */
+    static BoundedCache<Long, PageChildren> getCache(int maxSize, long ttlMillis)
+    {
+        BoundedCache<Long, PageChildren> c = cache;
+        if(c == null)
+        {
+            synchronized(PageChildren.class)
+            {
+                c = cache;
+                if(c == null)
+                {
+                    c = new BoundedCache<Long, PageChildren>(maxSize, ttlMillis);
+                    cache = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * @return usage of the JVM-wide cache, or null if it has not been created
+     */
+    public static CacheStatistics getCacheStatistics()
+    {
+        return cache;
+    }
+
+    /**
+     * Forget the children of some pages.
+     *
+     * @param pages ids of the pages whose associations may have changed
+     */
+    public static void invalidate(Collection<Long> pages)
+    {
+        BoundedCache<Long, PageChildren> c = cache;
+        if(c != null)
+        {
+            for(Long p : pages)
+            {
+                c.remove(p);
+            }
+        }
+    }
+
+    /**
+     * Forget the children of all pages.
+     */
+    public static void clearCache()
+    {
+        BoundedCache<Long, PageChildren> c = cache;
+        if(c != null)
+        {
+            c.clear();
+            LOG.info("PageChildren cache cleared");
+        }
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Interfaces.IList;
+import COM.FutureTense.Util.IterableIListWrapper;
+import COM.FutureTense.Util.ftErrors;
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.uri.itemcontext.aliasing.CachingAliasingStrategy;
+import com.fatwire.developernet.uri.itemcontext.aliasing.CandidateInfo;
+import com.fatwire.developernet.uri.itemcontext.aliasing.IdAliasingStrategy;
+import com.fatwire.developernet.uri.itemcontext.aliasing.LocaleDimensionCache;
+import com.fatwire.developernet.uri.itemcontext.aliasing.MultilingualPageMetadataArticleAliasingStrategy;
+import com.fatwire.developernet.uri.itemcontext.aliasing.NameAliasingStrategy;
+import com.fatwire.developernet.uri.itemcontext.aliasing.PageMetadataArticleAliasingStrategy;
+import com.fatwire.developernet.uri.itemcontext.aliasing.PathAliasingStrategy;
+import com.fatwire.mda.Dimension;
+import com.openmarket.xcelerate.asset.AssetIdImpl;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static com.fatwire.developernet.IListUtils.getLongValue;
+
+/**
+ * <p>Binary snapshot of the URL resolution caches, so that a restarted JVM does not have to compute every alias and
+ * read the Site Plan Tree again.  A snapshot holds the {@link SitePlanTreeIndex} (the parent of each page), and for
+ * each delegate of the {@link CachingAliasingStrategy} the aliases of assets in each locale and the candidates found
+ * for each alias.</p>
+ * <p/>
+ * <p>{@link #write} saves the current content of the caches, typically after a {@link SitePlanWarmer warm-up}.  The
+ * snapshot is written to a temporary file which then replaces the previous snapshot, so that readers never see a
+ * partial file.  {@link #load} maps the file into memory and fills the caches from it.</p>
+ * <p/>
+ * <p>The header holds the format version and the time at which the snapshot was written.  Snapshots of another
+ * format version are ignored.  Otherwise, after loading, the assets of the cached types that have been updated since
+ * the snapshot was written are looked up and passed to {@link CacheInvalidator#invalidate}, so only what depends on
+ * them is computed again.  The cached types include those the aliases are read from, such as the article type of the
+ * {@link PageMetadataArticleAliasingStrategy}.  The aliases and candidates of pages cached for a delegate that may
+ * read other types are not loaded.  If the Site Plan Tree has changed, the index is rebuilt the next time it is
+ * needed.</p>
+ */
+public final class ResolutionSnapshot
+{
+    private static final Log LOG = LogFactory.getLog("com.fatwire.developernet.uri.siteplan.helper");
+
+    private static final int MAGIC = 0x43535553;
+
+    /**
+     * Version of the format, to be incremented whenever it changes.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Assets updated this long before the snapshot was written are also considered changed, in case the clocks of
+     * the database and of the JVM differ.
+     */
+    private static final long CLOCK_MARGIN_MILLIS = 5 * 60 * 1000L;
+
+    private static final Pattern ASSET_TYPE = Pattern.compile("[A-Za-z0-9_]+");
+
+    private ResolutionSnapshot()
+    {
+    }
+
+    /**
+     * Save the content of the caches.  Nothing is written if the caches are invalidated while they are being read.
+     *
+     * @param file snapshot file, replaced if it exists
+     * @return true if the snapshot was written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static boolean write(File file) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        long generation = CacheInvalidator.getGeneration();
+        SitePlanTreeIndex index = SitePlanTreeIndex.getCurrentInstance();
+        Map<String, Map<String, String>> aliases = new HashMap<String, Map<String, String>>();
+        Map<String, Map<String, List<CandidateInfo>>> candidates = new HashMap<String, Map<String, List<CandidateInfo>>>();
+        for(String delegate : CachingAliasingStrategy.getDelegateClasses())
+        {
+            aliases.put(delegate, CachingAliasingStrategy.getCachedAliases(delegate));
+            candidates.put(delegate, CachingAliasingStrategy.getCachedCandidates(delegate));
+        }
+        if(!CacheInvalidator.isCurrent(generation))
+        {
+            LOG.info("Caches invalidated while taking a snapshot, not writing " + file);
+            return false;
+        }
+
+        // the locales are written once, with an asset in that locale to look them up again
+        Map<Long, Integer> dimIndexes = new HashMap<Long, Integer>();
+        List<Long> dimIds = new ArrayList<Long>();
+        List<AssetId> dimAssets = new ArrayList<AssetId>();
+        for(Map<String, List<CandidateInfo>> lists : candidates.values())
+        {
+            for(List<CandidateInfo> list : lists.values())
+            {
+                for(CandidateInfo candidate : list)
+                {
+                    if(candidate.getDim() != null && !dimIndexes.containsKey(candidate.getDim().getId().getId()))
+                    {
+                        dimIndexes.put(candidate.getDim().getId().getId(), dimIds.size());
+                        dimIds.add(candidate.getDim().getId().getId());
+                        dimAssets.add(candidate.getId());
+                    }
+                }
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(start);
+            out.writeBoolean(index != null);
+            if(index != null)
+            {
+                index.writeTo(out);
+            }
+            out.writeInt(dimIds.size());
+            for(int i = 0; i < dimIds.size(); i++)
+            {
+                out.writeLong(dimIds.get(i));
+                _writeString(out, dimAssets.get(i).getType());
+                out.writeLong(dimAssets.get(i).getId());
+            }
+            out.writeInt(aliases.size());
+            for(String delegate : aliases.keySet())
+            {
+                _writeString(out, delegate);
+                Map<String, String> a = aliases.get(delegate);
+                out.writeInt(a.size());
+                for(Map.Entry<String, String> alias : a.entrySet())
+                {
+                    _writeString(out, alias.getKey());
+                    _writeString(out, alias.getValue());
+                }
+                Map<String, List<CandidateInfo>> c = candidates.get(delegate);
+                out.writeInt(c.size());
+                for(Map.Entry<String, List<CandidateInfo>> list : c.entrySet())
+                {
+                    _writeString(out, list.getKey());
+                    out.writeInt(list.getValue().size());
+                    for(CandidateInfo candidate : list.getValue())
+                    {
+                        _writeString(out, candidate.getId().getType());
+                        out.writeLong(candidate.getId().getId());
+                        out.writeInt(candidate.getDim() == null ? -1 : dimIndexes.get(candidate.getDim().getId().getId()));
+                    }
+                }
+            }
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getChannel().force(true);
+        }
+        finally
+        {
+            fos.close();
+        }
+        if(!tmp.renameTo(file))
+        {
+            // some platforms cannot rename over an existing file
+            file.delete();
+            if(!tmp.renameTo(file))
+            {
+                tmp.delete();
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        }
+        if(LOG.isInfoEnabled())
+        {
+            LOG.info("Wrote resolution snapshot " + file + " (" + file.length() + " bytes) in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return true;
+    }
+
+    private static void _writeString(DataOutput out, String s) throws IOException
+    {
+        if(s == null)
+        {
+            out.writeInt(-1);
+        }
+        else
+        {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String _readString(ByteBuffer in) throws IOException
+    {
+        int length = in.getInt();
+        if(length == -1)
+        {
+            return null;
+        }
+        if(length < 0 || length > in.remaining())
+        {
+            throw new IOException("Corrupt string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Read a string that cannot be null, such as a key or an asset type.
+     */
+    private static String _readName(ByteBuffer in) throws IOException
+    {
+        String s = _readString(in);
+        if(s == null)
+        {
+            throw new IOException("Missing name");
+        }
+        return s;
+    }
+
+    /**
+     * Read a number of items, each of which takes at least one byte.
+     */
+    private static int _readCount(ByteBuffer in) throws IOException
+    {
+        int n = in.getInt();
+        if(n < 0 || n > in.remaining())
+        {
+            throw new IOException("Corrupt count: " + n);
+        }
+        return n;
+    }
+
+    /**
+     * @return the asset type of a cache key
+     */
+    private static String _typeOf(String key) throws IOException
+    {
+        int slash = key.indexOf('/');
+        if(slash <= 0)
+        {
+            throw new IOException("Corrupt key: " + key);
+        }
+        return key.substring(0, slash);
+    }
+
+    /**
+     * Add the asset types, other than that of the asset itself, that the aliases computed by a delegate are read
+     * from.
+     *
+     * @return false if these types are not known
+     */
+    private static boolean _addTypesRead(ICS ics, String delegate, Set<String> types)
+    {
+        if(PathAliasingStrategy.class.getName().equals(delegate) || NameAliasingStrategy.class.getName().equals(delegate) || IdAliasingStrategy.class.getName().equals(delegate))
+        {
+            return true;
+        }
+        if(PageMetadataArticleAliasingStrategy.class.getName().equals(delegate))
+        {
+            types.add(PageMetadataArticleAliasingStrategy.getArticleAssetType(ics));
+            return true;
+        }
+        if(MultilingualPageMetadataArticleAliasingStrategy.class.getName().equals(delegate))
+        {
+            types.add(MultilingualPageMetadataArticleAliasingStrategy.getArticleAssetType(ics));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fill the caches from a snapshot, then invalidate what depends on the assets updated since it was written.
+     *
+     * @param ics context
+     * @param file snapshot file
+     * @return true if the snapshot was loaded, false if there is no usable snapshot
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static boolean load(ICS ics, File file) throws IOException
+    {
+        if(!file.isFile())
+        {
+            LOG.info("No resolution snapshot found at " + file);
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer in;
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() > Integer.MAX_VALUE)
+            {
+                LOG.warn(file + " is too large to be a resolution snapshot, ignoring it");
+                return false;
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        long created;
+        SitePlanTreeIndex index = null;
+        Set<String> types = new HashSet<String>();
+        int numAliases = 0;
+        int numLists = 0;
+        try
+        {
+            if(in.getInt() != MAGIC)
+            {
+                LOG.warn(file + " is not a resolution snapshot, ignoring it");
+                return false;
+            }
+            int version = in.getInt();
+            if(version != FORMAT_VERSION)
+            {
+                LOG.info("Resolution snapshot " + file + " has format version " + version + " instead of " + FORMAT_VERSION + ", ignoring it");
+                return false;
+            }
+            created = in.getLong();
+            if(in.get() != 0)
+            {
+                index = SitePlanTreeIndex.readFrom(in);
+                types.add("Page");
+            }
+
+            int numDims = _readCount(in);
+            Dimension[] dims = new Dimension[numDims];
+            LocaleDimensionCache locales = LocaleDimensionCache.getInstance(ics);
+            for(int i = 0; i < numDims; i++)
+            {
+                long dimId = in.getLong();
+                Dimension dim = locales.getLocale(ics, new AssetIdImpl(_readName(in), in.getLong()));
+                // a locale that cannot be found again makes the candidates using it unusable
+                dims[i] = dim != null && dim.getId().getId() == dimId ? dim : null;
+            }
+
+            int numDelegates = _readCount(in);
+            for(int d = 0; d < numDelegates; d++)
+            {
+                String delegate = _readName(in);
+                // without knowing what the aliases of pages are read from, they cannot be checked
+                boolean pagesCheckable = _addTypesRead(ics, delegate, types);
+                int n = _readCount(in);
+                Map<String, String> aliases = new HashMap<String, String>(n * 2);
+                for(int i = 0; i < n; i++)
+                {
+                    String key = _readName(in);
+                    String alias = _readString(in);
+                    String type = _typeOf(key);
+                    if(pagesCheckable || !"Page".equals(type))
+                    {
+                        aliases.put(key, alias);
+                        types.add(type);
+                    }
+                }
+                n = _readCount(in);
+                Map<String, List<CandidateInfo>> candidates = new HashMap<String, List<CandidateInfo>>(n * 2);
+                for(int i = 0; i < n; i++)
+                {
+                    String key = _readName(in);
+                    String type = _typeOf(key);
+                    int size = _readCount(in);
+                    List<CandidateInfo> list = pagesCheckable || !"Page".equals(type) ? new ArrayList<CandidateInfo>(size) : null;
+                    for(int j = 0; j < size; j++)
+                    {
+                        AssetId id = new AssetIdImpl(_readName(in), in.getLong());
+                        int dim = in.getInt();
+                        if(dim < -1 || dim >= dims.length)
+                        {
+                            throw new IOException("Corrupt locale index: " + dim);
+                        }
+                        if(list != null && (dim == -1 || dims[dim] != null))
+                        {
+                            list.add(new CandidateInfo(id, dim == -1 ? null : dims[dim]));
+                        }
+                        else
+                        {
+                            list = null;
+                        }
+                        if(list != null)
+                        {
+                            types.add(id.getType());
+                        }
+                    }
+                    if(list != null)
+                    {
+                        candidates.put(key, list);
+                        types.add(type);
+                    }
+                }
+                CachingAliasingStrategy.preload(ics, delegate, aliases, candidates);
+                numAliases += aliases.size();
+                numLists += candidates.size();
+            }
+            if(in.getInt() != MAGIC)
+            {
+                throw new IOException("Missing end marker");
+            }
+        }
+        catch(BufferUnderflowException e)
+        {
+            LOG.warn("Resolution snapshot " + file + " is truncated, ignoring it");
+            CacheInvalidator.invalidateAll();
+            return false;
+        }
+        catch(IOException e)
+        {
+            LOG.warn("Resolution snapshot " + file + " is corrupt, ignoring it: " + e);
+            CacheInvalidator.invalidateAll();
+            return false;
+        }
+
+        if(index != null)
+        {
+            SitePlanTreeIndex.install(index);
+        }
+        Collection<AssetId> changed = _findChangedAssets(ics, types, created - CLOCK_MARGIN_MILLIS);
+        if(changed == null)
+        {
+            LOG.warn("Could not tell which assets changed since " + new Date(created) + ", ignoring resolution snapshot " + file);
+            CacheInvalidator.invalidateAll();
+            return false;
+        }
+        CacheInvalidator.invalidate(ics, changed);
+        if(index != null && SitePlanTreeIndex.getCurrentInstance() == index && !index.isCurrent(ics))
+        {
+            SitePlanTreeIndex.clear();
+        }
+        if(LOG.isInfoEnabled())
+        {
+            LOG.info("Loaded resolution snapshot " + file + " written " + new Date(created) + ": " + (index == null ? 0 : index.size()) + " pages, " + numAliases + " aliases, " + numLists + " candidate lists, " + changed.size() + " assets changed since, in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return true;
+    }
+
+    /**
+     * Find the assets of some types updated since a given time.
+     *
+     * @return the assets, or null if one of the types could not be checked
+     */
+    private static Collection<AssetId> _findChangedAssets(ICS ics, Set<String> types, long since)
+    {
+        String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(since));
+        List<AssetId> changed = new ArrayList<AssetId>();
+        for(String type : types)
+        {
+            if(!ASSET_TYPE.matcher(type).matches())
+            {
+                return null;
+            }
+            StringBuffer errstr = new StringBuffer();
+            IList list = ics.SQL(type, "SELECT id FROM " + type + " WHERE updateddate > {ts '" + timestamp + "'}", null, -1, false, errstr);
+            if(ics.GetErrno() < 0 && ics.GetErrno() != ftErrors.norows)
+            {
+                LOG.warn("Failure looking up the " + type + " assets updated since " + timestamp + ": " + errstr);
+                return null;
+            }
+            if(list != null && list.hasData())
+            {
+                for(IList row : new IterableIListWrapper(list))
+                {
+                    changed.add(new AssetIdImpl(type, getLongValue(row, "id")));
+                }
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import COM.FutureTense.Interfaces.ICS;
+import COM.FutureTense.Interfaces.IList;
+import COM.FutureTense.Util.IterableIListWrapper;
+import COM.FutureTense.Util.ftErrors;
+import com.fatwire.developernet.CSRuntimeException;
+import com.fatwire.developernet.uri.cache.LongHashSet;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.fatwire.developernet.IListUtils.getLongValue;
+import static com.fatwire.developernet.IListUtils.getStringValue;
+
+/**
+ * <p>JVM-wide, read-only, in-memory copy of the placed pages in the Site Plan Tree, so that breadcrumbs can be
+ * computed without a database round-trip per link.</p>
+ * <p/>
+ * <p>The index is made of compact parallel arrays.  Each placed page node has the page id, a pointer to its parent
+ * page node (or -1 if the parent is the Publication node) and the number of page ancestors between it and its
+ * Publication.  The Publication boundary is thus resolved once, when the index is built, and trimming
+ * placeholder levels only takes a subtraction.  A sorted array of page ids points to the node of each page; pages
+ * placed more than once use their first (lowest node id) placement.</p>
+ * <p/>
+ * <p>The index is built from the <code>SitePlanTree</code> table the first time it is needed, and is not refreshed
+ * automatically.  Call {@link #rebuild} after the Site Plan Tree has been modified (after a publish, for example),
+ * or {@link #clear} to have it rebuilt lazily.</p>
+ *
+ * @see Helper#PROPERTY_SITEPLAN_INDEX
+ */
+public final class SitePlanTreeIndex
+{
+    private static final Log LOG = LogFactory.getLog("com.fatwire.developernet.uri.siteplan.helper");
+
+    private static final String QUERY = "SELECT nid, nparentid, otype, oid FROM SitePlanTree WHERE ncode='Placed' ORDER BY nid";
+
+    private static final String FINGERPRINT_QUERY = "SELECT COUNT(nid) AS numnodes, MAX(nid) AS maxnid, SUM(nparentid) AS parentsum FROM SitePlanTree WHERE ncode='Placed'";
+
+    /**
+     * Depth of pages with a non-Page node between them and their Publication.
+     */
+    private static final int INVALID = -1;
+
+    /**
+     * Depth of pages that have not been visited yet while building the index.
+     */
+    private static final int UNKNOWN = -2;
+
+    private static volatile SitePlanTreeIndex instance;
+
+    /**
+     * Sorted page ids, and the node of each page.
+     */
+    private final long[] pageIds;
+    private final int[] pageNodes;
+
+    /**
+     * Page id, parent node, depth and (for invalid nodes) the offending node type, for each page node.
+     */
+    private final long[] nodePages;
+    private final int[] parents;
+    private final int[] depths;
+    private final String[] invalidTypes;
+
+    /**
+     * Number of rows, highest node id and sum of the parent node ids of the table the index was built from, to tell
+     * whether it has changed.
+     */
+    private final int numNodes;
+    private final long maxNid;
+    private final long parentSum;
+
+    private SitePlanTreeIndex(long[] pageIds, int[] pageNodes, long[] nodePages, int[] parents, int[] depths, String[] invalidTypes, int numNodes, long maxNid, long parentSum)
+    {
+        this.numNodes = numNodes;
+        this.maxNid = maxNid;
+        this.parentSum = parentSum;
+        this.pageIds = pageIds;
+        this.pageNodes = pageNodes;
+        this.nodePages = nodePages;
+        this.parents = parents;
+        this.depths = depths;
+        this.invalidTypes = invalidTypes;
+    }
+
+    /**
+     * Get the index, building it if this has not been done yet.
+     *
+     * @param ics context, used only if the index needs to be built
+     * @return the index
+     */
+    public static SitePlanTreeIndex getInstance(ICS ics)
+    {
+        SitePlanTreeIndex index = instance;
+        if(index == null)
+        {
+            synchronized(SitePlanTreeIndex.class)
+            {
+                index = instance;
+                if(index == null)
+                {
+                    index = _build(ics);
+                    instance = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get the index without building it.
+     *
+     * @return the index, or null if it has not been built or has been cleared
+     */
+    public static SitePlanTreeIndex getCurrentInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Reload the index from the database and replace the current one.  Threads using the current index are not
+     * affected.
+     *
+     * @param ics context
+     * @return the new index
+     */
+    public static SitePlanTreeIndex rebuild(ICS ics)
+    {
+        SitePlanTreeIndex index = _build(ics);
+        synchronized(SitePlanTreeIndex.class)
+        {
+            instance = index;
+        }
+        return index;
+    }
+
+    /**
+     * Replace the current index, with one read from a snapshot for example.
+     *
+     * @param index new index
+     */
+    static void install(SitePlanTreeIndex index)
+    {
+        synchronized(SitePlanTreeIndex.class)
+        {
+            instance = index;
+        }
+    }
+
+    /**
+     * Drop the index.  It will be rebuilt the next time it is needed.
+     */
+    public static void clear()
+    {
+        synchronized(SitePlanTreeIndex.class)
+        {
+            instance = null;
+        }
+        LOG.info("SitePlanTreeIndex cleared");
+    }
+
+    /**
+     * @return number of pages in the index
+     */
+    public int size()
+    {
+        return pageIds.length;
+    }
+
+    /**
+     * @return the ids of all the pages in the index, sorted
+     */
+    public long[] getPageIds()
+    {
+        return pageIds.clone();
+    }
+
+    /**
+     * Compute the breadcrumb of a page: the ids of its ancestors, closest to the root first, followed by the page
+     * itself.  This is equivalent to the list built from <code>NodePath</code>: the ancestors stop at the
+     * Publication node, and the <code>lowestLevelToInclude</code> top-most ancestors are dropped unless there are
+     * fewer than that.
+     *
+     * @param p page id
+     * @param lowestLevelToInclude number of top-level ancestors to drop
+     * @return page ids, or null if the page is not placed in the Site Plan Tree
+     * @throws IllegalStateException if a node other than a Page is found between the page and its Publication
+     */
+    public long[] getBreadcrumb(long p, int lowestLevelToInclude)
+    {
+        int found = Arrays.binarySearch(pageIds, p);
+        if(found < 0)
+        {
+            return null;
+        }
+        int i = pageNodes[found];
+        int depth = depths[i];
+        if(depth == INVALID)
+        {
+            throw new IllegalStateException("Invalid node type found in SitePlanTree: " + invalidTypes[i]);
+        }
+        int included = depth >= lowestLevelToInclude ? depth - lowestLevelToInclude : depth;
+        long[] result = new long[included + 1];
+        result[included] = p;
+        int node = i;
+        for(int n = included - 1; n >= 0; n--)
+        {
+            node = parents[node];
+            result[n] = nodePages[node];
+        }
+        return result;
+    }
+
+    /**
+     * Find all the pages placed below some pages, at any depth, in any of their placements.
+     *
+     * @param roots pages whose subtrees are wanted
+     * @return the ids of the pages, including the roots themselves if they are placed
+     */
+    public LongHashSet getSubtrees(LongHashSet roots)
+    {
+        // 0 = not visited yet, 1 = in a subtree, 2 = not in a subtree
+        byte[] states = new byte[nodePages.length];
+        for(int i = 0; i < nodePages.length; i++)
+        {
+            if(roots.contains(nodePages[i]))
+            {
+                states[i] = 1;
+            }
+        }
+        int[] chain = new int[16];
+        LongHashSet result = new LongHashSet(roots.size() * 4);
+        for(int i = 0; i < nodePages.length; i++)
+        {
+            // walk up to the first node whose state is known, then set that state on the way
+            int length = 0;
+            int node = i;
+            while(node != -1 && states[node] == 0)
+            {
+                if(length == chain.length)
+                {
+                    int[] longer = new int[length * 2];
+                    System.arraycopy(chain, 0, longer, 0, length);
+                    chain = longer;
+                }
+                chain[length++] = node;
+                node = parents[node];
+            }
+            byte state = node == -1 ? 2 : states[node];
+            for(int n = 0; n < length; n++)
+            {
+                states[chain[n]] = state;
+            }
+            if(states[i] == 1)
+            {
+                result.add(nodePages[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check whether the Site Plan Tree has changed since the index was built, by comparing the number of nodes, the
+     * highest node id and the sum of the parent node ids.  The sum changes when a node is moved, unless another move
+     * makes up for it exactly.
+     *
+     * @param ics context
+     * @return true if the Site Plan Tree seems unchanged
+     */
+    boolean isCurrent(ICS ics)
+    {
+        StringBuffer errstr = new StringBuffer();
+        IList list = ics.SQL("SitePlanTree", FINGERPRINT_QUERY, null, -1, false, errstr);
+        if(ics.GetErrno() < 0 && ics.GetErrno() != ftErrors.norows)
+        {
+            throw new CSRuntimeException("Failure reading the SitePlanTree: " + errstr, ics.GetErrno());
+        }
+        if(list == null || !list.hasData())
+        {
+            return numNodes == 0;
+        }
+        list.moveTo(1);
+        return getLongValue(list, "numnodes") == numNodes && (numNodes == 0 || getLongValue(list, "maxnid") == maxNid && getLongValue(list, "parentsum") == parentSum);
+    }
+
+    /**
+     * Write the index, to be read back by {@link #readFrom}.
+     *
+     * @param out output
+     * @throws IOException if the index cannot be written
+     */
+    void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(numNodes);
+        out.writeLong(maxNid);
+        out.writeLong(parentSum);
+        out.writeInt(pageIds.length);
+        for(int i = 0; i < pageIds.length; i++)
+        {
+            out.writeLong(pageIds[i]);
+            out.writeInt(pageNodes[i]);
+        }
+        out.writeInt(nodePages.length);
+        for(int i = 0; i < nodePages.length; i++)
+        {
+            out.writeLong(nodePages[i]);
+            out.writeInt(parents[i]);
+            out.writeInt(depths[i]);
+            if(invalidTypes[i] == null)
+            {
+                out.writeShort(-1);
+            }
+            else
+            {
+                byte[] type = invalidTypes[i].getBytes("UTF-8");
+                out.writeShort(type.length);
+                out.write(type);
+            }
+        }
+    }
+
+    /**
+     * Read an index written by {@link #writeTo}.
+     *
+     * @param in input, positioned at the start of the index
+     * @return the index
+     * @throws IOException if the input is not an index
+     */
+    static SitePlanTreeIndex readFrom(ByteBuffer in) throws IOException
+    {
+        int numNodes = in.getInt();
+        long maxNid = in.getLong();
+        long parentSum = in.getLong();
+        int numPages = in.getInt();
+        if(numPages < 0 || numPages > in.remaining() / 12)
+        {
+            throw new IOException("Corrupt SitePlanTreeIndex: " + numPages + " pages");
+        }
+        long[] pageIds = new long[numPages];
+        int[] pageNodes = new int[numPages];
+        for(int i = 0; i < numPages; i++)
+        {
+            pageIds[i] = in.getLong();
+            pageNodes[i] = in.getInt();
+        }
+        int numPageNodes = in.getInt();
+        if(numPageNodes < 0 || numPageNodes > in.remaining() / 18)
+        {
+            throw new IOException("Corrupt SitePlanTreeIndex: " + numPageNodes + " page nodes");
+        }
+        long[] nodePages = new long[numPageNodes];
+        int[] parents = new int[numPageNodes];
+        int[] depths = new int[numPageNodes];
+        String[] invalidTypes = new String[numPageNodes];
+        for(int i = 0; i < numPageNodes; i++)
+        {
+            nodePages[i] = in.getLong();
+            parents[i] = in.getInt();
+            depths[i] = in.getInt();
+            short length = in.getShort();
+            if(length >= 0)
+            {
+                byte[] type = new byte[length];
+                in.get(type);
+                invalidTypes[i] = new String(type, "UTF-8");
+            }
+        }
+        return new SitePlanTreeIndex(pageIds, pageNodes, nodePages, parents, depths, invalidTypes, numNodes, maxNid, parentSum);
+    }
+
+    private static SitePlanTreeIndex _build(ICS ics)
+    {
+        long start = System.currentTimeMillis();
+        StringBuffer errstr = new StringBuffer();
+        IList list = ics.SQL("SitePlanTree", QUERY, null, -1, false, errstr);
+        if(ics.GetErrno() < 0 && ics.GetErrno() != ftErrors.norows)
+        {
+            throw new CSRuntimeException("Failure loading the SitePlanTree: " + errstr, ics.GetErrno());
+        }
+
+        // read all the rows
+        int numRows = list == null || !list.hasData() ? 0 : list.numRows();
+        Map<Long, Integer> rowForNid = new HashMap<Long, Integer>(numRows * 2);
+        long[] parentNids = new long[numRows];
+        String[] types = new String[numRows];
+        long[] oids = new long[numRows];
+        int[] nodeForRow = new int[numRows];
+        int numNodes = 0;
+        long maxNid = 0L;
+        long parentSum = 0L;
+        int r = 0;
+        if(numRows > 0)
+        {
+            for(IList row : new IterableIListWrapper(list))
+            {
+                long nid = getLongValue(row, "nid");
+                maxNid = Math.max(maxNid, nid);
+                rowForNid.put(nid, r);
+                parentNids[r] = getLongValue(row, "nparentid");
+                parentSum += parentNids[r];
+                types[r] = getStringValue(row, "otype");
+                oids[r] = getLongValue(row, "oid");
+                nodeForRow[r] = "Page".equals(types[r]) ? numNodes++ : -1;
+                r++;
+            }
+        }
+
+        // link the page nodes to their parents
+        long[] nodePages = new long[numNodes];
+        int[] parents = new int[numNodes];
+        int[] depths = new int[numNodes];
+        String[] invalidTypes = new String[numNodes];
+        Map<Long, Integer> nodeForPage = new HashMap<Long, Integer>(numNodes * 2);
+        for(r = 0; r < numRows; r++)
+        {
+            int node = nodeForRow[r];
+            if(node == -1)
+            {
+                continue;
+            }
+            nodePages[node] = oids[r];
+            if(!nodeForPage.containsKey(oids[r]))
+            {
+                nodeForPage.put(oids[r], node); // rows are sorted by nid, so this is the first placement
+            }
+            parents[node] = -1;
+            Integer parentRow = rowForNid.get(parentNids[r]);
+            if(parentRow == null || "Publication".equals(types[parentRow]))
+            {
+                depths[node] = 0; // top of the tree
+            }
+            else if(nodeForRow[parentRow] != -1)
+            {
+                parents[node] = nodeForRow[parentRow];
+                depths[node] = UNKNOWN;
+            }
+            else
+            {
+                depths[node] = INVALID;
+                invalidTypes[node] = types[parentRow];
+            }
+        }
+        for(int node = 0; node < numNodes; node++)
+        {
+            _computeDepth(node, parents, depths, invalidTypes);
+        }
+
+        // sorted page ids pointing to their node
+        long[] pageIds = new long[nodeForPage.size()];
+        int i = 0;
+        for(Long id : nodeForPage.keySet())
+        {
+            pageIds[i++] = id;
+        }
+        Arrays.sort(pageIds);
+        int[] pageNodes = new int[pageIds.length];
+        for(i = 0; i < pageIds.length; i++)
+        {
+            pageNodes[i] = nodeForPage.get(pageIds[i]);
+        }
+
+        SitePlanTreeIndex index = new SitePlanTreeIndex(pageIds, pageNodes, nodePages, parents, depths, invalidTypes, numRows, maxNid, parentSum);
+        if(LOG.isInfoEnabled())
+        {
+            LOG.info("Built SitePlanTreeIndex with " + pageIds.length + " pages out of " + numRows + " nodes in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return index;
+    }
+
+    /**
+     * Compute the depth of a page node, and of all of its ancestors whose depth is still unknown.
+     */
+    private static void _computeDepth(int i, int[] parents, int[] depths, String[] invalidTypes)
+    {
+        // find the closest ancestor whose depth is known
+        int steps = 0;
+        int node = i;
+        while(depths[node] == UNKNOWN)
+        {
+            node = parents[node];
+            if(++steps > parents.length)
+            {
+                throw new IllegalStateException("Cycle found in SitePlanTree");
+            }
+        }
+        int depth = depths[node];
+        String invalidType = invalidTypes[node];
+
+        // walk down again, setting the depth of every page on the way
+        int[] chain = new int[steps];
+        node = i;
+        for(int n = 0; n < steps; n++)
+        {
+            chain[n] = node;
+            node = parents[node];
+        }
+        for(int n = steps - 1; n >= 0; n--)
+        {
+            if(depth != INVALID)
+            {
+                depth++;
+            }
+            depths[chain[n]] = depth;
+            invalidTypes[chain[n]] = invalidType;
+        }
+    }
+}
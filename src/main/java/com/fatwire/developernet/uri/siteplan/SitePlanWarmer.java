@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import COM.FutureTense.Interfaces.ICS;
+import com.fatwire.developernet.CSRuntimeException;
+import com.fatwire.mda.Dimension;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Fills the JVM-wide caches used by {@link Helper} before the first requests arrive, typically at startup.
+ * Every page placed in the Site Plan Tree is visited once per locale: its item context is computed and resolved,
+ * and the aliases of the assets placed on it are computed and resolved.  Only the caches that are enabled in the
+ * helper configuration are filled.</p>
+ * <p/>
+ * <p>The pages are split into batches processed by a fixed number of threads.  <code>ICS</code> is not
+ * thread-safe, so each batch borrows its own context from a {@link ContextProvider}.  Progress is logged to the
+ * <code>com.fatwire.developernet.uri.siteplan.helper</code> logger, and can be read with {@link #getCompleted} and
+ * the related methods.  {@link #cancel} stops the warm-up after the pages being processed.</p>
+ * <p/>
+ * <p>When a {@link #setSnapshotFile snapshot file} is set, a {@link ResolutionSnapshot} is written once the
+ * warm-up has finished, unless it was cancelled.</p>
+ * <p/>
+ * <p>A warmer can only be started once.</p>
+ */
+public final class SitePlanWarmer
+{
+    private static final Log LOG = LogFactory.getLog("com.fatwire.developernet.uri.siteplan.helper");
+
+    /**
+     * Number of pages handled with one context.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Provides the contexts used by the warm-up threads.
+     */
+    public interface ContextProvider
+    {
+        /**
+         * @return a context for the exclusive use of the calling thread
+         */
+        ICS acquire();
+
+        /**
+         * Give back a context obtained from {@link #acquire}.
+         *
+         * @param ics context
+         */
+        void release(ICS ics);
+    }
+
+    private final ContextProvider contexts;
+    private final int parallelism;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger aliases = new AtomicInteger();
+    private final AtomicInteger remainingBatches = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile int total;
+    private volatile long start;
+    private volatile long end;
+    private volatile File snapshotFile;
+    private ExecutorService executor;
+
+    /**
+     * @param contexts provider of the contexts used by the warm-up threads
+     * @param parallelism number of threads
+     */
+    public SitePlanWarmer(ContextProvider contexts, int parallelism)
+    {
+        if(parallelism < 1)
+        {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.contexts = contexts;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param snapshotFile file to write a {@link ResolutionSnapshot} to after the warm-up, or null for none
+     */
+    public void setSnapshotFile(File snapshotFile)
+    {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Start warming up the caches in the background.  The Site Plan Tree is read on the calling thread.
+     *
+     * @param ics context used to read the Site Plan Tree
+     * @param locales locales to warm up, null standing for "no locale"
+     */
+    public synchronized void start(ICS ics, Collection<Dimension> locales)
+    {
+        if(executor != null)
+        {
+            throw new IllegalStateException("SitePlanWarmer already started");
+        }
+        start = System.currentTimeMillis();
+        long[] pageIds = SitePlanTreeIndex.getInstance(ics).getPageIds();
+        final List<Dimension> localeList = Collections.unmodifiableList(new ArrayList<Dimension>(locales));
+        total = pageIds.length * localeList.size();
+        int numBatches = (pageIds.length + BATCH_SIZE - 1) / BATCH_SIZE;
+        remainingBatches.set(numBatches);
+        executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "SitePlanWarmer-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if(LOG.isInfoEnabled())
+        {
+            LOG.info("Warming up " + pageIds.length + " pages in " + localeList.size() + " locales with " + parallelism + " threads");
+        }
+        if(numBatches == 0)
+        {
+            _finish();
+        }
+        for(int from = 0; from < pageIds.length; from += BATCH_SIZE)
+        {
+            final long[] batch = new long[Math.min(BATCH_SIZE, pageIds.length - from)];
+            System.arraycopy(pageIds, from, batch, 0, batch.length);
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        _warm(batch, localeList);
+                    }
+                    finally
+                    {
+                        if(remainingBatches.decrementAndGet() == 0)
+                        {
+                            _finish();
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    private void _warm(long[] batch, List<Dimension> locales)
+    {
+        if(cancelled)
+        {
+            return;
+        }
+        ICS ics = contexts.acquire();
+        try
+        {
+            Helper helper = new Helper(ics);
+            for(long p : batch)
+            {
+                for(Dimension locale : locales)
+                {
+                    if(cancelled)
+                    {
+                        return;
+                    }
+                    try
+                    {
+                        aliases.addAndGet(helper.warm(p, locale));
+                    }
+                    catch(CSRuntimeException e)
+                    {
+                        // pages are not necessarily available in every locale
+                        failed.incrementAndGet();
+                        if(LOG.isDebugEnabled())
+                        {
+                            LOG.debug("Could not warm up page " + p + " in locale " + (locale == null ? null : locale.getName()) + ": " + e);
+                        }
+                    }
+                    catch(RuntimeException e)
+                    {
+                        failed.incrementAndGet();
+                        LOG.warn("Failure warming up page " + p + " in locale " + (locale == null ? null : locale.getName()), e);
+                    }
+                    _progress(completed.incrementAndGet());
+                }
+            }
+        }
+        finally
+        {
+            contexts.release(ics);
+        }
+    }
+
+    /**
+     * Log every tenth of the work.
+     */
+    private void _progress(int done)
+    {
+        int t = total;
+        if(LOG.isInfoEnabled() && t >= 10 && done % (t / 10) == 0)
+        {
+            LOG.info("Warm-up " + (done * 100L / t) + "% done: " + this);
+        }
+    }
+
+    private void _finish()
+    {
+        end = System.currentTimeMillis();
+        if(LOG.isInfoEnabled())
+        {
+            LOG.info("Warm-up " + (cancelled ? "cancelled" : "finished") + ": " + this);
+        }
+        File file = snapshotFile;
+        if(file != null && !cancelled)
+        {
+            try
+            {
+                ResolutionSnapshot.write(file);
+            }
+            catch(IOException e)
+            {
+                LOG.error("Could not write resolution snapshot " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Stop the warm-up.  Pages being processed are finished, the others are skipped.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Wait for the warm-up to finish.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return true if the warm-up has finished, false if the timeout elapsed first
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        ExecutorService e;
+        synchronized(this)
+        {
+            e = executor;
+        }
+        if(e == null)
+        {
+            throw new IllegalStateException("SitePlanWarmer not started");
+        }
+        return e.awaitTermination(timeout, unit);
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * @return true if all the pages have been processed, or skipped after a cancellation
+     */
+    public boolean isDone()
+    {
+        return end != 0L;
+    }
+
+    /**
+     * @return number of pages to process, times the number of locales
+     */
+    public int getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * @return number of pages processed so far, times the number of locales, including the failed ones
+     */
+    public int getCompleted()
+    {
+        return completed.get();
+    }
+
+    /**
+     * @return number of pages whose item context could not be resolved in a locale
+     */
+    public int getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return number of aliases computed for the assets placed on the pages
+     */
+    public int getAliases()
+    {
+        return aliases.get();
+    }
+
+    /**
+     * @return time spent warming up so far, or in total once done, in milliseconds
+     */
+    public long getElapsedMillis()
+    {
+        long s = start;
+        if(s == 0L)
+        {
+            return 0L;
+        }
+        long e = end;
+        return (e == 0L ? System.currentTimeMillis() : e) - s;
+    }
+
+    public String toString()
+    {
+        return "SitePlanWarmer{completed=" + completed + "/" + total + ", failed=" + failed + ", aliases=" + aliases + ", elapsed=" + getElapsedMillis() + "ms, cancelled=" + cancelled + "}";
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri;
+
+import COM.FutureTense.Interfaces.ICS;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory stand-in for <code>ICS</code>, for tests that run outside Content Server.  Properties come from a map,
+ * and variables, lists and objects are kept in memory.  Any other method throws
+ * <code>UnsupportedOperationException</code>, so that a test notices when the code under test needs more of the
+ * context.  Like a real context, an instance is meant to be used by one thread at a time.
+ */
+public final class InMemoryICS implements InvocationHandler
+{
+    private final Map<String, String> properties;
+    private final Map<String, String> vars = new HashMap<String, String>();
+    private final Map<String, Object> lists = new HashMap<String, Object>();
+    private final Map<String, Object> objects = new HashMap<String, Object>();
+    private int errno;
+
+    private InMemoryICS(Map<String, String> properties)
+    {
+        this.properties = properties;
+    }
+
+    /**
+     * @param properties properties returned by <code>GetProperty</code>, whatever the file asked for
+     * @return a new context
+     */
+    public static ICS create(Map<String, String> properties)
+    {
+        return (ICS)Proxy.newProxyInstance(ICS.class.getClassLoader(), new Class[]{ICS.class}, new InMemoryICS(new HashMap<String, String>(properties)));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args)
+    {
+        String name = method.getName();
+        if("GetProperty".equals(name))
+        {
+            return properties.get((String)args[0]);
+        }
+        if("GetVar".equals(name))
+        {
+            return vars.get((String)args[0]);
+        }
+        if("SetVar".equals(name))
+        {
+            _put(vars, (String)args[0], (String)args[1]);
+            return null;
+        }
+        if("GetList".equals(name))
+        {
+            return lists.get((String)args[0]);
+        }
+        if("RegisterList".equals(name))
+        {
+            _put(lists, (String)args[0], args[1]);
+            return Boolean.TRUE;
+        }
+        if("GetObj".equals(name))
+        {
+            return objects.get((String)args[0]);
+        }
+        if("SetObj".equals(name))
+        {
+            _put(objects, (String)args[0], args[1]);
+            return Boolean.TRUE;
+        }
+        if("GetErrno".equals(name))
+        {
+            return errno;
+        }
+        if("SetErrno".equals(name))
+        {
+            errno = (Integer)args[0];
+            return null;
+        }
+        if("ClearErrno".equals(name))
+        {
+            errno = 0;
+            return null;
+        }
+        if("toString".equals(name) && args == null)
+        {
+            return "InMemoryICS" + vars;
+        }
+        if("hashCode".equals(name) && args == null)
+        {
+            return System.identityHashCode(proxy);
+        }
+        if("equals".equals(name) && args != null && args.length == 1)
+        {
+            return proxy == args[0];
+        }
+        throw new UnsupportedOperationException("ICS." + name + " is not available in tests");
+    }
+
+    private static <V> void _put(Map<String, V> map, String key, V value)
+    {
+        if(value == null)
+        {
+            map.remove(key);
+        }
+        else
+        {
+            map.put(key, value);
+        }
+    }
+}
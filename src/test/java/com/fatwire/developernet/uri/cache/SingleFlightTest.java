@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.cache;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test of {@link SingleFlight}: many threads asking for the same few keys at once.
+ */
+public class SingleFlightTest extends TestCase
+{
+    private static final int KEYS = 4;
+    private static final int THREADS_PER_KEY = 32;
+
+    private SingleFlight<String, String> flights;
+    private ConcurrentMap<String, AtomicInteger> calls;
+    private CountDownLatch release;
+    private List<Thread> threads;
+
+    protected void setUp() throws Exception
+    {
+        flights = new SingleFlight<String, String>();
+        calls = new ConcurrentHashMap<String, AtomicInteger>();
+        release = new CountDownLatch(1);
+        threads = new ArrayList<Thread>();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        release.countDown();
+        for(Thread t : threads)
+        {
+            t.join(10000L);
+        }
+    }
+
+    public void testOneComputationPerKey() throws Exception
+    {
+        final Map<Thread, Object> results = new ConcurrentHashMap<Thread, Object>();
+        for(int k = 0; k < KEYS; k++)
+        {
+            final String key = "key" + k;
+            for(int i = 0; i < THREADS_PER_KEY; i++)
+            {
+                _start(new Runnable()
+                {
+                    public void run()
+                    {
+                        results.put(Thread.currentThread(), flights.execute(key, _blockingComputation(key, "value of " + key, false), 10000L));
+                    }
+                });
+            }
+        }
+        _awaitAllWaiting();
+        assertEquals(KEYS, flights.getInFlightCount());
+        release.countDown();
+        _joinAll();
+
+        assertEquals(KEYS * THREADS_PER_KEY, results.size());
+        for(Thread t : threads)
+        {
+            assertEquals("value of " + t.getName(), results.get(t));
+        }
+        for(int k = 0; k < KEYS; k++)
+        {
+            assertEquals("Computations of key" + k, 1, calls.get("key" + k).get());
+        }
+        assertEquals(KEYS * (THREADS_PER_KEY - 1), flights.getCoalescedCount());
+        assertEquals(0L, flights.getTimeoutCount());
+        assertEquals(0, flights.getInFlightCount());
+    }
+
+    public void testWaitersRethrowTheLeadersException() throws Exception
+    {
+        final Map<Thread, Object> thrown = new ConcurrentHashMap<Thread, Object>();
+        for(int i = 0; i < THREADS_PER_KEY; i++)
+        {
+            _start(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        flights.execute("key0", _blockingComputation("key0", null, true), 10000L);
+                    }
+                    catch(RuntimeException e)
+                    {
+                        thrown.put(Thread.currentThread(), e);
+                    }
+                }
+            });
+        }
+        _awaitAllWaiting();
+        release.countDown();
+        _joinAll();
+
+        assertEquals(1, calls.get("key0").get());
+        assertEquals(THREADS_PER_KEY, thrown.size());
+        Map<Object, Boolean> distinct = new IdentityHashMap<Object, Boolean>();
+        for(Object e : thrown.values())
+        {
+            distinct.put(e, Boolean.TRUE);
+        }
+        assertEquals("Every thread gets the leader's exception", 1, distinct.size());
+        Object e = distinct.keySet().iterator().next();
+        assertTrue(e instanceof IllegalArgumentException);
+        assertEquals("failure computing key0", ((Exception)e).getMessage());
+        assertEquals(0, flights.getInFlightCount());
+    }
+
+    public void testWaiterComputesItselfAfterTimeout() throws Exception
+    {
+        final Object[] leaderResult = new Object[1];
+        Thread leader = _start(new Runnable()
+        {
+            public void run()
+            {
+                leaderResult[0] = flights.execute("key0", _blockingComputation("key0", "slow", false), 10000L);
+            }
+        });
+        _awaitAllWaiting();
+
+        // the leader is stuck: the waiter gives up after 50ms and computes the value itself
+        long start = System.currentTimeMillis();
+        String value = flights.execute("key0", new Callable<String>()
+        {
+            public String call()
+            {
+                calls.get("key0").incrementAndGet();
+                return "fast";
+            }
+        }, 50L);
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals("fast", value);
+        assertTrue("Waited " + elapsed + "ms", elapsed >= 40L && elapsed < 5000L);
+        assertEquals(1L, flights.getTimeoutCount());
+        assertEquals(1L, flights.getCoalescedCount());
+        assertEquals(2, calls.get("key0").get());
+        assertTrue(leader.isAlive());
+
+        release.countDown();
+        leader.join(10000L);
+        assertEquals("slow", leaderResult[0]);
+        assertEquals(0, flights.getInFlightCount());
+    }
+
+    public void testInterruptedWaiterComputesItself() throws Exception
+    {
+        _start(new Runnable()
+        {
+            public void run()
+            {
+                flights.execute("key0", _blockingComputation("key0", "slow", false), 10000L);
+            }
+        });
+        _awaitAllWaiting();
+
+        final Object[] waiterResult = new Object[2];
+        Thread waiter = _start(new Runnable()
+        {
+            public void run()
+            {
+                waiterResult[0] = flights.execute("key0", new Callable<String>()
+                {
+                    public String call()
+                    {
+                        return "own";
+                    }
+                }, 10000L);
+                waiterResult[1] = Thread.currentThread().isInterrupted();
+            }
+        });
+        _awaitAllWaiting();
+        waiter.interrupt();
+        waiter.join(10000L);
+        assertEquals("own", waiterResult[0]);
+        assertEquals("The interrupt is kept", Boolean.TRUE, waiterResult[1]);
+    }
+
+    public void testNothingIsRemembered()
+    {
+        final AtomicInteger count = new AtomicInteger();
+        Callable<String> computation = new Callable<String>()
+        {
+            public String call()
+            {
+                return "value" + count.incrementAndGet();
+            }
+        };
+        assertEquals("value1", flights.execute("key", computation, 1000L));
+        assertEquals("value2", flights.execute("key", computation, 1000L));
+        assertEquals(0L, flights.getCoalescedCount());
+        assertEquals(0, flights.getInFlightCount());
+    }
+
+    /**
+     * A computation that counts its calls and blocks until the test releases it.
+     */
+    private Callable<String> _blockingComputation(final String key, final String value, final boolean fail)
+    {
+        calls.putIfAbsent(key, new AtomicInteger());
+        return new Callable<String>()
+        {
+            public String call() throws InterruptedException
+            {
+                calls.get(key).incrementAndGet();
+                release.await();
+                if(fail)
+                {
+                    throw new IllegalArgumentException("failure computing " + key);
+                }
+                return value;
+            }
+        };
+    }
+
+    private Thread _start(Runnable r)
+    {
+        // thread names are used to check which value each thread got
+        String name = "key" + (threads.size() / THREADS_PER_KEY);
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Wait until every thread started is blocked, either computing or waiting for another thread's result.
+     */
+    private void _awaitAllWaiting() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while(System.currentTimeMillis() < deadline)
+        {
+            boolean allWaiting = true;
+            for(Thread t : threads)
+            {
+                Thread.State state = t.getState();
+                if(state != Thread.State.WAITING && state != Thread.State.TIMED_WAITING && state != Thread.State.TERMINATED)
+                {
+                    allWaiting = false;
+                }
+            }
+            if(allWaiting)
+            {
+                return;
+            }
+            Thread.sleep(10L);
+        }
+        fail("Threads did not block in time");
+    }
+
+    private void _joinAll() throws InterruptedException
+    {
+        for(Thread t : threads)
+        {
+            t.join(10000L);
+            assertFalse(t.isAlive());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.itemcontext;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that {@link ItemContextAssembler.PathSegments} splits paths and recognizes integers exactly as the
+ * <code>String.split</code> and <code>Integer.parseInt</code> calls it replaces, as they behave on Java 5.
+ */
+public class PathSegmentsTest extends TestCase
+{
+    public void testAcceptedIntegers()
+    {
+        String[] accepted = {"0", "5", "42", "007", "-5", "-0", "2147483647", "-2147483648"};
+        for(String s : accepted)
+        {
+            assertTrue(s, _isInteger(s));
+            assertTrue("v" + s, _isVariant("v" + s));
+        }
+    }
+
+    public void testRejectedIntegers()
+    {
+        String[] rejected = {"", "+5", "+", "-", "--5", "-+5", "2147483648", "-2147483649", "99999999999", "5a", "a5", " 5", "5 ", "1.0", "0x10", "1e3"};
+        for(String s : rejected)
+        {
+            assertFalse("[" + s + "]", _isInteger(s));
+            assertFalse("[v" + s + "]", _isVariant("v" + s));
+        }
+    }
+
+    public void testSameAsParseInt()
+    {
+        String digits = "0123456789+-a";
+        Random random = new Random(42L);
+        for(int i = 0; i < 10000; i++)
+        {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(12);
+            for(int j = 0; j < length; j++)
+            {
+                sb.append(digits.charAt(random.nextInt(digits.length())));
+            }
+            String s = sb.toString();
+            assertEquals("[" + s + "]", _parseIntJava5(s), _isInteger(s));
+        }
+    }
+
+    public void testSplit()
+    {
+        String[] paths = {"", "a", "a/b", "a//b", "/a", "//a", "a/", "a//", "/", "//", "a/b/c/v5", "a/b/"};
+        for(String path : paths)
+        {
+            ItemContextAssembler.PathSegments segments = new ItemContextAssembler.PathSegments("/prefix/" + path, 8);
+            String[] expected = path.split("/");
+            String[] actual = new String[segments.size()];
+            for(int i = 0; i < actual.length; i++)
+            {
+                actual[i] = segments.get(i);
+            }
+            assertEquals("[" + path + "]", Arrays.asList(expected), Arrays.asList(actual));
+        }
+    }
+
+    private static boolean _isInteger(String s)
+    {
+        ItemContextAssembler.PathSegments segments = new ItemContextAssembler.PathSegments("/x/" + s, 3);
+        return segments.size() == 1 && segments.isInteger(0, 0);
+    }
+
+    private static boolean _isVariant(String s)
+    {
+        ItemContextAssembler.PathSegments segments = new ItemContextAssembler.PathSegments("a/" + s, 0);
+        return segments.isInteger(1, 1);
+    }
+
+    /**
+     * <code>Integer.parseInt</code> only accepts a leading <code>+</code> from Java 7 on.
+     */
+    private static boolean _parseIntJava5(String s)
+    {
+        if(s.startsWith("+"))
+        {
+            return false;
+        }
+        try
+        {
+            Integer.parseInt(s);
+            return true;
+        }
+        catch(NumberFormatException e)
+        {
+            return false;
+        }
+    }
+}
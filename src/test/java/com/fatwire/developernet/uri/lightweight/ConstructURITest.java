@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.lightweight;
+
+import junit.framework.TestCase;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Random;
+
+/**
+ * Checks that {@link LightweightAbstractAssembler#constructURI} quotes the path and the fragment exactly as the
+ * multi-arg <code>java.net.URI</code> constructors it replaces.
+ */
+public class ConstructURITest extends TestCase
+{
+    public void testPlain() throws Exception
+    {
+        _assertSameAsLegacy("http", "localhost:8080", "/cs/Satellite/home", "a=1&b=2", null);
+        _assertSameAsLegacy(null, null, "/cs/Satellite", null, null);
+        _assertSameAsLegacy(null, null, null, "a=1", null);
+        _assertSameAsLegacy(null, null, "", null, null);
+        _assertSameAsLegacy(null, null, "/", null, "top");
+    }
+
+    public void testSpaces() throws Exception
+    {
+        _assertSameAsLegacy("http", "localhost", "/cs/Satellite/my page/sub page", null, null);
+        _assertSameAsLegacy(null, null, "/ a ", null, " a b ");
+        _assertSameAsLegacy(null, null, "/a\u00a0b\u3000c", null, "x\u00a0y");
+    }
+
+    public void testPercent() throws Exception
+    {
+        _assertSameAsLegacy(null, null, "/100%/a%20b", "q=%20", "50%");
+        _assertSameAsLegacy(null, null, "/%", null, "%%");
+    }
+
+    public void testNonAscii() throws Exception
+    {
+        _assertSameAsLegacy("http", "localhost", "/cs/Satellite/caf\u00e9/\u65e5\u672c\u8a9e", null, null);
+        _assertSameAsLegacy(null, null, "/x\ud83d\ude00y", null, "caf\u00e9");
+        _assertSameAsLegacy(null, null, "/\u0085\u2028\u00ad", null, "\u65e5\u672c\u8a9e\ud83d\ude00");
+    }
+
+    public void testReservedCharacters() throws Exception
+    {
+        _assertSameAsLegacy(null, null, "/a;b=c,d:e$f&g+h@i/j", null, null);
+        _assertSameAsLegacy(null, null, "/a?b#c[d]e{f}g|h\\i^j`k\"l<m>n", null, null);
+        _assertSameAsLegacy(null, null, "/-_.!~*'()", null, "-_.!~*'()");
+        _assertSameAsLegacy(null, null, "/", null, ";/?:@&=+$,[]");
+        _assertSameAsLegacy(null, null, "/", null, "{}|\\^`\"<> ");
+    }
+
+    public void testFragmentWithHash() throws Exception
+    {
+        _assertSameAsLegacy("http", "localhost", "/home", "a=1", "section#2");
+        _assertSameAsLegacy(null, null, "/", null, "#");
+        _assertSameAsLegacy(null, null, "/", null, "");
+    }
+
+    public void testControlCharacters() throws Exception
+    {
+        for(char c = 0; c < 0x20; c++)
+        {
+            _assertSameAsLegacy(null, null, "/a" + c + "b", null, "a" + c + "b");
+        }
+        _assertSameAsLegacy(null, null, "/a\u007fb", null, "a\u007fb");
+    }
+
+    public void testPathsHandedToUri() throws Exception
+    {
+        // relative paths and paths that look like an authority still go through java.net.URI
+        _assertSameAsLegacy(null, null, "relative/path with space", null, null);
+        _assertSameAsLegacy(null, null, "//host/path", null, null);
+        _assertSameAsLegacy("http", "localhost", "relative", null, null);
+        _assertSameAsLegacy(null, null, "a:b", null, null);
+    }
+
+    public void testRandomPaths() throws Exception
+    {
+        String[] alphabet = {"a", "Z", "0", "9", "/", " ", "%", "#", "?", "&", "=", "+", ";", ":", "@", "$", ",", "[", "]", "{", "}", "|", "\\", "^", "`", "\"", "<", ">", "-", "_", ".", "!", "~", "*", "'", "(", ")", "\t", "\u00e9", "\u00a0", "\u65e5", "\ud83d\ude00"};
+        Random random = new Random(42L);
+        for(int i = 0; i < 5000; i++)
+        {
+            String path = "/" + _randomString(random, alphabet);
+            String fragment = random.nextBoolean() ? null : _randomString(random, alphabet);
+            _assertSameAsLegacy("http", "localhost:8080", path, "a=1", fragment);
+        }
+    }
+
+    private static String _randomString(Random random, String[] alphabet)
+    {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(12);
+        for(int j = 0; j < length; j++)
+        {
+            sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static void _assertSameAsLegacy(String scheme, String authority, String path, String quotedQueryString, String fragment)
+    {
+        String what = "[" + scheme + "][" + authority + "][" + path + "][" + quotedQueryString + "][" + fragment + "]";
+        URI expected;
+        try
+        {
+            expected = _constructLegacy(scheme, authority, path, quotedQueryString, fragment);
+        }
+        catch(URISyntaxException e)
+        {
+            try
+            {
+                LightweightAbstractAssembler.constructURI(scheme, authority, path, quotedQueryString, fragment);
+                fail("Expected " + e + " constructing " + what);
+            }
+            catch(URISyntaxException actual)
+            {
+                // expected
+            }
+            return;
+        }
+        URI actual;
+        try
+        {
+            actual = LightweightAbstractAssembler.constructURI(scheme, authority, path, quotedQueryString, fragment);
+        }
+        catch(URISyntaxException e)
+        {
+            fail("Unexpected " + e + " constructing " + what);
+            return;
+        }
+        assertEquals("Constructing " + what, expected.toString(), actual.toString());
+        assertEquals("Constructing " + what, expected.toASCIIString(), actual.toASCIIString());
+    }
+
+    /**
+     * The original implementation of <code>constructURI</code>, which let <code>java.net.URI</code> quote the path
+     * and the fragment.
+     */
+    private static URI _constructLegacy(String scheme, String authority, String path, String quotedQueryString, String fragment) throws URISyntaxException
+    {
+        StringBuilder bf = new StringBuilder();
+        if(scheme != null)
+        {
+            bf.append(scheme).append(':'); // nothing legal can be quoted
+        }
+        if(authority != null)
+        {
+            bf.append("//").append(authority); // nothing legal to quote until I18N URLs work
+        }
+        // Path needs quoting though, so let the URI object do it for us.
+        // Use the toASCIIString() method because we need the quoted values.
+        // (toString() is really just for readability and debugging, not programmatic use)
+        if(path != null)
+        {
+            bf.append(new URI(null, null, path, null, null).getRawPath());
+        }
+        if(quotedQueryString != null)
+        {
+            bf.append('?').append(quotedQueryString); // already quoted
+        }
+        // needs quoting
+        if(fragment != null)
+        {
+            bf.append(new URI(null, null, null, null, fragment).toASCIIString());
+        }
+        return new URI(bf.toString());
+    }
+}
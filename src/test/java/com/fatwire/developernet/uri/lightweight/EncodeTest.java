@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.lightweight;
+
+import com.fatwire.cs.core.uri.Util;
+import com.fatwire.developernet.uri.itemcontext.ItemContextAssembler;
+import junit.framework.TestCase;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Random;
+
+/**
+ * Checks that the table-driven encoder of {@link LightweightAbstractAssembler} produces exactly what
+ * <code>java.net.URLEncoder</code> produces, and what <code>com.fatwire.cs.core.uri.Util.encode</code>, which it
+ * replaces, produces with the Content Server jars on the classpath.
+ */
+public class EncodeTest extends TestCase
+{
+    private static final String[] CHARSETS = {"UTF-8", "ISO-8859-1", "UTF-16", "Shift_JIS", "windows-1252"};
+
+    private LightweightAbstractAssembler assembler;
+
+    protected void setUp() throws Exception
+    {
+        assembler = new ItemContextAssembler();
+    }
+
+    public void testNull()
+    {
+        assertNull(assembler.encode(null));
+    }
+
+    public void testSafeStringIsReturnedAsIs()
+    {
+        String s = "abcXYZ019.-*_";
+        assertSame(s, assembler.encode(s));
+        assertEquals("prefix:" + s, assembler.appendEncoded(new StringBuilder("prefix:"), s).toString());
+    }
+
+    public void testAscii() throws Exception
+    {
+        for(char c = 0; c < 0x80; c++)
+        {
+            _assertSameAsUrlEncoder(String.valueOf(c));
+            _assertSameAsUrlEncoder("a" + c + "b");
+            _assertSameAsUrlEncoder(c + " " + c + c);
+        }
+    }
+
+    public void testNonAscii() throws Exception
+    {
+        for(char c = 0x80; c < 0x800; c++)
+        {
+            _assertSameAsUrlEncoder(String.valueOf(c));
+        }
+        _assertSameAsUrlEncoder("caf\u00e9 cr\u00e8me br\u00fbl\u00e9e");
+        _assertSameAsUrlEncoder("\u20ac 10");
+        _assertSameAsUrlEncoder("\u65e5\u672c\u8a9e/\u30c6\u30b9\u30c8");
+        _assertSameAsUrlEncoder("\u00e9\u00e9 \u00e9-\u00e9");
+    }
+
+    public void testSurrogatePairs() throws Exception
+    {
+        _assertSameAsUrlEncoder("\ud83d\ude00");
+        _assertSameAsUrlEncoder("a\ud83d\ude00b");
+        _assertSameAsUrlEncoder("\ud83d\ude00\ud834\udd1e \u00e9\ud83d\ude00");
+        // lone and reversed surrogates
+        _assertSameAsUrlEncoder("\ud83d");
+        _assertSameAsUrlEncoder("a\ude00b");
+        _assertSameAsUrlEncoder("\ude00\ud83d");
+        _assertSameAsUrlEncoder("\ud83d \ude00");
+    }
+
+    public void testOtherCharsets() throws Exception
+    {
+        String[] inputs = {"a b", "caf\u00e9", "\u20ac&\u00a3=\u00a5", "\u65e5\u672c\u8a9e", "x\ud83d\ude00y", "100%", "\u00e9 \u00e9.\u00e9"};
+        for(String charset : CHARSETS)
+        {
+            for(String s : inputs)
+            {
+                assertEquals("Encoding [" + s + "] in " + charset, URLEncoder.encode(s, charset), LightweightAbstractAssembler.urlEncode(s, charset));
+            }
+        }
+    }
+
+    public void testRandomStrings() throws Exception
+    {
+        String alphabet = "aZ09.-*_ +%&=/?#~!'()\u00e9\u20ac\u65e5\ud83d\ude00";
+        Random random = new Random(42L);
+        for(int i = 0; i < 5000; i++)
+        {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for(int j = 0; j < length; j++)
+            {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String s = sb.toString();
+            for(String charset : CHARSETS)
+            {
+                assertEquals("Encoding [" + s + "] in " + charset, URLEncoder.encode(s, charset), LightweightAbstractAssembler.urlEncode(s, charset));
+            }
+        }
+    }
+
+    public void testSameAsUtilEncode() throws Exception
+    {
+        String alphabet = "aZ09.-*_ +%&=/?#~!'()\u00e9\u20ac\u65e5\ud83d\ude00";
+        for(char c = 0; c < 0x800; c++)
+        {
+            _assertSameAsUtilEncode(String.valueOf(c), "UTF-8");
+        }
+        Random random = new Random(42L);
+        for(int i = 0; i < 2000; i++)
+        {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for(int j = 0; j < length; j++)
+            {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            for(String charset : CHARSETS)
+            {
+                _assertSameAsUtilEncode(sb.toString(), charset);
+            }
+        }
+    }
+
+    private void _assertSameAsUtilEncode(String s, String charset) throws UnsupportedEncodingException
+    {
+        assertEquals("Encoding [" + s + "] in " + charset, Util.encode(s, charset), LightweightAbstractAssembler.urlEncode(s, charset));
+    }
+
+    private void _assertSameAsUrlEncoder(String s) throws UnsupportedEncodingException
+    {
+        String expected = URLEncoder.encode(s, "UTF-8");
+        assertEquals("Encoding [" + s + "]", expected, assembler.encode(s));
+        assertEquals("Appending [" + s + "]", "x=" + expected, assembler.appendEncoded(new StringBuilder("x="), s).toString());
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.lightweight;
+
+import com.fatwire.developernet.uri.itemcontext.ItemContextAssembler;
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Checks that {@link LightweightAbstractAssembler#parseQueryString} returns the same parameters as the original
+ * two-map parser, a copy of which is kept here (and in the benchmarks, as <code>BenchmarkAssembler.parseLegacy</code>).
+ */
+public class ParseQueryStringTest extends TestCase
+{
+    private static final String CHARSET_lower = "_charset_";
+    private static final String CHARSET_upper = "_CHARSET_";
+
+    private LightweightAbstractAssembler assembler;
+
+    protected void setUp() throws Exception
+    {
+        assembler = new ItemContextAssembler();
+    }
+
+    public void testEmpty()
+    {
+        _assertSameAsLegacy(null);
+        _assertSameAsLegacy("");
+        _assertSameAsLegacy("noequals");
+        _assertSameAsLegacy("&&&");
+        assertTrue(assembler.parseQueryString(null).isEmpty());
+    }
+
+    public void testSimple()
+    {
+        _assertSameAsLegacy("a=1");
+        _assertSameAsLegacy("a=1&b=2&c=3");
+        _assertSameAsLegacy("a=b=c");
+        _assertSameAsLegacy("a=1&&b=2");
+        _assertSameAsLegacy("a=1&b");
+        _assertSameAsLegacy("=1&b=2");
+    }
+
+    public void testTrimming()
+    {
+        _assertSameAsLegacy(" a = 1 & b=2 ");
+        _assertSameAsLegacy("\ta\t=\t1\t");
+        _assertSameAsLegacy("a=1& b =  &c=3");
+        _assertSameAsLegacy("a b=c d");
+        _assertSameAsLegacy("a=%20x%20");
+        assertEquals(" x ", assembler.parseQueryString("a=%20x%20").get("a")[0]);
+        assertEquals("1", assembler.parseQueryString(" a = 1 ").get("a")[0]);
+    }
+
+    public void testEmptyValues()
+    {
+        _assertSameAsLegacy("a=&b=2");
+        _assertSameAsLegacy("a= &b=");
+        _assertSameAsLegacy("a=&a=&a=1");
+        assertEquals("", assembler.parseQueryString("a=&b=2").get("a")[0]);
+    }
+
+    public void testTrailingEquals()
+    {
+        _assertSameAsLegacy("a=");
+        _assertSameAsLegacy("a=1&b=");
+        _assertSameAsLegacy("a=1&b=2&");
+        assertFalse(assembler.parseQueryString("a=1&b=").containsKey("b"));
+    }
+
+    public void testRepeatedNames()
+    {
+        _assertSameAsLegacy("a=1&a=2&a=3");
+        _assertSameAsLegacy("a=1&b=2&a=3&b=4&c=5");
+        _assertSameAsLegacy(" a=1&a =2");
+        assertEquals(Arrays.asList("1", "2", "3"), Arrays.asList(assembler.parseQueryString("a=1&a=2&a=3").get("a")));
+    }
+
+    public void testDecoding()
+    {
+        _assertSameAsLegacy("%41=b+c%20d");
+        _assertSameAsLegacy("name=%C3%A9t%C3%A9&x=%E2%82%AC+%F0%9F%98%80");
+        _assertSameAsLegacy("a+b=1+2+3");
+        _assertSameAsLegacy("a=%2B%26%3D");
+        assertEquals("\u00e9t\u00e9", assembler.parseQueryString("name=%C3%A9t%C3%A9").get("name")[0]);
+    }
+
+    public void testMalformedEscapes()
+    {
+        _assertSameAsLegacy("a=%zz");
+        _assertSameAsLegacy("a=%4");
+        _assertSameAsLegacy("a=1&b=%");
+        _assertSameAsLegacy("%g1=1");
+    }
+
+    public void testCharset()
+    {
+        _assertSameAsLegacy("_charset_=ISO-8859-1&n=%E9");
+        _assertSameAsLegacy("_CHARSET_=ISO-8859-1&n=%E9");
+        _assertSameAsLegacy("n=%E9&_charset_=ISO-8859-1");
+        _assertSameAsLegacy(" _charset_ = ISO-8859-1 &n=%E9");
+        _assertSameAsLegacy("_charset_=UTF-8&n=%C3%A9");
+        assertEquals("\u00e9", assembler.parseQueryString("_charset_=ISO-8859-1&n=%E9").get("n")[0]);
+        assertEquals("\u00e9", assembler.parseQueryString("_CHARSET_=ISO-8859-1&n=%E9").get("n")[0]);
+    }
+
+    public void testLowercaseCharsetWins()
+    {
+        _assertSameAsLegacy("_CHARSET_=UTF-8&_charset_=ISO-8859-1&n=%E9");
+        _assertSameAsLegacy("_charset_=ISO-8859-1&_CHARSET_=UTF-8&_CHARSET_=UTF-8&n=%E9");
+        assertEquals("\u00e9", assembler.parseQueryString("_CHARSET_=UTF-8&_charset_=ISO-8859-1&n=%E9").get("n")[0]);
+    }
+
+    public void testTooManyCharsets()
+    {
+        _assertSameAsLegacy("_charset_=UTF-8&_charset_=UTF-8");
+        _assertSameAsLegacy("_CHARSET_=UTF-8&a=1&_CHARSET_=ISO-8859-1");
+        try
+        {
+            assembler.parseQueryString("_charset_=UTF-8&a=1&_charset_=UTF-8");
+            fail("Expected an exception for a repeated _charset_");
+        }
+        catch(IllegalStateException e)
+        {
+            assertEquals("Too many values of _charset_ found in the URL", e.getMessage());
+        }
+    }
+
+    public void testUnsupportedCharset()
+    {
+        _assertSameAsLegacy("_charset_=bogus&a=%41");
+        _assertSameAsLegacy("_charset_=bogus&a=b");
+        _assertSameAsLegacy("_charset_=&a=b");
+        try
+        {
+            assembler.parseQueryString("_charset_=bogus&a=b");
+            fail("Expected an exception for an unsupported _charset_");
+        }
+        catch(IllegalStateException e)
+        {
+            // expected, even though nothing needs decoding
+        }
+    }
+
+    /**
+     * The original parser grouped the values by raw name, then decoded the names, so that one of the values of
+     * names that only differ in their encoding was lost.  They are now grouped by decoded name.
+     */
+    public void testNamesMergedAfterDecoding()
+    {
+        assertEquals(Arrays.asList("1", "2"), Arrays.asList(assembler.parseQueryString("a=1&%61=2").get("a")));
+        assertEquals(Arrays.asList("1", "2", "3"), Arrays.asList(assembler.parseQueryString("a+b=1&a%20b=2&a b=3").get("a b")));
+    }
+
+    public void testCharsetOnlyInValue()
+    {
+        _assertSameAsLegacy("a=_charset_&b=_CHARSET_");
+        _assertSameAsLegacy("x_charset_=1&_charset_x=2");
+    }
+
+    /**
+     * Random query strings made of a few names and values, including the awkward ones above.  The
+     * <code>_charset_</code> parameters always name a supported charset: how unsupported ones are reported depends
+     * on the decoder of the platform, and so does which of several malformed segments is reported first.  Names that
+     * only differ in their encoding are never generated, see {@link #testNamesMergedAfterDecoding}.
+     */
+    public void testRandomQueryStrings()
+    {
+        String[] names = {"a", "b", " a ", "c%41", "d+e", "_charset_", "_CHARSET_", "", " "};
+        String[] values = {"", " ", "1", " 2 ", "%41", "%C3%A9", "%E9", "+x+", "%", "%4", "=", "a=b"};
+        String[] charsets = {"ISO-8859-1", " UTF-8 "};
+        Random random = new Random(42L);
+        for(int i = 0; i < 5000; i++)
+        {
+            StringBuilder qry = new StringBuilder();
+            int pairs = random.nextInt(6);
+            for(int j = 0; j < pairs; j++)
+            {
+                if(j > 0 || random.nextInt(10) == 0)
+                {
+                    qry.append('&');
+                }
+                String name = names[random.nextInt(names.length)];
+                qry.append(name);
+                if(random.nextInt(10) != 0)
+                {
+                    qry.append('=');
+                }
+                qry.append(name.startsWith("_") ? charsets[random.nextInt(charsets.length)] : values[random.nextInt(values.length)]);
+            }
+            _assertSameAsLegacy(qry.toString());
+        }
+    }
+
+    private void _assertSameAsLegacy(String qry)
+    {
+        Map<String, String[]> expected;
+        try
+        {
+            expected = _parseLegacy(qry);
+        }
+        catch(RuntimeException e)
+        {
+            try
+            {
+                assembler.parseQueryString(qry);
+                fail("Expected " + e + " parsing [" + qry + "]");
+            }
+            catch(RuntimeException actual)
+            {
+                assertEquals("Exception parsing [" + qry + "]", e.getClass(), actual.getClass());
+            }
+            return;
+        }
+        Map<String, String[]> actual = assembler.parseQueryString(qry);
+        assertEquals("Names parsing [" + qry + "]", expected.keySet(), actual.keySet());
+        for(String name : expected.keySet())
+        {
+            assertEquals("Values of [" + name + "] parsing [" + qry + "]", Arrays.asList(expected.get(name)), Arrays.asList(actual.get(name)));
+        }
+    }
+
+    /**
+     * The original implementation of <code>parseQueryString</code>: substring and trim every pair into a raw map,
+     * growing the value arrays for repeated names, then decode everything into a second map.
+     */
+    private Map<String, String[]> _parseLegacy(String qry)
+    {
+        Map<String, String[]> rawPairs = new HashMap<String, String[]>();
+        if(qry == null)
+        {
+            return rawPairs;
+        }
+        int inlen = qry.length();
+        if(inlen == 0)
+        {
+            return rawPairs;
+        }
+
+        int iequal;
+        int iamper;
+        int startAt = 0;
+        boolean bDone = false;
+
+        while(!bDone)
+        {
+            String n;
+            String v;
+            if((iequal = qry.indexOf("=", startAt)) != -1)
+            {
+                // End of current name=value is '&' or EOL
+                iamper = qry.indexOf("&", iequal);
+                n = qry.substring(startAt, iequal);
+                n = n.trim(); // deal with accidental odd chars in the URL
+                iequal++;
+                if(iequal >= inlen)
+                {
+                    break;
+                }
+
+                if(iamper == -1)
+                {
+                    v = qry.substring(iequal);
+                }
+                else
+                {
+                    v = qry.substring(iequal, iamper);
+                }
+
+                if(iamper != -1)
+                {
+                    startAt = iamper + 1;
+                }
+                else
+                {
+                    bDone = true;
+                }
+
+                v = v.trim(); // deal with stupid value
+
+                // add the value to the result.
+                String[] av = rawPairs.get(n);
+                if(av == null)
+                {
+                    av = new String[1];
+                    av[0] = v;
+                    rawPairs.put(n, av);
+                }
+                else
+                {
+                    // param specified twice in the url.
+                    String[] newVal = new String[av.length + 1];
+                    System.arraycopy(av, 0, newVal, 0, av.length);
+                    newVal[av.length] = v;
+                    rawPairs.put(n, newVal);
+                }
+            }
+            else
+            {
+                break;        // no more pairs
+            }
+        }
+
+        // Figure out which encoding to use to decode the params
+        String[] _charset_ = rawPairs.get(CHARSET_lower) == null ? rawPairs.get(CHARSET_upper) : rawPairs.get(CHARSET_lower);
+        final String encoding;
+        if(_charset_ == null)
+        {
+            encoding = null; // try to follow the spec
+        }
+        else if(_charset_.length == 1)
+        {
+            encoding = _charset_[0]; // url contains an override for the spec
+        }
+        else
+        {
+            throw new IllegalStateException("Too many values of _charset_ found in the URL");
+        }
+
+        // Decode the raw pairs using the proper encoding and set them into the result map
+        Map<String, String[]> res = new HashMap<String, String[]>(rawPairs.size());
+        for(String rawKey : rawPairs.keySet())
+        {
+            String key = assembler.decode(rawKey, encoding);
+            String[] val = rawPairs.get(rawKey);
+            for(int i = 0; i < val.length; i++)
+            {
+                val[i] = assembler.decode(val[i], encoding);
+            }
+            res.put(key, val);
+        }
+
+        return res;
+    }
+}
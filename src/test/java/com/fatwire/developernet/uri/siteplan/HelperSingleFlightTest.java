@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2009 FatWire Corporation. All Rights Reserved.
+ * Title, ownership rights, and intellectual property rights in and
+ * to this software remain with FatWire Corporation. This  software
+ * is protected by international copyright laws and treaties, and
+ * may be protected by other law.  Violation of copyright laws may
+ * result in civil liability and criminal penalties.
+ */
+package com.fatwire.developernet.uri.siteplan;
+
+import COM.FutureTense.Interfaces.ICS;
+import com.fatwire.assetapi.data.AssetId;
+import com.fatwire.developernet.CSRuntimeException;
+import com.fatwire.developernet.uri.InMemoryICS;
+import com.fatwire.developernet.uri.itemcontext.aliasing.AssetAliasingStrategy;
+import com.fatwire.developernet.uri.itemcontext.aliasing.CandidateInfo;
+import com.openmarket.xcelerate.asset.AssetIdImpl;
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test of the coalescing of concurrent alias resolutions by {@link Helper}: many threads, each with its own
+ * context and helper, resolve the same few aliases at once.
+ */
+public class HelperSingleFlightTest extends TestCase
+{
+    private static final int KEYS = 4;
+    private static final int THREADS_PER_KEY = 16;
+
+    private List<Thread> threads;
+
+    protected void setUp() throws Exception
+    {
+        Helper.resetConfiguration();
+        CountingStrategy.CALLS.clear();
+        CountingStrategy.release = new CountDownLatch(1);
+        CountingStrategy.blockFirstCallOnly = false;
+        threads = new ArrayList<Thread>();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        CountingStrategy.release.countDown();
+        for(Thread t : threads)
+        {
+            t.join(10000L);
+        }
+        Helper.resetConfiguration();
+    }
+
+    public void testOneResolutionPerAlias() throws Exception
+    {
+        final Map<Thread, Object> results = new ConcurrentHashMap<Thread, Object>();
+        for(int k = 0; k < KEYS; k++)
+        {
+            final String alias = "a" + (100 + k);
+            for(int i = 0; i < THREADS_PER_KEY; i++)
+            {
+                _start(alias, "10000", results);
+            }
+        }
+        _awaitAllWaiting();
+        CountingStrategy.release.countDown();
+        _joinAll();
+
+        for(Thread t : threads)
+        {
+            assertEquals(Long.valueOf(t.getName().substring(1)), results.get(t));
+        }
+        for(int k = 0; k < KEYS; k++)
+        {
+            assertEquals("Resolutions of a" + (100 + k), 1, CountingStrategy.CALLS.get("a" + (100 + k)).get());
+        }
+    }
+
+    public void testWaitersRethrowTheLeadersException() throws Exception
+    {
+        final Map<Thread, Object> results = new ConcurrentHashMap<Thread, Object>();
+        for(int i = 0; i < THREADS_PER_KEY; i++)
+        {
+            _start("missing", "10000", results);
+        }
+        _awaitAllWaiting();
+        CountingStrategy.release.countDown();
+        _joinAll();
+
+        assertEquals(1, CountingStrategy.CALLS.get("missing").get());
+        assertEquals(THREADS_PER_KEY, results.size());
+        Map<Object, Boolean> distinct = new IdentityHashMap<Object, Boolean>();
+        for(Object e : results.values())
+        {
+            distinct.put(e, Boolean.TRUE);
+        }
+        assertEquals("Every thread gets the leader's exception", 1, distinct.size());
+        assertTrue(distinct.keySet().iterator().next() instanceof CSRuntimeException);
+    }
+
+    public void testWaiterResolvesItselfAfterTimeout() throws Exception
+    {
+        CountingStrategy.blockFirstCallOnly = true;
+        Map<Thread, Object> results = new ConcurrentHashMap<Thread, Object>();
+        Thread leader = _start("a200", "100", results);
+        _awaitAllWaiting();
+
+        long start = System.currentTimeMillis();
+        long cid = new Helper(_newIcs("100")).resolveCidFromAlias("Article", "a200", 1L, null);
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(200L, cid);
+        assertTrue("Waited " + elapsed + "ms", elapsed >= 90L && elapsed < 5000L);
+        assertEquals(2, CountingStrategy.CALLS.get("a200").get());
+        assertTrue(leader.isAlive());
+
+        CountingStrategy.release.countDown();
+        leader.join(10000L);
+        assertEquals(200L, results.get(leader));
+    }
+
+    public void testDisabledByDefault() throws Exception
+    {
+        Map<Thread, Object> results = new ConcurrentHashMap<Thread, Object>();
+        for(int i = 0; i < THREADS_PER_KEY; i++)
+        {
+            _start("a300", null, results);
+        }
+        _awaitAllWaiting();
+        assertEquals(THREADS_PER_KEY, CountingStrategy.CALLS.get("a300").get());
+        CountingStrategy.release.countDown();
+        _joinAll();
+        assertEquals(THREADS_PER_KEY, results.size());
+    }
+
+    private static ICS _newIcs(String singleFlightTimeout)
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(Helper.PROPERTY_ALIASING_STRATEGY, CountingStrategy.class.getName());
+        if(singleFlightTimeout != null)
+        {
+            properties.put(Helper.PROPERTY_SINGLE_FLIGHT_TIMEOUT, singleFlightTimeout);
+        }
+        return InMemoryICS.create(properties);
+    }
+
+    /**
+     * Start a thread resolving an alias with its own context and helper, and recording the id or the exception.
+     */
+    private Thread _start(final String alias, final String singleFlightTimeout, final Map<Thread, Object> results)
+    {
+        Thread t = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                Helper helper = new Helper(_newIcs(singleFlightTimeout));
+                try
+                {
+                    results.put(Thread.currentThread(), helper.resolveCidFromAlias("Article", alias, 1L, null));
+                }
+                catch(RuntimeException e)
+                {
+                    results.put(Thread.currentThread(), e);
+                }
+            }
+        }, alias);
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Wait until every thread started is blocked, either resolving or waiting for another thread's result.
+     */
+    private void _awaitAllWaiting() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while(System.currentTimeMillis() < deadline)
+        {
+            boolean allWaiting = true;
+            for(Thread t : threads)
+            {
+                Thread.State state = t.getState();
+                if(state != Thread.State.WAITING && state != Thread.State.TIMED_WAITING && state != Thread.State.TERMINATED)
+                {
+                    allWaiting = false;
+                }
+            }
+            if(allWaiting)
+            {
+                return;
+            }
+            Thread.sleep(10L);
+        }
+        fail("Threads did not block in time");
+    }
+
+    private void _joinAll() throws InterruptedException
+    {
+        for(Thread t : threads)
+        {
+            t.join(10000L);
+            assertFalse(t.isAlive());
+        }
+    }
+
+    /**
+     * Aliasing strategy that counts the lookups of each alias and blocks them until the test releases them.  An alias
+     * <code>a&lt;n&gt;</code> belongs to the asset with id <code>n</code>; <code>missing</code> matches no asset.
+     */
+    public static final class CountingStrategy implements AssetAliasingStrategy
+    {
+        static final ConcurrentMap<String, AtomicInteger> CALLS = new ConcurrentHashMap<String, AtomicInteger>();
+        static volatile CountDownLatch release;
+        static volatile boolean blockFirstCallOnly;
+
+        public CountingStrategy(ICS ics)
+        {
+        }
+
+        public String computeAlias(AssetId id, String localeName)
+        {
+            return "a" + id.getId();
+        }
+
+        public List<CandidateInfo> findCandidatesForAlias(String type, String alias)
+        {
+            CALLS.putIfAbsent(alias, new AtomicInteger());
+            int n = CALLS.get(alias).incrementAndGet();
+            if(!blockFirstCallOnly || n == 1)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if("missing".equals(alias))
+            {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new CandidateInfo(new AssetIdImpl(type, Long.parseLong(alias.substring(1))), null));
+        }
+    }
+}